@@ -0,0 +1,251 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exact `factorial` and `fibonacci` for large arguments. The notes' versions,
+ * `n * factorial(n - 1)` and `fibonacci(n - 1) + fibonacci(n - 2)`, overflow a {@code long} at
+ * 21! and F(93). Translated to {@code BigInteger} they no longer overflow, but they are still slow:
+ * n multiplications of an ever-growing number by a small one, which is quadratic in the number of
+ * digits.
+ *
+ * - **factorial** uses Luschny's prime swing: {@code n! = ((n/2)!)^2 * swing(n)}. The swing is
+ *   a product of prime powers, each at most n, so it can be multiplied out as a balanced
+ *   product tree. The factors of two are left out of the recursion and applied as one shift at
+ *   the end.
+ * - **fibonacci** uses fast doubling: {@code F(2k) = F(k) * (2F(k+1) - F(k))} and
+ *   {@code F(2k+1) = F(k)^2 + F(k+1)^2}, so F(n) takes about {@code log2(n)} steps instead of n.
+ *
+ * Both end in a few multiplications of very large numbers. Operands above
+ * {@link #PARALLEL_BITS} go to {@code BigInteger.parallelMultiply} on Java 19+, which is looked up
+ * reflectively so this compiles on older JDKs, and the product tree forks its halves on the
+ * common pool. Results for small arguments come from precomputed tables.
+ *
+ * ```java
+ * BigMath.factorial(1_000_000);  // 5,565,709 digits
+ * BigMath.fibonacci(10_000_000); // 2,089,877 digits
+ * ```
+ */
+final class BigMath {
+
+    /** Operands at least this many bits long are multiplied with {@code parallelMultiply}, if available. */
+    static final int PARALLEL_BITS = 1 << 16;
+
+    /** Product-tree ranges with more factors than this fork their halves. */
+    static final int PARALLEL_FACTORS = 1 << 12;
+
+    private static final MethodHandle PARALLEL_MULTIPLY = findParallelMultiply();
+
+    private static final int SMALL_FACTORIALS = 128;
+    private static final BigInteger[] FACTORIALS = new BigInteger[SMALL_FACTORIALS + 1];
+    // F(92) is the largest Fibonacci number that fits in a long.
+    private static final long[] FIBONACCI = new long[93];
+
+    static {
+        FACTORIALS[0] = BigInteger.ONE;
+        for (int i = 1; i <= SMALL_FACTORIALS; i++) {
+            FACTORIALS[i] = FACTORIALS[i - 1].multiply(BigInteger.valueOf(i));
+        }
+        FIBONACCI[1] = 1;
+        for (int i = 2; i < FIBONACCI.length; i++) {
+            FIBONACCI[i] = FIBONACCI[i - 1] + FIBONACCI[i - 2];
+        }
+    }
+
+    private BigMath() {
+    }
+
+    private static MethodHandle findParallelMultiply() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(BigInteger.class, "parallelMultiply",
+                    MethodType.methodType(BigInteger.class, BigInteger.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /** Whether large multiplications use {@code BigInteger.parallelMultiply} (Java 19+). */
+    static boolean hasParallelMultiply() {
+        return PARALLEL_MULTIPLY != null;
+    }
+
+    static BigInteger multiply(BigInteger a, BigInteger b) {
+        if (PARALLEL_MULTIPLY != null && a.bitLength() >= PARALLEL_BITS && b.bitLength() >= PARALLEL_BITS) {
+            try {
+                return (BigInteger) PARALLEL_MULTIPLY.invokeExact(a, b);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return a.multiply(b);
+    }
+
+    // -- factorial --
+
+    static BigInteger factorial(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        if (n <= SMALL_FACTORIALS) {
+            return FACTORIALS[n];
+        }
+        int[] primes = primesUpTo(n);
+        // n! has n - bitCount(n) factors of two (Legendre's formula for p = 2).
+        return oddFactorial(n, primes).shiftLeft(n - Integer.bitCount(n));
+    }
+
+    /** n! with every factor of two removed. */
+    private static BigInteger oddFactorial(int n, int[] primes) {
+        if (n <= SMALL_FACTORIALS) {
+            BigInteger f = FACTORIALS[n];
+            return f.shiftRight(f.getLowestSetBit());
+        }
+        BigInteger half = oddFactorial(n / 2, primes);
+        return multiply(multiply(half, half), oddSwing(n, primes));
+    }
+
+    /**
+     * The odd part of {@code swing(n) = n! / ((n/2)!)^2}: for each odd prime p, p to the power of
+     * the number of odd terms in n/p, n/p^2, ... Each such prime power is at most n.
+     */
+    private static BigInteger oddSwing(int n, int[] primes) {
+        long[] factors = new long[primes.length];
+        int count = 0;
+        for (int p : primes) {
+            if (p > n) {
+                break;
+            }
+            if (p == 2) {
+                continue;
+            }
+            long power = 1;
+            for (int q = n / p; q > 0; q /= p) {
+                if ((q & 1) == 1) {
+                    power *= p;
+                }
+            }
+            if (power > 1) {
+                factors[count++] = power;
+            }
+        }
+        // Every factor is below 2^31, so adjacent pairs multiply into a long without overflow.
+        int packed = 0;
+        for (int i = 0; i < count; i += 2) {
+            factors[packed++] = i + 1 < count ? factors[i] * factors[i + 1] : factors[i];
+        }
+        return product(factors, 0, packed);
+    }
+
+    /** Product of {@code factors[from..to)}, as a balanced tree so the operands grow evenly. */
+    static BigInteger product(long[] factors, int from, int to) {
+        if (to - from > PARALLEL_FACTORS) {
+            return ForkJoinPool.commonPool().invoke(new ProductTask(factors, from, to));
+        }
+        return sequentialProduct(factors, from, to);
+    }
+
+    private static BigInteger sequentialProduct(long[] factors, int from, int to) {
+        if (to - from <= 16) {
+            BigInteger result = BigInteger.ONE;
+            for (int i = from; i < to; i++) {
+                result = result.multiply(BigInteger.valueOf(factors[i]));
+            }
+            return result;
+        }
+        int mid = (from + to) >>> 1;
+        return multiply(sequentialProduct(factors, from, mid), sequentialProduct(factors, mid, to));
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ProductTask extends RecursiveTask<BigInteger> {
+        private final long[] factors;
+        private final int from;
+        private final int to;
+
+        ProductTask(long[] factors, int from, int to) {
+            this.factors = factors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (to - from <= PARALLEL_FACTORS) {
+                return sequentialProduct(factors, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            ProductTask left = new ProductTask(factors, from, mid);
+            left.fork();
+            BigInteger right = new ProductTask(factors, mid, to).compute();
+            return multiply(left.join(), right);
+        }
+    }
+
+    /** Primes up to {@code n} in increasing order, from a sieve over the odd numbers. */
+    static int[] primesUpTo(int n) {
+        if (n < 2) {
+            return new int[0];
+        }
+        // composite[i] stands for the odd number 2i + 1.
+        boolean[] composite = new boolean[(n - 1) / 2 + 1];
+        int count = 1;
+        for (int i = 1; i < composite.length; i++) {
+            if (composite[i]) {
+                continue;
+            }
+            count++;
+            long p = 2L * i + 1;
+            for (long m = p * p; m <= n; m += 2 * p) {
+                composite[(int) (m / 2)] = true;
+            }
+        }
+        int[] primes = new int[count];
+        primes[0] = 2;
+        int k = 1;
+        for (int i = 1; i < composite.length; i++) {
+            if (!composite[i]) {
+                primes[k++] = 2 * i + 1;
+            }
+        }
+        return primes;
+    }
+
+    // -- fibonacci --
+
+    static BigInteger fibonacci(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        if (n < FIBONACCI.length) {
+            return BigInteger.valueOf(FIBONACCI[(int) n]);
+        }
+        // Start from the table at the top bits of n, then double once per remaining bit.
+        int shift = 64 - Long.numberOfLeadingZeros(n);
+        long k;
+        do {
+            shift--;
+            k = n >>> shift;
+        } while (shift > 0 && (n >>> (shift - 1)) + 1 < FIBONACCI.length);
+        BigInteger a = BigInteger.valueOf(FIBONACCI[(int) k]);
+        BigInteger b = BigInteger.valueOf(FIBONACCI[(int) k + 1]);
+        while (shift > 0) {
+            shift--;
+            // (a, b) = (F(k), F(k+1)) -> (F(2k), F(2k+1))
+            BigInteger f2k = multiply(a, b.shiftLeft(1).subtract(a));
+            BigInteger f2k1 = multiply(a, a).add(multiply(b, b));
+            if (((n >>> shift) & 1) == 0) {
+                a = f2k;
+                b = f2k1;
+            } else {
+                a = f2k1;
+                b = f2k.add(f2k1);
+            }
+        }
+        return a;
+    }
+}
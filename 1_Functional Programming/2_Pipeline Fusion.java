@@ -0,0 +1,365 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Pipeline fusion: `pipe(f, g, h)` from the notes, compiled into a single function object.
+ *
+ * The JavaScript version
+ *
+ * ```javascript
+ * const pipe = (...fns) => (x) => fns.reduce((v, f) => f(v), x);
+ * ```
+ *
+ * translates to a loop over a `Function[]`. Every stage call in that loop comes from the same
+ * call site, so with more than two distinct lambdas the call is megamorphic. The JIT cannot
+ * inline through it, and each element pays one virtual call per stage.
+ *
+ * `Pipeline.compile()` chains the stages into one `MethodHandle` with `filterReturnValue`. It
+ * then defines a hidden class whose `apply` calls that handle through a `static final` field.
+ * The JIT treats a static final handle as a constant, so it can inline the whole chain into the
+ * caller, as if the stages had been written out by hand. Each compiled pipeline gets its own
+ * class and can be unloaded with it.
+ *
+ * ```java
+ * Function<String, Integer> f = Pipeline.<String>start()
+ *         .then(String::trim)
+ *         .then(String::length)
+ *         .then(n -> n * n)
+ *         .compile();
+ * ```
+ *
+ * Reference stages still box primitives between steps. {@link IntPipeline} is the specialized
+ * path for `int -> int` chains, with no boxing anywhere.
+ */
+final class Pipeline<A, B> {
+
+    private static final MethodHandle APPLY;
+    private static final MethodHandle APPLY_AS_INT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            APPLY = lookup.findVirtual(Function.class, "apply", MethodType.methodType(Object.class, Object.class));
+            APPLY_AS_INT = lookup.findVirtual(IntUnaryOperator.class, "applyAsInt",
+                    MethodType.methodType(int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Function<?, ?>[] stages;
+
+    private Pipeline(Function<?, ?>[] stages) {
+        this.stages = stages;
+    }
+
+    static <T> Pipeline<T, T> start() {
+        return new Pipeline<>(new Function<?, ?>[0]);
+    }
+
+    static IntPipeline startInt() {
+        return new IntPipeline(new IntUnaryOperator[0]);
+    }
+
+    /** Appends a stage; pipelines are immutable, so a prefix can be shared by several chains. */
+    <C> Pipeline<A, C> then(Function<? super B, ? extends C> stage) {
+        Function<?, ?>[] next = Arrays.copyOf(stages, stages.length + 1);
+        next[stages.length] = stage;
+        return new Pipeline<>(next);
+    }
+
+    /** The naive `reduce` pipe from the notes, kept for comparison with {@link #compile()}. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static <T> Function<T, T> pipe(Function<T, T>... fns) {
+        Function[] copy = fns.clone();
+        return x -> {
+            Object v = x;
+            for (Function f : copy) {
+                v = f.apply(v);
+            }
+            return (T) v;
+        };
+    }
+
+    /** Fuses the stages into one function; falls back to a plain loop where hidden classes are unavailable. */
+    @SuppressWarnings("unchecked")
+    Function<A, B> compile() {
+        if (stages.length == 0) {
+            return a -> (B) a;
+        }
+        if (stages.length == 1) {
+            return (Function<A, B>) stages[0];
+        }
+        MethodHandle chain = APPLY.bindTo(stages[0]);
+        for (int i = 1; i < stages.length; i++) {
+            chain = MethodHandles.filterReturnValue(chain, APPLY.bindTo(stages[i]));
+        }
+        try {
+            return (Function<A, B>) Fused.define(chain, Function.class, "apply", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            Function<Object, Object>[] copy = (Function<Object, Object>[]) stages.clone();
+            return a -> {
+                Object v = a;
+                for (Function<Object, Object> f : copy) {
+                    v = f.apply(v);
+                }
+                return (B) v;
+            };
+        }
+    }
+
+    /** Pipeline of `int -> int` stages, fused into an {@link IntUnaryOperator} without boxing. */
+    static final class IntPipeline {
+        private final IntUnaryOperator[] stages;
+
+        private IntPipeline(IntUnaryOperator[] stages) {
+            this.stages = stages;
+        }
+
+        IntPipeline then(IntUnaryOperator stage) {
+            IntUnaryOperator[] next = Arrays.copyOf(stages, stages.length + 1);
+            next[stages.length] = stage;
+            return new IntPipeline(next);
+        }
+
+        /** Chains the stages into a function over objects, boxing only at the two ends. */
+        <T, R> Pipeline<T, R> boxed(Function<? super T, Integer> in, Function<Integer, ? extends R> out) {
+            IntUnaryOperator fused = compile();
+            return Pipeline.<T>start().then(in).then(fused::applyAsInt).then(out);
+        }
+
+        IntUnaryOperator compile() {
+            if (stages.length == 0) {
+                return IntUnaryOperator.identity();
+            }
+            if (stages.length == 1) {
+                return stages[0];
+            }
+            MethodHandle chain = APPLY_AS_INT.bindTo(stages[0]);
+            for (int i = 1; i < stages.length; i++) {
+                chain = MethodHandles.filterReturnValue(chain, APPLY_AS_INT.bindTo(stages[i]));
+            }
+            try {
+                return (IntUnaryOperator) Fused.define(chain, IntUnaryOperator.class, "applyAsInt", "(I)I");
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                IntUnaryOperator[] copy = stages.clone();
+                return x -> {
+                    for (IntUnaryOperator f : copy) {
+                        x = f.applyAsInt(x);
+                    }
+                    return x;
+                };
+            }
+        }
+    }
+
+    /**
+     * Defines the hidden class behind a compiled pipeline. Its bytecode is equivalent to
+     *
+     * ```java
+     * final class Fused implements Function {
+     *     private static final MethodHandle HANDLE = (MethodHandle) MethodHandles.classData(lookup(), "_", MethodHandle.class);
+     *     public Object apply(Object x) { return HANDLE.invokeExact(x); }
+     * }
+     * ```
+     *
+     * with the interface and the `apply` signature filled in. No method branches, so the class
+     * needs no stack map frames.
+     */
+    private static final class Fused {
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_PRIVATE = 0x0002;
+        private static final int ACC_STATIC = 0x0008;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final String HANDLE = "java/lang/invoke/MethodHandle";
+        private static final String HANDLE_DESC = "L" + HANDLE + ";";
+
+        static Object define(MethodHandle chain, Class<?> iface, String method, String descriptor)
+                throws ReflectiveOperationException {
+            byte[] bytes = classFile(iface.getName().replace('.', '/'), method, descriptor);
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, chain, true);
+            return hidden.lookupClass().getDeclaredConstructor().newInstance();
+        }
+
+        private static byte[] classFile(String iface, String method, String descriptor) {
+            ConstantPool cp = new ConstantPool();
+            int thisClass = cp.classRef("PipelineFused");
+            int superClass = cp.classRef("java/lang/Object");
+            int ifaceClass = cp.classRef(iface);
+            int field = cp.fieldRef("PipelineFused", "HANDLE", HANDLE_DESC);
+            int objectInit = cp.methodRef("java/lang/Object", "<init>", "()V");
+            int lookup = cp.methodRef("java/lang/invoke/MethodHandles", "lookup",
+                    "()Ljava/lang/invoke/MethodHandles$Lookup;");
+            int classData = cp.methodRef("java/lang/invoke/MethodHandles", "classData",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+            int invokeExact = cp.methodRef(HANDLE, "invokeExact", descriptor);
+            int name = cp.string("_");
+            int handleClass = cp.classRef(HANDLE);
+            boolean primitive = descriptor.equals("(I)I");
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(buffer)) {
+                // Body first: the constant pool must be complete before it is written.
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                DataOutputStream b = new DataOutputStream(body);
+                b.writeShort(ACC_FINAL | ACC_SUPER);
+                b.writeShort(thisClass);
+                b.writeShort(superClass);
+                b.writeShort(1);
+                b.writeShort(ifaceClass);
+
+                b.writeShort(1);
+                b.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+                b.writeShort(cp.utf8("HANDLE"));
+                b.writeShort(cp.utf8(HANDLE_DESC));
+                b.writeShort(0);
+
+                int code = cp.utf8("Code");
+                b.writeShort(3);
+                method(b, cp, ACC_PUBLIC, "<init>", "()V", code, 1, 1, new byte[] {
+                        0x2a,                                               // aload_0
+                        (byte) 0xb7, hi(objectInit), lo(objectInit),        // invokespecial Object.<init>
+                        (byte) 0xb1,                                        // return
+                });
+                method(b, cp, ACC_STATIC, "<clinit>", "()V", code, 3, 0, new byte[] {
+                        (byte) 0xb8, hi(lookup), lo(lookup),                // invokestatic MethodHandles.lookup
+                        0x13, hi(name), lo(name),                           // ldc_w "_"
+                        0x13, hi(handleClass), lo(handleClass),             // ldc_w MethodHandle.class
+                        (byte) 0xb8, hi(classData), lo(classData),          // invokestatic MethodHandles.classData
+                        (byte) 0xc0, hi(handleClass), lo(handleClass),      // checkcast MethodHandle
+                        (byte) 0xb3, hi(field), lo(field),                  // putstatic HANDLE
+                        (byte) 0xb1,                                        // return
+                });
+                method(b, cp, ACC_PUBLIC, method, descriptor, code, 2, 2, new byte[] {
+                        (byte) 0xb2, hi(field), lo(field),                  // getstatic HANDLE
+                        (byte) (primitive ? 0x1b : 0x2b),                   // iload_1 / aload_1
+                        (byte) 0xb6, hi(invokeExact), lo(invokeExact),      // invokevirtual invokeExact
+                        (byte) (primitive ? 0xac : 0xb0),                   // ireturn / areturn
+                });
+                b.writeShort(0);
+
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(61);
+                cp.writeTo(out);
+                body.writeTo(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return buffer.toByteArray();
+        }
+
+        private static void method(DataOutputStream out, ConstantPool cp, int access, String name, String descriptor,
+                                   int codeAttribute, int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(access);
+            out.writeShort(cp.utf8(name));
+            out.writeShort(cp.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private static byte hi(int index) {
+            return (byte) (index >>> 8);
+        }
+
+        private static byte lo(int index) {
+            return (byte) index;
+        }
+    }
+
+    /** Just enough of a class-file constant pool for {@link Fused}. */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int next = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, () -> {
+                out.writeByte(8);
+                out.writeShort(utf8);
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ' ' + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry(tag + owner + '.' + name + descriptor, () -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+
+        private int entry(String key, Writer writer) {
+            Integer index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indices.put(key, next);
+            return next++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            bytes.writeTo(target);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.ArrayDeque;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Stack-safe recursion: the `factorial` / `fibonacci` definitions from the notes, without the
+ * `StackOverflowError` they hit on the JVM around depth 10,000.
+ *
+ * The JVM does not eliminate tail calls, so even a tail-recursive function pushes one frame per
+ * call. A trampoline returns a description of the next call instead of making it, and a loop
+ * in {@link #invoke()} runs those descriptions one by one in constant stack space:
+ *
+ * ```java
+ * static TailCall<Long> factorial(long n, long acc) {
+ *     return n == 0 ? TailCall.done(acc) : TailCall.call(() -> factorial(n - 1, n * acc));
+ * }
+ *
+ * factorial(100_000, 1).invoke();
+ * ```
+ *
+ * Mutual recursion works the same way, since `isEven` can bounce to `isOdd` and back. Calls that
+ * are not in tail position, like `n * factorial(n - 1)`, use {@link #flatMap} / {@link #map}.
+ * `invoke()` keeps their pending continuations on a heap stack rather than the thread stack.
+ *
+ * Each bounce allocates a small object (the `call` lambda). For hot numeric recursion,
+ * {@link Trampoline} runs steps over a reused frame of `long` registers and allocates nothing
+ * per step.
+ */
+abstract class TailCall<T> {
+
+    private TailCall() {
+    }
+
+    static <T> TailCall<T> done(T value) {
+        return new Done<>(value);
+    }
+
+    /** A call to make later: `call(() -> f(x))` is the trampolined form of `return f(x)`. */
+    static <T> TailCall<T> call(Supplier<TailCall<T>> next) {
+        return new Call<>(next);
+    }
+
+    <R> TailCall<R> flatMap(Function<? super T, TailCall<R>> fn) {
+        return new FlatMap<>(this, fn);
+    }
+
+    <R> TailCall<R> map(Function<? super T, ? extends R> fn) {
+        return new FlatMap<T, R>(this, value -> done(fn.apply(value)));
+    }
+
+    /** Runs the computation to completion in constant thread-stack space. */
+    @SuppressWarnings("unchecked")
+    T invoke() {
+        TailCall<?> current = this;
+        ArrayDeque<Function<Object, TailCall<?>>> continuations = null;
+        while (true) {
+            if (current instanceof Done) {
+                Object value = ((Done<?>) current).value;
+                if (continuations == null || continuations.isEmpty()) {
+                    return (T) value;
+                }
+                current = continuations.pop().apply(value);
+            } else if (current instanceof Call) {
+                current = ((Call<?>) current).next.get();
+            } else {
+                FlatMap<?, ?> flatMap = (FlatMap<?, ?>) current;
+                if (continuations == null) {
+                    continuations = new ArrayDeque<>();
+                }
+                continuations.push((Function<Object, TailCall<?>>) flatMap.fn);
+                current = flatMap.source;
+            }
+        }
+    }
+
+    private static final class Done<T> extends TailCall<T> {
+        final T value;
+
+        Done(T value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Call<T> extends TailCall<T> {
+        final Supplier<TailCall<T>> next;
+
+        Call(Supplier<TailCall<T>> next) {
+            this.next = next;
+        }
+    }
+
+    private static final class FlatMap<S, T> extends TailCall<T> {
+        final TailCall<S> source;
+        final Function<? super S, TailCall<T>> fn;
+
+        FlatMap(TailCall<S> source, Function<? super S, TailCall<T>> fn) {
+            this.source = source;
+            this.fn = fn;
+        }
+    }
+}
+
+/**
+ * Allocation-free trampoline for tail-recursive functions over `long` arguments.
+ *
+ * A program is an array of steps; each step reads its arguments from the frame's registers and
+ * either jumps to a step (itself, or another one for mutual recursion) with new arguments, or
+ * returns a result. The frame is the bounce object and is reused for every step, so the loop in
+ * {@link #run} allocates nothing and compiles to much the same code as a hand-written loop.
+ *
+ * ```java
+ * // factorial(n) = n == 0 ? acc : factorial(n - 1, n * acc)
+ * Trampoline.Step factorial = f -> {
+ *     if (f.a == 0) f.ret(f.b); else f.jump(0, f.a - 1, f.a * f.b);
+ * };
+ * long result = Trampoline.run(new Trampoline.Step[] {factorial}, 0, 20, 1);
+ * ```
+ */
+final class Trampoline {
+
+    interface Step {
+        void step(Frame frame);
+    }
+
+    /** Registers for the next step. Only valid while {@link Trampoline#run} is executing it. */
+    static final class Frame {
+        long a;
+        long b;
+        long c;
+        int next;
+        boolean done;
+        long result;
+
+        void jump(int step, long a) {
+            this.next = step;
+            this.a = a;
+        }
+
+        void jump(int step, long a, long b) {
+            this.next = step;
+            this.a = a;
+            this.b = b;
+        }
+
+        void jump(int step, long a, long b, long c) {
+            this.next = step;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        void ret(long result) {
+            this.result = result;
+            this.done = true;
+        }
+    }
+
+    private Trampoline() {
+    }
+
+    static long run(Step[] program, int entry, long a) {
+        return run(program, entry, a, 0, 0);
+    }
+
+    static long run(Step[] program, int entry, long a, long b) {
+        return run(program, entry, a, b, 0);
+    }
+
+    /** Runs {@code program} from step {@code entry} until a step calls {@link Frame#ret}. */
+    static long run(Step[] program, int entry, long a, long b, long c) {
+        Frame frame = new Frame();
+        frame.jump(entry, a, b, c);
+        while (!frame.done) {
+            program[frame.next].step(frame);
+        }
+        return frame.result;
+    }
+}
@@ -0,0 +1,365 @@
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Task: a lazy, cancellable description of an asynchronous computation, the functional
+ * counterpart of the notes' `new Promise((resolve) => setTimeout(resolve, 1000))`.
+ *
+ * A `Promise` starts running as soon as it is created, and its result is only available through
+ * `.then` callbacks. A `Task` is only a value until it is run, so it can be retried, raced or
+ * composed like any other value:
+ *
+ * ```java
+ * Task<String> greeting = Task.sleep(Duration.ofSeconds(1)).map(ignored -> "Async operation complete");
+ * Task<Integer> both = fetchA.zip(fetchB, (a, b) -> a + b);   // runs A and B concurrently
+ * Task<String> fastest = Task.race(List.of(primary, fallback)); // losers are cancelled
+ * ```
+ *
+ * Task bodies are plain blocking code; there are no callback chains. Concurrency comes from
+ * {@link #zip}, {@link #all} and {@link #race}, which fork children and are structured: a
+ * combinator does not return until every child it forked has finished. When one child fails or
+ * the parent is cancelled, the remaining children are interrupted and awaited first.
+ *
+ * Forked tasks run on virtual threads when the JVM has them (Java 21+). A fan-out of 100k tasks
+ * blocked on I/O or {@link #sleep} then costs 100k small heap objects rather than 100k OS
+ * threads. Older JVMs fall back to a cached pool of daemon platform threads: the code behaves
+ * the same, but large blocking fan-outs are bounded by how many threads the OS allows.
+ */
+final class Task<T> {
+
+    /** The computation itself; may block, and should give up promptly when interrupted. */
+    interface Body<T> {
+        T run() throws Exception;
+    }
+
+    static final boolean VIRTUAL_THREADS;
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        ExecutorService executor;
+        boolean virtual;
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService) factory.invoke(null);
+            virtual = true;
+        } catch (ReflectiveOperationException e) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "task-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            virtual = false;
+        }
+        EXECUTOR = executor;
+        VIRTUAL_THREADS = virtual;
+    }
+
+    private final Body<T> body;
+
+    private Task(Body<T> body) {
+        this.body = body;
+    }
+
+    static <T> Task<T> of(Callable<? extends T> callable) {
+        return new Task<>(callable::call);
+    }
+
+    static <T> Task<T> pure(T value) {
+        return new Task<>(() -> value);
+    }
+
+    static <T> Task<T> fail(Exception error) {
+        return new Task<>(() -> {
+            throw error;
+        });
+    }
+
+    static Task<Void> sleep(Duration duration) {
+        return new Task<>(() -> {
+            Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+            return null;
+        });
+    }
+
+    /** Runs the task on the calling thread and returns its result. */
+    T run() throws Exception {
+        return body.run();
+    }
+
+    /** Starts the task on its own thread; the returned fiber can be joined or cancelled. */
+    Fiber<T> fork() {
+        return fork(null);
+    }
+
+    private Fiber<T> fork(Consumer<Fiber<T>> onDone) {
+        Fiber<T> fiber = new Fiber<>(this, onDone);
+        EXECUTOR.execute(fiber);
+        return fiber;
+    }
+
+    <R> Task<R> map(Function<? super T, ? extends R> fn) {
+        return new Task<>(() -> fn.apply(body.run()));
+    }
+
+    <R> Task<R> flatMap(Function<? super T, Task<R>> fn) {
+        return new Task<>(() -> fn.apply(body.run()).run());
+    }
+
+    /** Falls back to {@code fn(error)} when this task fails; cancellation is not recovered. */
+    Task<T> recover(Function<? super Exception, ? extends T> fn) {
+        return new Task<>(() -> {
+            try {
+                return body.run();
+            } catch (InterruptedException | CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                return fn.apply(e);
+            }
+        });
+    }
+
+    /** Runs both tasks concurrently and combines their results. */
+    <U, R> Task<R> zip(Task<U> other, BiFunction<? super T, ? super U, ? extends R> fn) {
+        return new Task<>(() -> {
+            Fiber<U> right = other.fork();
+            T left;
+            try {
+                left = body.run();
+            } catch (Throwable e) {
+                right.cancel();
+                right.awaitTermination();
+                throw e;
+            }
+            return fn.apply(left, right.joinCancellingOnInterrupt());
+        });
+    }
+
+    /** Runs all tasks concurrently; the first failure cancels the rest and is rethrown. */
+    static <T> Task<List<T>> all(List<Task<? extends T>> tasks) {
+        return new Task<>(() -> {
+            BlockingQueue<Fiber<?>> finished = new LinkedBlockingQueue<>();
+            List<Fiber<? extends T>> fibers = forkAll(tasks, finished);
+            try {
+                for (int i = 0; i < fibers.size(); i++) {
+                    Fiber<?> fiber = finished.take();
+                    if (fiber.failure != null) {
+                        throw rethrow(fiber.failure);
+                    }
+                }
+                List<T> results = new ArrayList<>(fibers.size());
+                for (Fiber<? extends T> fiber : fibers) {
+                    results.add(fiber.value);
+                }
+                return results;
+            } finally {
+                cancelAndAwait(fibers);
+            }
+        });
+    }
+
+    /**
+     * Runs all tasks concurrently and returns the first successful result, cancelling the others.
+     * If every task fails, the first failure is thrown with the others suppressed.
+     */
+    static <T> Task<T> race(List<Task<? extends T>> tasks) {
+        if (tasks.isEmpty()) {
+            throw new IllegalArgumentException("race needs at least one task");
+        }
+        return new Task<>(() -> {
+            BlockingQueue<Fiber<?>> finished = new LinkedBlockingQueue<>();
+            List<Fiber<? extends T>> fibers = forkAll(tasks, finished);
+            try {
+                Throwable firstFailure = null;
+                for (int i = 0; i < fibers.size(); i++) {
+                    @SuppressWarnings("unchecked")
+                    Fiber<? extends T> fiber = (Fiber<? extends T>) finished.take();
+                    if (fiber.failure == null) {
+                        return fiber.value;
+                    }
+                    if (firstFailure == null) {
+                        firstFailure = fiber.failure;
+                    } else {
+                        firstFailure.addSuppressed(fiber.failure);
+                    }
+                }
+                throw rethrow(firstFailure);
+            } finally {
+                cancelAndAwait(fibers);
+            }
+        });
+    }
+
+    /** Fails with {@code TimeoutException} if this task takes longer than {@code limit}. */
+    Task<T> timeout(Duration limit) {
+        return new Task<>(() -> {
+            Fiber<T> fiber = fork();
+            boolean finished;
+            try {
+                finished = fiber.done.await(limit.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                fiber.cancel();
+                fiber.awaitTermination();
+                throw e;
+            }
+            if (!finished) {
+                fiber.cancel();
+                fiber.awaitTermination();
+                throw new TimeoutException("Task timed out after " + limit);
+            }
+            return fiber.join();
+        });
+    }
+
+    private static <T> List<Fiber<? extends T>> forkAll(List<Task<? extends T>> tasks, BlockingQueue<Fiber<?>> finished) {
+        List<Fiber<? extends T>> fibers = new ArrayList<>(tasks.size());
+        try {
+            for (Task<? extends T> task : tasks) {
+                fibers.add(task.fork(finished::add));
+            }
+        } catch (RuntimeException e) {
+            cancelAndAwait(fibers);
+            throw e;
+        }
+        return fibers;
+    }
+
+    private static void cancelAndAwait(List<? extends Fiber<?>> fibers) {
+        for (Fiber<?> fiber : fibers) {
+            fiber.cancel();
+        }
+        for (Fiber<?> fiber : fibers) {
+            fiber.awaitTermination();
+        }
+    }
+
+    private static Exception rethrow(Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return (Exception) failure;
+    }
+
+    /**
+     * A running task. Cancelling interrupts the thread running it; a fiber cancelled before it
+     * starts never runs its body.
+     */
+    static final class Fiber<T> implements Runnable {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final Task<T> task;
+        private final Consumer<Fiber<T>> onDone;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int state = NEW;
+        private boolean cancelled;
+        private Thread runner;
+        // Written before done.countDown(), read after await(): the latch publishes them.
+        private T value;
+        private Throwable failure;
+
+        Fiber(Task<T> task, Consumer<Fiber<T>> onDone) {
+            this.task = task;
+            this.onDone = onDone;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    state = DONE;
+                } else {
+                    state = RUNNING;
+                    runner = Thread.currentThread();
+                }
+            }
+            if (state == DONE) {
+                failure = new CancellationException();
+                finish();
+                return;
+            }
+            try {
+                value = task.run();
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    state = DONE;
+                    runner = null;
+                    // Drop an interrupt from a cancel() that lost the race with completion.
+                    Thread.interrupted();
+                }
+                finish();
+            }
+        }
+
+        private void finish() {
+            done.countDown();
+            if (onDone != null) {
+                onDone.accept(this);
+            }
+        }
+
+        /** Requests cancellation; returns immediately. */
+        synchronized void cancel() {
+            cancelled = true;
+            if (state == RUNNING) {
+                runner.interrupt();
+            }
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /** Waits for the result, rethrowing the task's failure. */
+        T join() throws Exception {
+            done.await();
+            if (failure != null) {
+                throw rethrow(failure);
+            }
+            return value;
+        }
+
+        /** Like {@link #join()}, but cancels the fiber if the joining thread is interrupted. */
+        T joinCancellingOnInterrupt() throws Exception {
+            try {
+                return join();
+            } catch (InterruptedException e) {
+                cancel();
+                awaitTermination();
+                throw e;
+            }
+        }
+
+        /** Waits for the fiber to stop, ignoring (but preserving) interrupts. */
+        void awaitTermination() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
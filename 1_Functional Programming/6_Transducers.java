@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reducing function: folds inputs of type {@code T} into an accumulator of type {@code A}.
+ *
+ * {@link #isDone()} is how a reduction ends early. A stage such as `take(3)` reports done after
+ * its third element, and every wrapping stage forwards the flag, so the runner stops pulling from
+ * the source. {@link #complete} is called once at the end and lets stateful stages, such as
+ * `partitionAll`, flush what they have buffered.
+ */
+interface Reducer<A, T> {
+
+    A step(A acc, T input);
+
+    default A complete(A acc) {
+        return acc;
+    }
+
+    default boolean isDone() {
+        return false;
+    }
+
+    static <A, T> Reducer<A, T> of(BiFunction<A, ? super T, A> step) {
+        return step::apply;
+    }
+}
+
+/**
+ * A transformation of reducing functions: it turns a reducer of {@code U}s into a reducer of
+ * {@code T}s. It never sees the source or the result collection, so one transducer works over
+ * any of them.
+ */
+@FunctionalInterface
+interface Transducer<T, U> {
+
+    <A> Reducer<A, T> apply(Reducer<A, U> downstream);
+
+    /** Runs this stage first, then {@code next}: `map(f).then(filter(p))`. */
+    default <V> Transducer<T, V> then(Transducer<U, V> next) {
+        Transducer<T, U> self = this;
+        return new Transducer<T, V>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, V> downstream) {
+                return self.apply(next.apply(downstream));
+            }
+        };
+    }
+}
+
+/**
+ * Transducers: `map` / `filter` / `take` / ... as composable stages. Chaining lodash or Ramda
+ * calls (`R.filter(p, R.map(f, xs))`) builds a full intermediate array per call. A composed
+ * transducer pushes each element through every stage before reading the next, so there are no
+ * intermediate collections, and a `take` stops reading the source as soon as it is satisfied:
+ *
+ * ```java
+ * Transducer<String, Integer> xf = Transducers.<String, Integer>map(String::length)
+ *         .then(Transducers.filter(n -> n > 3))
+ *         .then(Transducers.take(10));
+ *
+ * PersistentVector<Integer> lengths = Transducers.intoVector(xf, words);
+ * int total = Transducers.transduce(xf, Reducer.of(Integer::sum), 0, queue, END);
+ * ```
+ *
+ * Stateful stages (`take`, `dedupe`, `partitionAll`, `partitionBy`) keep their state in the
+ * reducer built for one run, so a transducer can be reused and even run concurrently.
+ */
+final class Transducers {
+
+    private Transducers() {
+    }
+
+    /** Base for stages that forward completion and early termination to the next reducer. */
+    abstract static class Stage<A, T, U> implements Reducer<A, T> {
+        final Reducer<A, U> downstream;
+
+        Stage(Reducer<A, U> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public A complete(A acc) {
+            return downstream.complete(acc);
+        }
+
+        @Override
+        public boolean isDone() {
+            return downstream.isDone();
+        }
+    }
+
+    static <T, U> Transducer<T, U> map(Function<? super T, ? extends U> fn) {
+        return new Transducer<T, U>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, U> downstream) {
+                return new Stage<A, T, U>(downstream) {
+                    @Override
+                    public A step(A acc, T input) {
+                        return downstream.step(acc, fn.apply(input));
+                    }
+                };
+            }
+        };
+    }
+
+    static <T> Transducer<T, T> filter(Predicate<? super T> predicate) {
+        return new Transducer<T, T>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, T> downstream) {
+                return new Stage<A, T, T>(downstream) {
+                    @Override
+                    public A step(A acc, T input) {
+                        return predicate.test(input) ? downstream.step(acc, input) : acc;
+                    }
+                };
+            }
+        };
+    }
+
+    /** Passes the first {@code n} inputs, then ends the reduction. */
+    static <T> Transducer<T, T> take(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        return new Transducer<T, T>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, T> downstream) {
+                return new Stage<A, T, T>(downstream) {
+                    private long remaining = n;
+
+                    @Override
+                    public A step(A acc, T input) {
+                        remaining--;
+                        return downstream.step(acc, input);
+                    }
+
+                    @Override
+                    public boolean isDone() {
+                        return remaining <= 0 || downstream.isDone();
+                    }
+                };
+            }
+        };
+    }
+
+    /** Drops inputs equal to the one just before them. */
+    static <T> Transducer<T, T> dedupe() {
+        return new Transducer<T, T>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, T> downstream) {
+                return new Stage<A, T, T>(downstream) {
+                    private boolean first = true;
+                    private T previous;
+
+                    @Override
+                    public A step(A acc, T input) {
+                        if (!first && Objects.equals(previous, input)) {
+                            return acc;
+                        }
+                        first = false;
+                        previous = input;
+                        return downstream.step(acc, input);
+                    }
+                };
+            }
+        };
+    }
+
+    /** Groups inputs into lists of {@code size}; the last list may be shorter. */
+    static <T> Transducer<T, List<T>> partitionAll(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        return new Transducer<T, List<T>>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, List<T>> downstream) {
+                return new Stage<A, T, List<T>>(downstream) {
+                    private List<T> buffer = new ArrayList<>(size);
+
+                    @Override
+                    public A step(A acc, T input) {
+                        buffer.add(input);
+                        if (buffer.size() < size) {
+                            return acc;
+                        }
+                        List<T> full = buffer;
+                        buffer = new ArrayList<>(size);
+                        return downstream.step(acc, full);
+                    }
+
+                    @Override
+                    public A complete(A acc) {
+                        if (!buffer.isEmpty() && !downstream.isDone()) {
+                            acc = downstream.step(acc, buffer);
+                            buffer = new ArrayList<>(size);
+                        }
+                        return downstream.complete(acc);
+                    }
+                };
+            }
+        };
+    }
+
+    /** Groups runs of consecutive inputs for which {@code fn} returns equal keys. */
+    static <T> Transducer<T, List<T>> partitionBy(Function<? super T, ?> fn) {
+        return new Transducer<T, List<T>>() {
+            @Override
+            public <A> Reducer<A, T> apply(Reducer<A, List<T>> downstream) {
+                return new Stage<A, T, List<T>>(downstream) {
+                    private List<T> buffer = new ArrayList<>();
+                    private Object key;
+
+                    @Override
+                    public A step(A acc, T input) {
+                        Object k = fn.apply(input);
+                        if (buffer.isEmpty() || Objects.equals(key, k)) {
+                            key = k;
+                            buffer.add(input);
+                            return acc;
+                        }
+                        List<T> run = buffer;
+                        buffer = new ArrayList<>();
+                        buffer.add(input);
+                        key = k;
+                        return downstream.step(acc, run);
+                    }
+
+                    @Override
+                    public A complete(A acc) {
+                        if (!buffer.isEmpty() && !downstream.isDone()) {
+                            acc = downstream.step(acc, buffer);
+                            buffer = new ArrayList<>();
+                        }
+                        return downstream.complete(acc);
+                    }
+                };
+            }
+        };
+    }
+
+    // -- Runners --
+
+    static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> reducer, A init, Iterable<? extends T> source) {
+        return transduce(xf, reducer, init, source.iterator());
+    }
+
+    static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> reducer, A init, Iterator<? extends T> source) {
+        Reducer<A, T> rf = xf.apply(reducer);
+        A acc = init;
+        while (!rf.isDone() && source.hasNext()) {
+            acc = rf.step(acc, source.next());
+        }
+        return rf.complete(acc);
+    }
+
+    /** Reads the vector leaf by leaf, so each element is an array read rather than a trie lookup. */
+    @SuppressWarnings("unchecked")
+    static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> reducer, A init, PersistentVector<? extends T> source) {
+        Reducer<A, T> rf = xf.apply(reducer);
+        A acc = init;
+        int size = source.size();
+        for (int base = 0; base < size && !rf.isDone(); base += PersistentVector.WIDTH) {
+            Object[] leaf = source.arrayFor(base);
+            int end = Math.min(PersistentVector.WIDTH, size - base);
+            for (int j = 0; j < end && !rf.isDone(); j++) {
+                acc = rf.step(acc, (T) leaf[j]);
+            }
+        }
+        return rf.complete(acc);
+    }
+
+    /**
+     * Takes from {@code queue} until {@code end} (compared by identity) arrives or the reduction
+     * is done. Blocks while the queue is empty.
+     */
+    static <T, U, A> A transduce(Transducer<T, U> xf, Reducer<A, U> reducer, A init, BlockingQueue<T> queue, T end)
+            throws InterruptedException {
+        Reducer<A, T> rf = xf.apply(reducer);
+        A acc = init;
+        while (!rf.isDone()) {
+            T input = queue.take();
+            if (input == end) {
+                break;
+            }
+            acc = rf.step(acc, input);
+        }
+        return rf.complete(acc);
+    }
+
+    /** Collects into a new {@link PersistentVector}, building it through a transient. */
+    static <T, U> PersistentVector<U> intoVector(Transducer<T, U> xf, Iterable<? extends T> source) {
+        Reducer<TransientVector<U>, U> push = TransientVector::push;
+        return transduce(xf, push, PersistentVector.<U>empty().asTransient(), source).persistent();
+    }
+
+    /** Opens a push-based channel: the producer calls {@link Sink#push} instead of the runner pulling. */
+    static <T, U, A> Sink<T, A> sink(Transducer<T, U> xf, Reducer<A, U> reducer, A init) {
+        return new Sink<>(xf.apply(reducer), init);
+    }
+
+    /**
+     * Push-based end of a transducer, for sources that call back, such as listeners and socket
+     * handlers. Not thread-safe: one producer at a time, as with any reducer.
+     */
+    static final class Sink<T, A> {
+        private final Reducer<A, T> rf;
+        private A acc;
+        private boolean closed;
+
+        Sink(Reducer<A, T> rf, A init) {
+            this.rf = rf;
+            this.acc = init;
+        }
+
+        /** Feeds one input; returns false once the reduction wants no more (or the sink is closed). */
+        boolean push(T input) {
+            if (closed || rf.isDone()) {
+                return false;
+            }
+            acc = rf.step(acc, input);
+            return !rf.isDone();
+        }
+
+        boolean isDone() {
+            return closed || rf.isDone();
+        }
+
+        /** Completes the reduction and returns the result; later pushes are ignored. */
+        A close() {
+            if (!closed) {
+                closed = true;
+                acc = rf.complete(acc);
+            }
+            return acc;
+        }
+    }
+}
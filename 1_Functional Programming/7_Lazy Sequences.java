@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lazy, memoized and possibly infinite sequence, for generator-style definitions of the
+ * notes' `fibonacci` and `factorial`:
+ *
+ * ```java
+ * LazySeq<BigInteger> fibs = LazySeq.recursive(self ->
+ *         LazySeq.cons(BigInteger.ZERO, LazySeq.cons(BigInteger.ONE,
+ *                 self.zipWith(self.rest(), BigInteger::add))));
+ * fibs.get(1000); // linear: each cell is computed once and cached
+ * ```
+ *
+ * - **Memoized.** A cell runs its thunk at most once. The thunk is then dropped, so anything it
+ *   captured (often the source sequence) can be collected.
+ * - **Chunked.** Generators (`iterate`, `from`) and `map` / `filter` / `take` produce 32 elements
+ *   per realization, paying for the thunk, lock and allocation once per chunk instead of once
+ *   per element. `zipWith` realizes one element at a time, because a self-referential sequence
+ *   like `fibs` cannot compute 32 elements ahead of itself.
+ * - **No head retention.** Cells only point forward, and the iterator keeps just its current
+ *   position, so `for (T x : seq.map(f).take(n))` runs in constant memory for any `n`. This
+ *   only holds if the caller does not keep the head in a variable or field.
+ *
+ * Realization is synchronized, so a sequence can be shared between threads. A thunk that needs
+ * its own value fails with {@code IllegalStateException} rather than recursing forever.
+ */
+final class LazySeq<T> implements Iterable<T> {
+
+    static final int CHUNK = 32;
+
+    private static final Object[] NO_ELEMENTS = new Object[0];
+    private static final LazySeq<?> EMPTY = new LazySeq<>(NO_ELEMENTS, 0, null);
+
+    /** Produces the realized contents of this cell; null once realized. */
+    private Supplier<LazySeq<T>> thunk;
+    private boolean realizing;
+    private volatile boolean realized;
+
+    // Valid once realized: elements chunk[start..] come first, then the sequence `more`.
+    // An empty chunk means the sequence is empty.
+    private Object[] chunk;
+    private int start;
+    private LazySeq<T> more;
+
+    private LazySeq(Supplier<LazySeq<T>> thunk) {
+        this.thunk = thunk;
+    }
+
+    private LazySeq(Object[] chunk, int start, LazySeq<T> more) {
+        this.chunk = chunk;
+        this.start = start;
+        this.more = more;
+        this.realized = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> LazySeq<T> empty() {
+        return (LazySeq<T>) EMPTY;
+    }
+
+    /** A sequence whose contents are computed by {@code thunk} on first access. */
+    static <T> LazySeq<T> lazy(Supplier<LazySeq<T>> thunk) {
+        return new LazySeq<>(thunk);
+    }
+
+    static <T> LazySeq<T> cons(T head, LazySeq<T> rest) {
+        return new LazySeq<>(new Object[] {head}, 0, rest);
+    }
+
+    static <T> LazySeq<T> cons(T head, Supplier<LazySeq<T>> rest) {
+        return cons(head, lazy(rest));
+    }
+
+    /** Defines a sequence in terms of itself; {@code definition} must not realize {@code self}. */
+    static <T> LazySeq<T> recursive(Function<LazySeq<T>, LazySeq<T>> definition) {
+        LazySeq<T> self = new LazySeq<>((Supplier<LazySeq<T>>) null);
+        self.thunk = () -> definition.apply(self);
+        return self;
+    }
+
+    /** {@code seed, f(seed), f(f(seed)), ...}, computed 32 elements at a time. */
+    static <T> LazySeq<T> iterate(T seed, UnaryOperator<T> fn) {
+        return lazy(() -> {
+            Object[] values = new Object[CHUNK];
+            T value = seed;
+            values[0] = value;
+            for (int i = 1; i < CHUNK; i++) {
+                value = fn.apply(value);
+                values[i] = value;
+            }
+            T last = value;
+            return new LazySeq<>(values, 0, lazy(() -> iterate(fn.apply(last), fn)));
+        });
+    }
+
+    /** The remaining elements of {@code iterator}, read 32 at a time as the sequence is realized. */
+    static <T> LazySeq<T> from(Iterator<? extends T> iterator) {
+        return lazy(() -> {
+            Object[] values = new Object[CHUNK];
+            int n = 0;
+            while (n < CHUNK && iterator.hasNext()) {
+                values[n++] = iterator.next();
+            }
+            if (n == 0) {
+                return empty();
+            }
+            Object[] exact = n == CHUNK ? values : Arrays.copyOf(values, n);
+            return new LazySeq<>(exact, 0, n < CHUNK ? empty() : from(iterator));
+        });
+    }
+
+    // -- Realization --
+
+    private void realize() {
+        if (realized) {
+            return;
+        }
+        synchronized (this) {
+            if (realized) {
+                return;
+            }
+            if (realizing) {
+                throw new IllegalStateException("Lazy sequence depends on its own value");
+            }
+            realizing = true;
+            LazySeq<T> value;
+            try {
+                value = thunk.get();
+                value.realize();
+            } finally {
+                realizing = false;
+            }
+            thunk = null;
+            chunk = value.chunk;
+            start = value.start;
+            more = value.more;
+            realized = true;
+        }
+    }
+
+    boolean isEmpty() {
+        realize();
+        return chunk.length == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    T first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("Empty sequence");
+        }
+        return (T) chunk[start];
+    }
+
+    /** Everything after the first element. Does not realize anything if this cell is not realized yet. */
+    LazySeq<T> rest() {
+        if (!realized) {
+            return lazy(() -> {
+                realize();
+                return rest();
+            });
+        }
+        if (chunk.length == 0) {
+            return this;
+        }
+        return start + 1 < chunk.length ? new LazySeq<>(chunk, start + 1, more) : more;
+    }
+
+    /** Element at {@code index}, skipping whole chunks: O(index / 32) steps. */
+    @SuppressWarnings("unchecked")
+    T get(long index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Negative index: " + index);
+        }
+        LazySeq<T> cell = this;
+        while (true) {
+            if (cell.isEmpty()) {
+                throw new IndexOutOfBoundsException("Index " + index + " past the end of the sequence");
+            }
+            int available = cell.chunk.length - cell.start;
+            if (index < available) {
+                return (T) cell.chunk[cell.start + (int) index];
+            }
+            index -= available;
+            cell = cell.more;
+        }
+    }
+
+    // -- Transformations (all lazy) --
+
+    <R> LazySeq<R> map(Function<? super T, ? extends R> fn) {
+        LazySeq<T> source = this;
+        return lazy(() -> {
+            if (source.isEmpty()) {
+                return empty();
+            }
+            Object[] values = new Object[source.chunk.length - source.start];
+            for (int i = 0; i < values.length; i++) {
+                @SuppressWarnings("unchecked")
+                T value = (T) source.chunk[source.start + i];
+                values[i] = fn.apply(value);
+            }
+            return new LazySeq<>(values, 0, source.more.map(fn));
+        });
+    }
+
+    LazySeq<T> filter(Predicate<? super T> predicate) {
+        LazySeq<T> source = this;
+        return lazy(() -> {
+            // Skip chunks without a match in a loop rather than by recursion.
+            for (LazySeq<T> cell = source; !cell.isEmpty(); cell = cell.more) {
+                Object[] values = new Object[cell.chunk.length - cell.start];
+                int n = 0;
+                for (int i = cell.start; i < cell.chunk.length; i++) {
+                    @SuppressWarnings("unchecked")
+                    T value = (T) cell.chunk[i];
+                    if (predicate.test(value)) {
+                        values[n++] = value;
+                    }
+                }
+                if (n > 0) {
+                    return new LazySeq<>(n == values.length ? values : Arrays.copyOf(values, n), 0,
+                            cell.more.filter(predicate));
+                }
+            }
+            return empty();
+        });
+    }
+
+    LazySeq<T> take(long n) {
+        if (n <= 0) {
+            return empty();
+        }
+        LazySeq<T> source = this;
+        return lazy(() -> {
+            if (source.isEmpty()) {
+                return empty();
+            }
+            int available = source.chunk.length - source.start;
+            if (n <= available) {
+                return new LazySeq<>(Arrays.copyOfRange(source.chunk, source.start, source.start + (int) n),
+                        0, empty());
+            }
+            return new LazySeq<>(source.chunk, source.start, source.more.take(n - available));
+        });
+    }
+
+    LazySeq<T> drop(long n) {
+        LazySeq<T> source = this;
+        return lazy(() -> {
+            LazySeq<T> cell = source;
+            long remaining = n;
+            while (remaining > 0 && !cell.isEmpty()) {
+                int available = cell.chunk.length - cell.start;
+                if (remaining < available) {
+                    return new LazySeq<>(cell.chunk, cell.start + (int) remaining, cell.more);
+                }
+                remaining -= available;
+                cell = cell.more;
+            }
+            return cell;
+        });
+    }
+
+    /**
+     * Pairs elements with {@code other}'s, one element at a time, so a sequence can be defined by
+     * zipping itself with its own {@link #rest()}.
+     */
+    LazySeq<T> zipWith(LazySeq<T> other, BinaryOperator<T> fn) {
+        LazySeq<T> left = this;
+        return lazy(() -> {
+            if (left.isEmpty() || other.isEmpty()) {
+                return empty();
+            }
+            return cons(fn.apply(left.first(), other.first()), left.rest().zipWith(other.rest(), fn));
+        });
+    }
+
+    /** Realizes the first {@code n} elements into a list. */
+    List<T> toList(int n) {
+        List<T> out = new ArrayList<>(n);
+        for (T value : take(n)) {
+            out.add(value);
+        }
+        return out;
+    }
+
+    /**
+     * Walks the sequence chunk by chunk. The iterator only references its current cell, so the
+     * cells it has passed can be collected.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Cursor<>(this);
+    }
+
+    // A static class rather than an anonymous one, which would capture the head in a hidden field.
+    private static final class Cursor<T> implements Iterator<T> {
+        private LazySeq<T> cell;
+        private Object[] chunk;
+        private int index;
+
+        Cursor(LazySeq<T> head) {
+            this.cell = head;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (chunk != null && index < chunk.length) {
+                return true;
+            }
+            if (cell == null || cell.isEmpty()) {
+                return false;
+            }
+            chunk = cell.chunk;
+            index = cell.start;
+            cell = cell.more;
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (T) chunk[index++];
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!realized) {
+            return "LazySeq(...)";
+        }
+        StringBuilder sb = new StringBuilder("(");
+        LazySeq<T> cell = this;
+        while (cell.realized && cell.chunk.length > 0) {
+            for (int i = cell.start; i < cell.chunk.length; i++) {
+                if (sb.length() > 1) {
+                    sb.append(' ');
+                }
+                sb.append(cell.chunk[i]);
+            }
+            cell = cell.more;
+        }
+        return sb.append(cell.realized ? ")" : " ...)").toString();
+    }
+}
@@ -0,0 +1,503 @@
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntUnaryOperator;
+// In this file IntVector and DoubleVector are the SIMD types, not the persistent vectors of the same name.
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD pipelines for the notes' hottest declarative examples, `numbers.map((number) => number * number)`
+ * and `numbers.reduce((sum, number) => sum + number, 0)`, over large `int[]` and `double[]` arrays.
+ *
+ * A Java lambda is opaque, so the pipeline cannot tell that `x -> x * x` is a square. Instead,
+ * common arithmetic is written as a known operation (`IntOp.square()`, `IntOp.scale(3)`,
+ * `IntOp.add(1)`), and the terminal `sum` / `min` / `max` / `toArray` fuses every step into one
+ * loop. When all steps are known and the `jdk.incubator.vector` module is present
+ * (`--add-modules jdk.incubator.vector`), that loop processes a full hardware vector of lanes per
+ * iteration. An arbitrary lambda (`IntOp.of(fn)`) or a missing module falls back to the same
+ * fused loop in scalar form, so results never depend on which path ran. The exceptions are
+ * `double` sums and dot products: their rounding depends on the order of addition, and the vector
+ * dot product also uses a fused multiply-add, which rounds once where the scalar loop rounds twice.
+ *
+ * ```java
+ * int sumOfSquares = Simd.ints(numbers).map(IntOp.square()).sum();
+ * int[] squared = Simd.ints(numbers).map(IntOp.square()).toArray();
+ * double dot = Simd.dot(xs, ys);
+ * ```
+ *
+ * Int sums and dot products are accumulated in `int` lanes and wrap on overflow, as
+ * `IntStream.sum()` does.
+ */
+final class Simd {
+
+    /** Whether the Vector API module is loaded; checked once, before any vector class is touched. */
+    static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private Simd() {
+    }
+
+    static IntPipe ints(int[] values) {
+        return new IntPipe(values, new IntOp[0]);
+    }
+
+    static DoublePipe doubles(double[] values) {
+        return new DoublePipe(values, new DoubleOp[0]);
+    }
+
+    static int dot(int[] a, int[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Length mismatch: " + a.length + " vs " + b.length);
+        }
+        return AVAILABLE ? Kernels.dot(a, b) : Scalar.dot(a, b);
+    }
+
+    static double dot(double[] a, double[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Length mismatch: " + a.length + " vs " + b.length);
+        }
+        return AVAILABLE ? Kernels.dot(a, b) : Scalar.dot(a, b);
+    }
+
+    /** Kind of a known operation; {@code CUSTOM} is an arbitrary lambda and forces the scalar path. */
+    enum Kind { SQUARE, SCALE, ADD, NEGATE, CUSTOM }
+
+    /** An {@code int -> int} step the pipeline may be able to vectorize. */
+    static final class IntOp implements IntUnaryOperator {
+        final Kind kind;
+        final int operand;
+        final IntUnaryOperator fn;
+
+        private IntOp(Kind kind, int operand, IntUnaryOperator fn) {
+            this.kind = kind;
+            this.operand = operand;
+            this.fn = fn;
+        }
+
+        static IntOp square() {
+            return new IntOp(Kind.SQUARE, 0, x -> x * x);
+        }
+
+        static IntOp scale(int factor) {
+            return new IntOp(Kind.SCALE, factor, x -> x * factor);
+        }
+
+        static IntOp add(int addend) {
+            return new IntOp(Kind.ADD, addend, x -> x + addend);
+        }
+
+        static IntOp negate() {
+            return new IntOp(Kind.NEGATE, 0, x -> -x);
+        }
+
+        static IntOp of(IntUnaryOperator fn) {
+            return fn instanceof IntOp ? (IntOp) fn : new IntOp(Kind.CUSTOM, 0, fn);
+        }
+
+        @Override
+        public int applyAsInt(int x) {
+            return fn.applyAsInt(x);
+        }
+    }
+
+    /** A {@code double -> double} step the pipeline may be able to vectorize. */
+    static final class DoubleOp implements DoubleUnaryOperator {
+        final Kind kind;
+        final double operand;
+        final DoubleUnaryOperator fn;
+
+        private DoubleOp(Kind kind, double operand, DoubleUnaryOperator fn) {
+            this.kind = kind;
+            this.operand = operand;
+            this.fn = fn;
+        }
+
+        static DoubleOp square() {
+            return new DoubleOp(Kind.SQUARE, 0, x -> x * x);
+        }
+
+        static DoubleOp scale(double factor) {
+            return new DoubleOp(Kind.SCALE, factor, x -> x * factor);
+        }
+
+        static DoubleOp add(double addend) {
+            return new DoubleOp(Kind.ADD, addend, x -> x + addend);
+        }
+
+        static DoubleOp negate() {
+            return new DoubleOp(Kind.NEGATE, 0, x -> -x);
+        }
+
+        static DoubleOp of(DoubleUnaryOperator fn) {
+            return fn instanceof DoubleOp ? (DoubleOp) fn : new DoubleOp(Kind.CUSTOM, 0, fn);
+        }
+
+        @Override
+        public double applyAsDouble(double x) {
+            return fn.applyAsDouble(x);
+        }
+    }
+
+    private static boolean vectorizable(IntOp[] ops) {
+        if (!AVAILABLE) {
+            return false;
+        }
+        for (IntOp op : ops) {
+            if (op.kind == Kind.CUSTOM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean vectorizable(DoubleOp[] ops) {
+        if (!AVAILABLE) {
+            return false;
+        }
+        for (DoubleOp op : ops) {
+            if (op.kind == Kind.CUSTOM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Lazy `map` steps over an {@code int[]}; nothing runs until a terminal operation. */
+    static final class IntPipe {
+        private final int[] values;
+        private final IntOp[] ops;
+
+        private IntPipe(int[] values, IntOp[] ops) {
+            this.values = values;
+            this.ops = ops;
+        }
+
+        IntPipe map(IntUnaryOperator fn) {
+            IntOp[] next = Arrays.copyOf(ops, ops.length + 1);
+            next[ops.length] = IntOp.of(fn);
+            return new IntPipe(values, next);
+        }
+
+        int[] toArray() {
+            return vectorizable(ops) ? Kernels.map(values, ops) : Scalar.map(values, ops);
+        }
+
+        int sum() {
+            return vectorizable(ops) ? Kernels.sum(values, ops) : Scalar.sum(values, ops);
+        }
+
+        /** Smallest mapped value, or {@code Integer.MAX_VALUE} for an empty array. */
+        int min() {
+            return vectorizable(ops)
+                    ? Kernels.min(values, ops)
+                    : Scalar.min(values, ops);
+        }
+
+        /** Largest mapped value, or {@code Integer.MIN_VALUE} for an empty array. */
+        int max() {
+            return vectorizable(ops)
+                    ? Kernels.max(values, ops)
+                    : Scalar.max(values, ops);
+        }
+    }
+
+    /** Lazy `map` steps over a {@code double[]}; nothing runs until a terminal operation. */
+    static final class DoublePipe {
+        private final double[] values;
+        private final DoubleOp[] ops;
+
+        private DoublePipe(double[] values, DoubleOp[] ops) {
+            this.values = values;
+            this.ops = ops;
+        }
+
+        DoublePipe map(DoubleUnaryOperator fn) {
+            DoubleOp[] next = Arrays.copyOf(ops, ops.length + 1);
+            next[ops.length] = DoubleOp.of(fn);
+            return new DoublePipe(values, next);
+        }
+
+        double[] toArray() {
+            return vectorizable(ops) ? Kernels.map(values, ops) : Scalar.map(values, ops);
+        }
+
+        /** Sum of the mapped values; the vector path adds in a different order, so rounding may differ. */
+        double sum() {
+            return vectorizable(ops) ? Kernels.sum(values, ops) : Scalar.sum(values, ops);
+        }
+
+        double min() {
+            return vectorizable(ops)
+                    ? Kernels.min(values, ops)
+                    : Scalar.min(values, ops);
+        }
+
+        double max() {
+            return vectorizable(ops)
+                    ? Kernels.max(values, ops)
+                    : Scalar.max(values, ops);
+        }
+    }
+
+    /** Fused scalar loops: the fallback, and the tail after the last full vector. */
+    static final class Scalar {
+        private Scalar() {
+        }
+
+        static int apply(int x, IntOp[] ops) {
+            for (IntOp op : ops) {
+                x = op.fn.applyAsInt(x);
+            }
+            return x;
+        }
+
+        static double apply(double x, DoubleOp[] ops) {
+            for (DoubleOp op : ops) {
+                x = op.fn.applyAsDouble(x);
+            }
+            return x;
+        }
+
+        static int[] map(int[] values, IntOp[] ops) {
+            int[] out = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                out[i] = apply(values[i], ops);
+            }
+            return out;
+        }
+
+        static double[] map(double[] values, DoubleOp[] ops) {
+            double[] out = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                out[i] = apply(values[i], ops);
+            }
+            return out;
+        }
+
+        static int sum(int[] values, IntOp[] ops) {
+            int sum = 0;
+            for (int value : values) {
+                sum += apply(value, ops);
+            }
+            return sum;
+        }
+
+        static double sum(double[] values, DoubleOp[] ops) {
+            double sum = 0;
+            for (double value : values) {
+                sum += apply(value, ops);
+            }
+            return sum;
+        }
+
+        static int min(int[] values, IntOp[] ops) {
+            int min = Integer.MAX_VALUE;
+            for (int value : values) {
+                min = Math.min(min, apply(value, ops));
+            }
+            return min;
+        }
+
+        static double min(double[] values, DoubleOp[] ops) {
+            double min = Double.POSITIVE_INFINITY;
+            for (double value : values) {
+                min = Math.min(min, apply(value, ops));
+            }
+            return min;
+        }
+
+        static int max(int[] values, IntOp[] ops) {
+            int max = Integer.MIN_VALUE;
+            for (int value : values) {
+                max = Math.max(max, apply(value, ops));
+            }
+            return max;
+        }
+
+        static double max(double[] values, DoubleOp[] ops) {
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : values) {
+                max = Math.max(max, apply(value, ops));
+            }
+            return max;
+        }
+
+        static int dot(int[] a, int[] b) {
+            int sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+
+        static double dot(double[] a, double[] b) {
+            double sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Vector API loops. Only referenced behind {@link #AVAILABLE}, so without the module this
+     * class is never loaded.
+     */
+    static final class Kernels {
+        private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+        private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+        private Kernels() {
+        }
+
+        private static IntVector apply(IntVector v, IntOp[] ops) {
+            for (IntOp op : ops) {
+                switch (op.kind) {
+                    case SQUARE:
+                        v = v.mul(v);
+                        break;
+                    case SCALE:
+                        v = v.mul(op.operand);
+                        break;
+                    case ADD:
+                        v = v.add(op.operand);
+                        break;
+                    case NEGATE:
+                        v = v.neg();
+                        break;
+                    default:
+                        throw new IllegalStateException("Not vectorizable: " + op.kind);
+                }
+            }
+            return v;
+        }
+
+        private static DoubleVector apply(DoubleVector v, DoubleOp[] ops) {
+            for (DoubleOp op : ops) {
+                switch (op.kind) {
+                    case SQUARE:
+                        v = v.mul(v);
+                        break;
+                    case SCALE:
+                        v = v.mul(op.operand);
+                        break;
+                    case ADD:
+                        v = v.add(op.operand);
+                        break;
+                    case NEGATE:
+                        v = v.neg();
+                        break;
+                    default:
+                        throw new IllegalStateException("Not vectorizable: " + op.kind);
+                }
+            }
+            return v;
+        }
+
+        static int[] map(int[] values, IntOp[] ops) {
+            int[] out = new int[values.length];
+            int i = 0;
+            for (int bound = INTS.loopBound(values.length); i < bound; i += INTS.length()) {
+                apply(IntVector.fromArray(INTS, values, i), ops).intoArray(out, i);
+            }
+            for (; i < values.length; i++) {
+                out[i] = Scalar.apply(values[i], ops);
+            }
+            return out;
+        }
+
+        static double[] map(double[] values, DoubleOp[] ops) {
+            double[] out = new double[values.length];
+            int i = 0;
+            for (int bound = DOUBLES.loopBound(values.length); i < bound; i += DOUBLES.length()) {
+                apply(DoubleVector.fromArray(DOUBLES, values, i), ops).intoArray(out, i);
+            }
+            for (; i < values.length; i++) {
+                out[i] = Scalar.apply(values[i], ops);
+            }
+            return out;
+        }
+
+        /** Folds mapped values with an associative lane operation whose neutral element is {@code identity}. */
+        private static int reduce(int[] values, IntOp[] ops, VectorOperators.Associative op, int identity) {
+            IntVector acc = IntVector.broadcast(INTS, identity);
+            int i = 0;
+            for (int bound = INTS.loopBound(values.length); i < bound; i += INTS.length()) {
+                acc = acc.lanewise(op, apply(IntVector.fromArray(INTS, values, i), ops));
+            }
+            int result = acc.reduceLanes(op);
+            for (; i < values.length; i++) {
+                int x = Scalar.apply(values[i], ops);
+                result = op == VectorOperators.ADD ? result + x
+                        : op == VectorOperators.MIN ? Math.min(result, x) : Math.max(result, x);
+            }
+            return result;
+        }
+
+        private static double reduce(double[] values, DoubleOp[] ops, VectorOperators.Associative op, double identity) {
+            DoubleVector acc = DoubleVector.broadcast(DOUBLES, identity);
+            int i = 0;
+            for (int bound = DOUBLES.loopBound(values.length); i < bound; i += DOUBLES.length()) {
+                acc = acc.lanewise(op, apply(DoubleVector.fromArray(DOUBLES, values, i), ops));
+            }
+            double result = acc.reduceLanes(op);
+            for (; i < values.length; i++) {
+                double x = Scalar.apply(values[i], ops);
+                result = op == VectorOperators.ADD ? result + x
+                        : op == VectorOperators.MIN ? Math.min(result, x) : Math.max(result, x);
+            }
+            return result;
+        }
+
+        static int sum(int[] values, IntOp[] ops) {
+            return reduce(values, ops, VectorOperators.ADD, 0);
+        }
+
+        static int min(int[] values, IntOp[] ops) {
+            return reduce(values, ops, VectorOperators.MIN, Integer.MAX_VALUE);
+        }
+
+        static int max(int[] values, IntOp[] ops) {
+            return reduce(values, ops, VectorOperators.MAX, Integer.MIN_VALUE);
+        }
+
+        static double sum(double[] values, DoubleOp[] ops) {
+            return reduce(values, ops, VectorOperators.ADD, 0.0);
+        }
+
+        static double min(double[] values, DoubleOp[] ops) {
+            return reduce(values, ops, VectorOperators.MIN, Double.POSITIVE_INFINITY);
+        }
+
+        static double max(double[] values, DoubleOp[] ops) {
+            return reduce(values, ops, VectorOperators.MAX, Double.NEGATIVE_INFINITY);
+        }
+
+        static int dot(int[] a, int[] b) {
+            IntVector acc = IntVector.zero(INTS);
+            int i = 0;
+            for (int bound = INTS.loopBound(a.length); i < bound; i += INTS.length()) {
+                acc = IntVector.fromArray(INTS, a, i).mul(IntVector.fromArray(INTS, b, i)).add(acc);
+            }
+            int sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < a.length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+
+        static double dot(double[] a, double[] b) {
+            DoubleVector acc = DoubleVector.zero(DOUBLES);
+            int i = 0;
+            for (int bound = DOUBLES.loopBound(a.length); i < bound; i += DOUBLES.length()) {
+                acc = DoubleVector.fromArray(DOUBLES, a, i).fma(DoubleVector.fromArray(DOUBLES, b, i), acc);
+            }
+            double sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < a.length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,883 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A `java.util.concurrent.Flow` publisher with functional operators: the notes'
+ * `asyncFunction().then(...)` chain, extended to many values and given flow control.
+ *
+ * A Promise chain has no way to say "slow down": a fast producer keeps resolving and a slow
+ * `.then` piles the values up in memory. Here every stage only receives what the stage below it
+ * has asked for with `request(n)`, so the amount buffered is bounded by the requests:
+ *
+ * ```java
+ * FlowStream.fromIterable(userIds)
+ *         .map(String::trim)
+ *         .filter(id -> !id.isEmpty())
+ *         .flatMap(id -> fetchOrders(id), 8)   // at most 8 fetches in flight
+ *         .buffer(100)                         // lists of up to 100 orders
+ *         .async(executor, 256)                // a slow consumer holds back the producer
+ *         .forEach(batch -> save(batch));
+ * ```
+ *
+ * - **Fused synchronous stages.** Consecutive `map` and `filter` calls are composed into one
+ *   function that a single subscriber applies, so a chain of ten of them costs one
+ *   `onNext` hop per element, not ten. A filtered-out element is replaced by requesting one more
+ *   from upstream.
+ * - **Bounded asynchrony.** `flatMap` keeps at most `maxConcurrency` inner publishers subscribed.
+ *   It requests a fixed prefetch from each one and tops it up only as values are delivered
+ *   downstream. `async` moves delivery onto an executor behind a queue of at most `prefetch`
+ *   elements.
+ *
+ * A stream is a description, like a `Task`: nothing runs until `subscribe`. Each subscription
+ * runs the pipeline again from the source.
+ */
+final class FlowStream<T> implements Flow.Publisher<T> {
+
+    /** Elements requested at a time by the terminal operations. */
+    static final int BATCH = 256;
+
+    /** Returned by a fused step to drop the element. */
+    private static final Object SKIP = new Object();
+
+    /** One or more fused `map` / `filter` stages; returns {@link #SKIP} to drop an element. */
+    private interface Step {
+        Object apply(Object value);
+    }
+
+    private final Flow.Publisher<?> source;
+    private final Step step;
+
+    private FlowStream(Flow.Publisher<?> source, Step step) {
+        this.source = source;
+        this.step = step;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> FlowStream<T> from(Flow.Publisher<? extends T> publisher) {
+        return publisher instanceof FlowStream ? (FlowStream<T>) publisher : new FlowStream<>(publisher, null);
+    }
+
+    static <T> FlowStream<T> fromIterable(Iterable<? extends T> values) {
+        return new FlowStream<>(new IterablePublisher<>(values), null);
+    }
+
+    @SafeVarargs
+    static <T> FlowStream<T> of(T... values) {
+        List<T> list = new ArrayList<>(values.length);
+        for (T value : values) {
+            list.add(value);
+        }
+        return fromIterable(list);
+    }
+
+    private static <T> FlowStream<T> create(Flow.Publisher<T> publisher) {
+        return new FlowStream<>(publisher, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (step == null) {
+            ((Flow.Publisher<T>) source).subscribe(subscriber);
+        } else {
+            ((Flow.Publisher<Object>) source).subscribe(new FusedSubscriber<>(subscriber, step));
+        }
+    }
+
+    // -- Synchronous operators (fused) --
+
+    @SuppressWarnings("unchecked")
+    <R> FlowStream<R> map(Function<? super T, ? extends R> fn) {
+        Objects.requireNonNull(fn, "fn");
+        return new FlowStream<>(source, compose(step, value -> fn.apply((T) value)));
+    }
+
+    @SuppressWarnings("unchecked")
+    FlowStream<T> filter(Predicate<? super T> predicate) {
+        Objects.requireNonNull(predicate, "predicate");
+        return new FlowStream<>(source, compose(step, value -> predicate.test((T) value) ? value : SKIP));
+    }
+
+    private static Step compose(Step first, Step next) {
+        if (first == null) {
+            return next;
+        }
+        return value -> {
+            Object result = first.apply(value);
+            return result == SKIP ? SKIP : next.apply(result);
+        };
+    }
+
+    // -- Asynchronous and batching operators --
+
+    /**
+     * Maps each element to a publisher and merges their values, with at most
+     * {@code maxConcurrency} of them subscribed at once. Values of different inner publishers
+     * may interleave.
+     */
+    <R> FlowStream<R> flatMap(Function<? super T, ? extends Flow.Publisher<? extends R>> fn, int maxConcurrency) {
+        Objects.requireNonNull(fn, "fn");
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive: " + maxConcurrency);
+        }
+        return FlowStream.<R>create(downstream -> subscribe(new FlatMapSubscriber<>(downstream, fn, maxConcurrency)));
+    }
+
+    /** Groups elements into lists of {@code size}; the last list may be shorter. */
+    FlowStream<List<T>> buffer(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        return FlowStream.<List<T>>create(downstream -> subscribe(new BufferSubscriber<>(downstream, size)));
+    }
+
+    /**
+     * Splits the stream into consecutive windows of {@code size} elements. A window is emitted
+     * once it is full (or the stream ends), so each one holds at most {@code size} elements and
+     * can be subscribed to any number of times.
+     */
+    FlowStream<FlowStream<T>> window(int size) {
+        return buffer(size).map(FlowStream::fromIterable);
+    }
+
+    /**
+     * Delivers elements to the subscriber on {@code executor}. At most {@code prefetch}
+     * elements are requested ahead of the subscriber, so a slow subscriber holds back the producer.
+     */
+    FlowStream<T> async(Executor executor, int prefetch) {
+        Objects.requireNonNull(executor, "executor");
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("prefetch must be positive: " + prefetch);
+        }
+        return FlowStream.<T>create(downstream -> subscribe(new AsyncSubscriber<>(downstream, executor, prefetch)));
+    }
+
+    // -- Terminal operations --
+
+    /** Folds the stream, requesting {@value #BATCH} elements at a time. */
+    <A> CompletableFuture<A> reduce(A init, BiFunction<A, ? super T, A> fn) {
+        CompletableFuture<A> result = new CompletableFuture<>();
+        subscribe(new Flow.Subscriber<T>() {
+            private Flow.Subscription subscription;
+            private A acc = init;
+            private int received;
+            private boolean done;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(BATCH);
+            }
+
+            @Override
+            public void onNext(T value) {
+                if (done) {
+                    return;
+                }
+                try {
+                    acc = fn.apply(acc, value);
+                } catch (Throwable e) {
+                    done = true;
+                    subscription.cancel();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (++received == BATCH) {
+                    received = 0;
+                    subscription.request(BATCH);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (!done) {
+                    done = true;
+                    result.completeExceptionally(error);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (!done) {
+                    done = true;
+                    result.complete(acc);
+                }
+            }
+        });
+        return result;
+    }
+
+    CompletableFuture<Void> forEach(Consumer<? super T> action) {
+        return reduce((Void) null, (ignored, value) -> {
+            action.accept(value);
+            return null;
+        });
+    }
+
+    CompletableFuture<List<T>> toList() {
+        List<T> init = new ArrayList<>();
+        return reduce(init, (list, value) -> {
+            list.add(value);
+            return list;
+        });
+    }
+
+    // -- Demand bookkeeping --
+
+    /** Adds {@code n} to {@code requested}, saturating at {@code Long.MAX_VALUE}; returns the old value. */
+    static long addRequest(AtomicLong requested, long n) {
+        while (true) {
+            long current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                return current;
+            }
+            long next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+            if (requested.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
+    /** Subtracts what was emitted, unless the demand is unbounded; returns the remaining demand. */
+    static long produced(AtomicLong requested, long emitted) {
+        while (true) {
+            long current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                return current;
+            }
+            long next = current - emitted;
+            if (requested.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    static IllegalArgumentException nonPositiveRequest(long n) {
+        return new IllegalArgumentException("Non-positive request (Reactive Streams rule 3.9): " + n);
+    }
+
+    // -- Subscribers and subscriptions --
+
+    /** Emits an iterable's elements, no more than requested. */
+    private static final class IterablePublisher<T> implements Flow.Publisher<T> {
+        private final Iterable<? extends T> values;
+
+        IterablePublisher(Iterable<? extends T> values) {
+            this.values = Objects.requireNonNull(values, "values");
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            Iterator<? extends T> iterator;
+            try {
+                iterator = values.iterator();
+            } catch (Throwable e) {
+                subscriber.onSubscribe(CancelledSubscription.INSTANCE);
+                subscriber.onError(e);
+                return;
+            }
+            subscriber.onSubscribe(new IterableSubscription<>(subscriber, iterator));
+        }
+    }
+
+    private static final class IterableSubscription<T> implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> downstream;
+        private final Iterator<? extends T> iterator;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+
+        IterableSubscription(Flow.Subscriber<? super T> downstream, Iterator<? extends T> iterator) {
+            this.downstream = downstream;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                downstream.onError(nonPositiveRequest(n));
+                return;
+            }
+            // Only the call that raises demand from zero emits; a request made from inside
+            // onNext just adds to the demand the running loop will see.
+            if (addRequest(requested, n) == 0) {
+                drain(n);
+            }
+        }
+
+        private void drain(long demand) {
+            long emitted = 0;
+            while (true) {
+                while (emitted != demand) {
+                    if (cancelled) {
+                        return;
+                    }
+                    T value;
+                    try {
+                        if (!iterator.hasNext()) {
+                            cancelled = true;
+                            downstream.onComplete();
+                            return;
+                        }
+                        value = Objects.requireNonNull(iterator.next(), "Iterable produced a null element");
+                    } catch (Throwable e) {
+                        cancelled = true;
+                        downstream.onError(e);
+                        return;
+                    }
+                    downstream.onNext(value);
+                    emitted++;
+                }
+                if (cancelled) {
+                    return;
+                }
+                // Signal completion eagerly rather than waiting for the next request.
+                try {
+                    if (!iterator.hasNext()) {
+                        cancelled = true;
+                        downstream.onComplete();
+                        return;
+                    }
+                } catch (Throwable e) {
+                    cancelled = true;
+                    downstream.onError(e);
+                    return;
+                }
+                demand = produced(requested, emitted);
+                if (demand == 0) {
+                    return;
+                }
+                emitted = 0;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private enum CancelledSubscription implements Flow.Subscription {
+        INSTANCE;
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    /** Applies the fused `map` / `filter` stages; demand passes straight through. */
+    private static final class FusedSubscriber<T> implements Flow.Subscriber<Object>, Flow.Subscription {
+        private final Flow.Subscriber<? super T> downstream;
+        private final Step step;
+        private Flow.Subscription upstream;
+        private boolean done;
+
+        FusedSubscriber(Flow.Subscriber<? super T> downstream, Step step) {
+            this.downstream = downstream;
+            this.step = step;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onNext(Object value) {
+            if (done) {
+                return;
+            }
+            Object result;
+            try {
+                result = step.apply(value);
+                if (result == null) {
+                    throw new NullPointerException("map produced a null element");
+                }
+            } catch (Throwable e) {
+                done = true;
+                upstream.cancel();
+                downstream.onError(e);
+                return;
+            }
+            if (result == SKIP) {
+                upstream.request(1);
+            } else {
+                downstream.onNext((T) result);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (!done) {
+                done = true;
+                downstream.onError(error);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (!done) {
+                done = true;
+                downstream.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            upstream.cancel();
+        }
+    }
+
+    /** Collects {@code size} elements per list; one list requested means {@code size} elements requested. */
+    private static final class BufferSubscriber<T> implements Flow.Subscriber<T>, Flow.Subscription {
+        private final Flow.Subscriber<? super List<T>> downstream;
+        private final int size;
+        private Flow.Subscription upstream;
+        private List<T> buffer;
+        private boolean done;
+
+        BufferSubscriber(Flow.Subscriber<? super List<T>> downstream, int size) {
+            this.downstream = downstream;
+            this.size = size;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(T value) {
+            if (done) {
+                return;
+            }
+            if (buffer == null) {
+                buffer = new ArrayList<>(size);
+            }
+            buffer.add(value);
+            if (buffer.size() == size) {
+                List<T> full = buffer;
+                buffer = null;
+                downstream.onNext(full);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (!done) {
+                done = true;
+                buffer = null;
+                downstream.onError(error);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            // A partial list means fewer elements arrived than were requested, so there is
+            // still unfilled demand for it.
+            if (buffer != null) {
+                List<T> last = buffer;
+                buffer = null;
+                downstream.onNext(last);
+            }
+            downstream.onComplete();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                upstream.request(n);
+                return;
+            }
+            upstream.request(n > Long.MAX_VALUE / size ? Long.MAX_VALUE : n * size);
+        }
+
+        @Override
+        public void cancel() {
+            upstream.cancel();
+        }
+    }
+
+    /**
+     * Merges inner publishers. All values go through one queue that a single drain loop
+     * empties into the subscriber, so signals downstream are serialized. The queue holds at
+     * most {@code maxConcurrency * PREFETCH} values.
+     */
+    private static final class FlatMapSubscriber<T, R> implements Flow.Subscriber<T>, Flow.Subscription {
+        static final int PREFETCH = 32;
+        private static final Object COMPLETE = new Object();
+
+        private final Flow.Subscriber<? super R> downstream;
+        private final Function<? super T, ? extends Flow.Publisher<? extends R>> fn;
+        private final int maxConcurrency;
+        private final Queue<Signal> queue = new ConcurrentLinkedQueue<>();
+        private final Set<Inner> inners = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private Flow.Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile boolean cancelled;
+
+        /** A value from an inner publisher, or its completion when {@code value} is {@link #COMPLETE}. */
+        private static final class Signal {
+            final FlatMapSubscriber<?, ?>.Inner inner;
+            final Object value;
+
+            Signal(FlatMapSubscriber<?, ?>.Inner inner, Object value) {
+                this.inner = inner;
+                this.value = value;
+            }
+        }
+
+        FlatMapSubscriber(Flow.Subscriber<? super R> downstream,
+                          Function<? super T, ? extends Flow.Publisher<? extends R>> fn, int maxConcurrency) {
+            this.downstream = downstream;
+            this.fn = fn;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(this);
+            upstream.request(maxConcurrency);
+        }
+
+        @Override
+        public void onNext(T value) {
+            if (upstreamDone || cancelled) {
+                return;
+            }
+            Flow.Publisher<? extends R> publisher;
+            try {
+                publisher = Objects.requireNonNull(fn.apply(value), "flatMap produced a null publisher");
+            } catch (Throwable e) {
+                upstream.cancel();
+                onError(e);
+                return;
+            }
+            Inner inner = new Inner();
+            active.incrementAndGet();
+            inners.add(inner);
+            publisher.subscribe(inner);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error.compareAndSet(null, e);
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error.compareAndSet(null, nonPositiveRequest(n));
+            } else {
+                addRequest(requested, n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                cancelAll();
+                if (wip.getAndIncrement() == 0) {
+                    queue.clear();
+                }
+            }
+        }
+
+        private void cancelAll() {
+            upstream.cancel();
+            for (Inner inner : inners) {
+                inner.cancel();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                long demand = requested.get();
+                long emitted = 0;
+                while (true) {
+                    if (cancelled) {
+                        queue.clear();
+                        return;
+                    }
+                    Throwable e = error.get();
+                    if (e != null) {
+                        cancelled = true;
+                        cancelAll();
+                        queue.clear();
+                        downstream.onError(e);
+                        return;
+                    }
+                    Signal signal = queue.peek();
+                    if (signal == null) {
+                        if (upstreamDone && active.get() == 0) {
+                            cancelled = true;
+                            downstream.onComplete();
+                            return;
+                        }
+                        break;
+                    }
+                    if (signal.value == COMPLETE) {
+                        // An inner finished: its slot goes to the next upstream element.
+                        queue.poll();
+                        inners.remove(signal.inner);
+                        active.decrementAndGet();
+                        if (!upstreamDone) {
+                            upstream.request(1);
+                        }
+                        continue;
+                    }
+                    if (emitted == demand) {
+                        break;
+                    }
+                    queue.poll();
+                    downstream.onNext((R) signal.value);
+                    emitted++;
+                    signal.inner.consumed();
+                }
+                if (emitted != 0) {
+                    produced(requested, emitted);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private final class Inner implements Flow.Subscriber<R> {
+            private static final int LIMIT = PREFETCH - PREFETCH / 4;
+            private volatile Flow.Subscription subscription;
+            private volatile boolean cancelled;
+            private int consumed;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                if (cancelled) {
+                    s.cancel();
+                } else {
+                    s.request(PREFETCH);
+                }
+            }
+
+            @Override
+            public void onNext(R value) {
+                queue.offer(new Signal(this, value));
+                drain();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error.compareAndSet(null, e);
+                drain();
+            }
+
+            @Override
+            public void onComplete() {
+                queue.offer(new Signal(this, COMPLETE));
+                drain();
+            }
+
+            /** Called by the drain loop; tops the prefetch back up in batches. */
+            void consumed() {
+                if (++consumed == LIMIT) {
+                    consumed = 0;
+                    subscription.request(LIMIT);
+                }
+            }
+
+            void cancel() {
+                cancelled = true;
+                Flow.Subscription s = subscription;
+                if (s != null) {
+                    s.cancel();
+                }
+            }
+        }
+    }
+
+    /** Hands elements to an executor through a queue bounded by the prefetch. */
+    private static final class AsyncSubscriber<T> implements Flow.Subscriber<T>, Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> downstream;
+        private final Executor executor;
+        private final int prefetch;
+        private final int limit;
+        private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private Flow.Subscription upstream;
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+        // Only touched by the drain loop.
+        private int consumed;
+
+        AsyncSubscriber(Flow.Subscriber<? super T> downstream, Executor executor, int prefetch) {
+            this.downstream = downstream;
+            this.executor = executor;
+            this.prefetch = prefetch;
+            this.limit = prefetch - prefetch / 4;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            upstream = subscription;
+            // onSubscribe is delivered on the executor too, before any element.
+            wip.incrementAndGet();
+            executor.execute(() -> {
+                downstream.onSubscribe(this);
+                upstream.request(prefetch);
+                if (wip.decrementAndGet() != 0) {
+                    run();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T value) {
+            queue.offer(value);
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+            done = true;
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                upstream.cancel();
+                error = nonPositiveRequest(n);
+                done = true;
+            } else {
+                addRequest(requested, n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                upstream.cancel();
+                if (wip.getAndIncrement() == 0) {
+                    queue.clear();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                long demand = requested.get();
+                long emitted = 0;
+                while (true) {
+                    if (cancelled) {
+                        queue.clear();
+                        return;
+                    }
+                    boolean finished = done;
+                    T value = emitted == demand ? null : queue.poll();
+                    if (finished && (error != null || (value == null && queue.isEmpty()))) {
+                        cancelled = true;
+                        queue.clear();
+                        if (error != null) {
+                            downstream.onError(error);
+                        } else {
+                            downstream.onComplete();
+                        }
+                        return;
+                    }
+                    if (value == null) {
+                        break;
+                    }
+                    downstream.onNext(value);
+                    emitted++;
+                    if (++consumed == limit) {
+                        consumed = 0;
+                        upstream.request(limit);
+                    }
+                }
+                if (emitted != 0) {
+                    produced(requested, emitted);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
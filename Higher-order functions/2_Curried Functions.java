@@ -0,0 +1,373 @@
+import java.util.function.DoubleFunction;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Curried and partially applied functions: higher-order functions that return functions, as in
+ * the notes' `multiply = (a) => (b) => a * b`, `curryAdd(1)(2)(3)` and `multiply.bind(null, 2)`.
+ *
+ * Written literally in Java, `Function<Integer, Function<Integer, Integer>>` allocates a closure
+ * for every argument, and every argument and result is boxed. Here the function is declared at
+ * full arity and curried only on demand:
+ *
+ * ```java
+ * Function3<Integer, Integer, Integer, Integer> add = (x, y, z) -> x + y + z;
+ * add.apply(1, 2, 3);             // direct call: no intermediate objects
+ * add.curried().apply(1).apply(2).apply(3); // curryAdd(1)(2)(3), one closure per stage
+ * Function2<Integer, Integer, Integer> addOne = add.partial(1);
+ *
+ * IntFn2 multiply = (a, b) -> a * b;
+ * IntUnaryOperator twice = multiply.partial(2); // multiply.bind(null, 2), no boxing
+ * ```
+ *
+ * `Function2` to `Function8` cover the object case. `IntFn2`/`IntFn3`, `LongFn2`/`LongFn3` and
+ * `DoubleFn2`/`DoubleFn3` take and return primitives. A partial application is one allocation
+ * and can be reused for any number of calls. {@link Partial} caches partial applications that
+ * are rebuilt from the same leading argument.
+ */
+final class Partial {
+
+    private Partial() {
+    }
+
+    /**
+     * `a -> fn.partial(a)`, keeping the most recently used {@code maxSize} partial applications,
+     * so hot leading arguments reuse one function object instead of building a new closure.
+     */
+    static <A, B, R> Function<A, Function<B, R>> cache(Function2<A, B, R> fn, long maxSize) {
+        return Memo.memoize(fn::partial, Memo.Policy.lru(maxSize));
+    }
+
+    static <A, B, C, R> Function<A, Function2<B, C, R>> cache(Function3<A, B, C, R> fn, long maxSize) {
+        return Memo.memoize(fn::partial, Memo.Policy.lru(maxSize));
+    }
+}
+
+/** A function of two arguments that can be curried or partially applied on demand. */
+@FunctionalInterface
+interface Function2<A, B, R> {
+
+    R apply(A a, B b);
+
+    /** The JavaScript-style `a => b => ...` form; allocates one closure per stage, unlike {@link #apply}. */
+    default Function<A, Function<B, R>> curried() {
+        return a -> b -> apply(a, b);
+    }
+
+    /** Fixes the first argument, like `multiply.bind(null, 2)`; one allocation, reusable for many calls. */
+    default Function<B, R> partial(A a) {
+        return b -> apply(a, b);
+    }
+
+    default <V> Function2<A, B, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b) -> after.apply(apply(a, b));
+    }
+
+    static <A, B, R> Function2<A, B, R> uncurried(Function<A, Function<B, R>> fn) {
+        return (a, b) -> fn.apply(a).apply(b);
+    }
+}
+
+/** {@link Function2} for 3 arguments. */
+@FunctionalInterface
+interface Function3<A, B, C, R> {
+
+    R apply(A a, B b, C c);
+
+    default Function<A, Function<B, Function<C, R>>> curried() {
+        return a -> b -> c -> apply(a, b, c);
+    }
+
+    default Function2<B, C, R> partial(A a) {
+        return (b, c) -> apply(a, b, c);
+    }
+
+    default Function<C, R> partial(A a, B b) {
+        return c -> apply(a, b, c);
+    }
+
+    default <V> Function3<A, B, C, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c) -> after.apply(apply(a, b, c));
+    }
+}
+
+/** {@link Function2} for 4 arguments. */
+@FunctionalInterface
+interface Function4<A, B, C, D, R> {
+
+    R apply(A a, B b, C c, D d);
+
+    default Function<A, Function<B, Function<C, Function<D, R>>>> curried() {
+        return a -> b -> c -> d -> apply(a, b, c, d);
+    }
+
+    default Function3<B, C, D, R> partial(A a) {
+        return (b, c, d) -> apply(a, b, c, d);
+    }
+
+    default Function2<C, D, R> partial(A a, B b) {
+        return (c, d) -> apply(a, b, c, d);
+    }
+
+    default Function<D, R> partial(A a, B b, C c) {
+        return d -> apply(a, b, c, d);
+    }
+
+    default <V> Function4<A, B, C, D, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c, d) -> after.apply(apply(a, b, c, d));
+    }
+}
+
+/** {@link Function2} for 5 arguments. */
+@FunctionalInterface
+interface Function5<A, B, C, D, E, R> {
+
+    R apply(A a, B b, C c, D d, E e);
+
+    default Function<A, Function<B, Function<C, Function<D, Function<E, R>>>>> curried() {
+        return a -> b -> c -> d -> e -> apply(a, b, c, d, e);
+    }
+
+    default Function4<B, C, D, E, R> partial(A a) {
+        return (b, c, d, e) -> apply(a, b, c, d, e);
+    }
+
+    default Function3<C, D, E, R> partial(A a, B b) {
+        return (c, d, e) -> apply(a, b, c, d, e);
+    }
+
+    default Function2<D, E, R> partial(A a, B b, C c) {
+        return (d, e) -> apply(a, b, c, d, e);
+    }
+
+    default Function<E, R> partial(A a, B b, C c, D d) {
+        return e -> apply(a, b, c, d, e);
+    }
+
+    default <V> Function5<A, B, C, D, E, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c, d, e) -> after.apply(apply(a, b, c, d, e));
+    }
+}
+
+/** {@link Function2} for 6 arguments. */
+@FunctionalInterface
+interface Function6<A, B, C, D, E, F, R> {
+
+    R apply(A a, B b, C c, D d, E e, F f);
+
+    default Function<A, Function<B, Function<C, Function<D, Function<E, Function<F, R>>>>>> curried() {
+        return a -> b -> c -> d -> e -> f -> apply(a, b, c, d, e, f);
+    }
+
+    default Function5<B, C, D, E, F, R> partial(A a) {
+        return (b, c, d, e, f) -> apply(a, b, c, d, e, f);
+    }
+
+    default Function4<C, D, E, F, R> partial(A a, B b) {
+        return (c, d, e, f) -> apply(a, b, c, d, e, f);
+    }
+
+    default Function3<D, E, F, R> partial(A a, B b, C c) {
+        return (d, e, f) -> apply(a, b, c, d, e, f);
+    }
+
+    default Function2<E, F, R> partial(A a, B b, C c, D d) {
+        return (e, f) -> apply(a, b, c, d, e, f);
+    }
+
+    default Function<F, R> partial(A a, B b, C c, D d, E e) {
+        return f -> apply(a, b, c, d, e, f);
+    }
+
+    default <V> Function6<A, B, C, D, E, F, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c, d, e, f) -> after.apply(apply(a, b, c, d, e, f));
+    }
+}
+
+/** {@link Function2} for 7 arguments. */
+@FunctionalInterface
+interface Function7<A, B, C, D, E, F, G, R> {
+
+    R apply(A a, B b, C c, D d, E e, F f, G g);
+
+    default Function<A, Function<B, Function<C, Function<D, Function<E, Function<F, Function<G, R>>>>>>> curried() {
+        return a -> b -> c -> d -> e -> f -> g -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function6<B, C, D, E, F, G, R> partial(A a) {
+        return (b, c, d, e, f, g) -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function5<C, D, E, F, G, R> partial(A a, B b) {
+        return (c, d, e, f, g) -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function4<D, E, F, G, R> partial(A a, B b, C c) {
+        return (d, e, f, g) -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function3<E, F, G, R> partial(A a, B b, C c, D d) {
+        return (e, f, g) -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function2<F, G, R> partial(A a, B b, C c, D d, E e) {
+        return (f, g) -> apply(a, b, c, d, e, f, g);
+    }
+
+    default Function<G, R> partial(A a, B b, C c, D d, E e, F f) {
+        return g -> apply(a, b, c, d, e, f, g);
+    }
+
+    default <V> Function7<A, B, C, D, E, F, G, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c, d, e, f, g) -> after.apply(apply(a, b, c, d, e, f, g));
+    }
+}
+
+/** {@link Function2} for 8 arguments. */
+@FunctionalInterface
+interface Function8<A, B, C, D, E, F, G, H, R> {
+
+    R apply(A a, B b, C c, D d, E e, F f, G g, H h);
+
+    default Function<A, Function<B, Function<C, Function<D, Function<E, Function<F, Function<G, Function<H, R>>>>>>>> curried() {
+        return a -> b -> c -> d -> e -> f -> g -> h -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function7<B, C, D, E, F, G, H, R> partial(A a) {
+        return (b, c, d, e, f, g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function6<C, D, E, F, G, H, R> partial(A a, B b) {
+        return (c, d, e, f, g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function5<D, E, F, G, H, R> partial(A a, B b, C c) {
+        return (d, e, f, g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function4<E, F, G, H, R> partial(A a, B b, C c, D d) {
+        return (e, f, g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function3<F, G, H, R> partial(A a, B b, C c, D d, E e) {
+        return (f, g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function2<G, H, R> partial(A a, B b, C c, D d, E e, F f) {
+        return (g, h) -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default Function<H, R> partial(A a, B b, C c, D d, E e, F f, G g) {
+        return h -> apply(a, b, c, d, e, f, g, h);
+    }
+
+    default <V> Function8<A, B, C, D, E, F, G, H, V> andThen(Function<? super R, ? extends V> after) {
+        return (a, b, c, d, e, f, g, h) -> after.apply(apply(a, b, c, d, e, f, g, h));
+    }
+}
+
+/** Unboxed `(int, int) -> int`; partial application yields a {@code IntUnaryOperator}. */
+@FunctionalInterface
+interface IntFn2 {
+
+    int apply(int a, int b);
+
+    default IntFunction<IntUnaryOperator> curried() {
+        return a -> b -> apply(a, b);
+    }
+
+    default IntUnaryOperator partial(int a) {
+        return b -> apply(a, b);
+    }
+}
+
+/** Unboxed `(int, int, int) -> int`. */
+@FunctionalInterface
+interface IntFn3 {
+
+    int apply(int a, int b, int c);
+
+    default IntFunction<IntFunction<IntUnaryOperator>> curried() {
+        return a -> b -> c -> apply(a, b, c);
+    }
+
+    default IntFn2 partial(int a) {
+        return (b, c) -> apply(a, b, c);
+    }
+
+    default IntUnaryOperator partial(int a, int b) {
+        return c -> apply(a, b, c);
+    }
+}
+
+/** Unboxed `(long, long) -> long`; partial application yields a {@code LongUnaryOperator}. */
+@FunctionalInterface
+interface LongFn2 {
+
+    long apply(long a, long b);
+
+    default LongFunction<LongUnaryOperator> curried() {
+        return a -> b -> apply(a, b);
+    }
+
+    default LongUnaryOperator partial(long a) {
+        return b -> apply(a, b);
+    }
+}
+
+/** Unboxed `(long, long, long) -> long`. */
+@FunctionalInterface
+interface LongFn3 {
+
+    long apply(long a, long b, long c);
+
+    default LongFunction<LongFunction<LongUnaryOperator>> curried() {
+        return a -> b -> c -> apply(a, b, c);
+    }
+
+    default LongFn2 partial(long a) {
+        return (b, c) -> apply(a, b, c);
+    }
+
+    default LongUnaryOperator partial(long a, long b) {
+        return c -> apply(a, b, c);
+    }
+}
+
+/** Unboxed `(double, double) -> double`; partial application yields a {@code DoubleUnaryOperator}. */
+@FunctionalInterface
+interface DoubleFn2 {
+
+    double apply(double a, double b);
+
+    default DoubleFunction<DoubleUnaryOperator> curried() {
+        return a -> b -> apply(a, b);
+    }
+
+    default DoubleUnaryOperator partial(double a) {
+        return b -> apply(a, b);
+    }
+}
+
+/** Unboxed `(double, double, double) -> double`. */
+@FunctionalInterface
+interface DoubleFn3 {
+
+    double apply(double a, double b, double c);
+
+    default DoubleFunction<DoubleFunction<DoubleUnaryOperator>> curried() {
+        return a -> b -> c -> apply(a, b, c);
+    }
+
+    default DoubleFn2 partial(double a) {
+        return (b, c) -> apply(a, b, c);
+    }
+
+    default DoubleUnaryOperator partial(double a, double b) {
+        return c -> apply(a, b, c);
+    }
+}
@@ -0,0 +1,814 @@
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent sorted map for ordered state such as time-bucketed metrics or price levels, backed by
+ * a persistent B+ tree.
+ *
+ * Entries live in leaves of 32-64 keys stored in plain sorted arrays; branches hold the smallest
+ * key and the entry count of each child. The wide fanout keeps the tree three or four levels deep
+ * for millions of keys, and a lookup scans contiguous arrays instead of chasing one pointer per
+ * comparison as a red-black tree does. An update copies only the arrays on one root-to-leaf path.
+ *
+ * - `get`, `set`, `remove`, `floorKey` / `ceilingKey`, `rank` and `select` are O(log n).
+ * - `subMap(from, to)` is an O(log n) view; its size comes from two rank queries.
+ * - Range scans with {@link #cursor} or {@link #forEachInRange} do not allocate per element.
+ */
+final class PersistentSortedMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    static final int MAX = 64;
+    static final int MIN = MAX / 2;
+
+    abstract static class Node {
+        /** Sorted entry keys in a leaf; the smallest key of each child in a branch. */
+        final Object[] keys;
+
+        Node(Object[] keys) {
+            this.keys = keys;
+        }
+
+        int count() {
+            return keys.length;
+        }
+
+        abstract int size();
+    }
+
+    static final class Leaf extends Node {
+        final Object[] values;
+
+        Leaf(Object[] keys, Object[] values) {
+            super(keys);
+            this.values = values;
+        }
+
+        @Override
+        int size() {
+            return keys.length;
+        }
+    }
+
+    static final class Branch extends Node {
+        final Node[] children;
+        /** Cumulative entry counts: {@code sizes[i]} entries live in children 0..i. */
+        final int[] sizes;
+
+        Branch(Object[] keys, Node[] children, int[] sizes) {
+            super(keys);
+            this.children = children;
+            this.sizes = sizes;
+        }
+
+        @Override
+        int size() {
+            return sizes[sizes.length - 1];
+        }
+    }
+
+    static Branch branch(Node[] children) {
+        Object[] keys = new Object[children.length];
+        int[] sizes = new int[children.length];
+        int total = 0;
+        for (int i = 0; i < children.length; i++) {
+            keys[i] = children[i].keys[0];
+            total += children[i].size();
+            sizes[i] = total;
+        }
+        return new Branch(keys, children, sizes);
+    }
+
+    /** What an insert or removal did; {@code split} is the new right sibling after a split. */
+    private static final class Change {
+        Node split;
+        boolean added;
+        boolean removed;
+    }
+
+    private static final Leaf EMPTY_LEAF = new Leaf(new Object[0], new Object[0]);
+
+    final Comparator<? super K> comparator;
+    final Node root;
+
+    PersistentSortedMap(Comparator<? super K> comparator, Node root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return new PersistentSortedMap<>((Comparator<? super K>) Comparator.naturalOrder(), EMPTY_LEAF);
+    }
+
+    static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentSortedMap<>(comparator, EMPTY_LEAF);
+    }
+
+    int size() {
+        return root.size();
+    }
+
+    boolean isEmpty() {
+        return root.size() == 0;
+    }
+
+    // -- Search --
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object a, Object b) {
+        return comparator.compare((K) a, (K) b);
+    }
+
+    /** Binary search over {@code keys}; same contract as {@code Arrays.binarySearch}. */
+    private int search(Object[] keys, Object key) {
+        int lo = 0;
+        int hi = keys.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(keys[mid], key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /** Child of {@code branch} whose key range contains {@code key}. */
+    private int childFor(Branch branch, Object key) {
+        int i = search(branch.keys, key);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+
+    boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    V get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    V getOrDefault(Object key, V defaultValue) {
+        Leaf leaf = find(key);
+        return leaf == null ? defaultValue : (V) leaf.values[search(leaf.keys, key)];
+    }
+
+    private Leaf find(Object key) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch.children[childFor(branch, key)];
+        }
+        return search(node.keys, key) >= 0 ? (Leaf) node : null;
+    }
+
+    // -- Updates --
+
+    PersistentSortedMap<K, V> set(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Change change = new Change();
+        Node newRoot = insert(root, key, value, change);
+        if (newRoot == root) {
+            return this;
+        }
+        if (change.split != null) {
+            newRoot = branch(new Node[] {newRoot, change.split});
+        }
+        return new PersistentSortedMap<>(comparator, newRoot);
+    }
+
+    private Node insert(Node node, Object key, Object value, Change change) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = search(leaf.keys, key);
+            if (i >= 0) {
+                if (leaf.values[i] == value) {
+                    return leaf;
+                }
+                Object[] values = leaf.values.clone();
+                values[i] = value;
+                return new Leaf(leaf.keys, values);
+            }
+            change.added = true;
+            int at = -i - 1;
+            Object[] keys = insertAt(leaf.keys, at, key);
+            Object[] values = insertAt(leaf.values, at, value);
+            if (keys.length <= MAX) {
+                return new Leaf(keys, values);
+            }
+            int half = keys.length / 2;
+            change.split = new Leaf(copyRange(keys, half, keys.length), copyRange(values, half, values.length));
+            return new Leaf(copyRange(keys, 0, half), copyRange(values, 0, half));
+        }
+        Branch branch = (Branch) node;
+        int ci = childFor(branch, key);
+        Node child = branch.children[ci];
+        Node newChild = insert(child, key, value, change);
+        if (newChild == child) {
+            return branch;
+        }
+        Node[] children;
+        if (change.split == null) {
+            children = branch.children.clone();
+            children[ci] = newChild;
+        } else {
+            children = new Node[branch.children.length + 1];
+            System.arraycopy(branch.children, 0, children, 0, ci);
+            children[ci] = newChild;
+            children[ci + 1] = change.split;
+            System.arraycopy(branch.children, ci + 1, children, ci + 2, branch.children.length - ci - 1);
+            change.split = null;
+            if (children.length > MAX) {
+                int half = children.length / 2;
+                change.split = branch(copyRange(children, half, children.length));
+                return branch(copyRange(children, 0, half));
+            }
+        }
+        return branch(children);
+    }
+
+    PersistentSortedMap<K, V> remove(Object key) {
+        Change change = new Change();
+        Node newRoot = delete(root, key, change);
+        if (!change.removed) {
+            return this;
+        }
+        while (newRoot instanceof Branch && newRoot.count() == 1) {
+            newRoot = ((Branch) newRoot).children[0];
+        }
+        return new PersistentSortedMap<>(comparator, newRoot.size() == 0 ? EMPTY_LEAF : newRoot);
+    }
+
+    private Node delete(Node node, Object key, Change change) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = search(leaf.keys, key);
+            if (i < 0) {
+                return leaf;
+            }
+            change.removed = true;
+            return new Leaf(removeAt(leaf.keys, i), removeAt(leaf.values, i));
+        }
+        Branch branch = (Branch) node;
+        int ci = childFor(branch, key);
+        Node child = branch.children[ci];
+        Node newChild = delete(child, key, change);
+        if (newChild == child) {
+            return branch;
+        }
+        Node[] children = branch.children.clone();
+        children[ci] = newChild;
+        if (newChild.count() >= MIN || children.length == 1) {
+            return branch(children);
+        }
+        // Underflow: merge with a neighbour, or share its entries if the two don't fit in one node.
+        int left = ci > 0 ? ci - 1 : ci;
+        Node merged = join(children[left], children[left + 1]);
+        Node[] fixed;
+        if (merged.count() <= MAX) {
+            fixed = new Node[children.length - 1];
+            System.arraycopy(children, 0, fixed, 0, left);
+            fixed[left] = merged;
+            System.arraycopy(children, left + 2, fixed, left + 1, children.length - left - 2);
+        } else {
+            fixed = children;
+            int half = merged.count() / 2;
+            fixed[left] = slice(merged, 0, half);
+            fixed[left + 1] = slice(merged, half, merged.count());
+        }
+        return branch(fixed);
+    }
+
+    private static Node join(Node a, Node b) {
+        if (a instanceof Leaf) {
+            Leaf x = (Leaf) a;
+            Leaf y = (Leaf) b;
+            return new Leaf(concat(x.keys, y.keys), concat(x.values, y.values));
+        }
+        Node[] children = new Node[a.count() + b.count()];
+        System.arraycopy(((Branch) a).children, 0, children, 0, a.count());
+        System.arraycopy(((Branch) b).children, 0, children, a.count(), b.count());
+        return branch(children);
+    }
+
+    private static Node slice(Node node, int from, int to) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return new Leaf(copyRange(leaf.keys, from, to), copyRange(leaf.values, from, to));
+        }
+        return branch(copyRange(((Branch) node).children, from, to));
+    }
+
+    // -- Order statistics --
+
+    /** Number of keys strictly less than {@code key}. */
+    int rank(Object key) {
+        return rank(key, false);
+    }
+
+    private int rank(Object key, boolean inclusive) {
+        int rank = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int ci = childFor(branch, key);
+            if (ci > 0) {
+                rank += branch.sizes[ci - 1];
+            }
+            node = branch.children[ci];
+        }
+        int i = search(node.keys, key);
+        return rank + (i >= 0 ? (inclusive ? i + 1 : i) : -i - 1);
+    }
+
+    /** The leaf holding the entry of rank {@code index}; the offset within it goes to {@code at[0]}. */
+    private Leaf leafAt(int index, int[] at) {
+        Objects.checkIndex(index, size());
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int ci = 0;
+            while (branch.sizes[ci] <= index) {
+                ci++;
+            }
+            if (ci > 0) {
+                index -= branch.sizes[ci - 1];
+            }
+            node = branch.children[ci];
+        }
+        at[0] = index;
+        return (Leaf) node;
+    }
+
+    /** Key of rank {@code index}, i.e. the {@code index}-th smallest key. */
+    @SuppressWarnings("unchecked")
+    K select(int index) {
+        int[] at = new int[1];
+        return (K) leafAt(index, at).keys[at[0]];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAtRank(int index) {
+        int[] at = new int[1];
+        return (V) leafAt(index, at).values[at[0]];
+    }
+
+    K firstKey() {
+        return isEmpty() ? null : select(0);
+    }
+
+    K lastKey() {
+        return isEmpty() ? null : select(size() - 1);
+    }
+
+    /** Greatest key less than or equal to {@code key}, or null. */
+    K floorKey(Object key) {
+        int r = rank(key, true);
+        return r > 0 ? select(r - 1) : null;
+    }
+
+    /** Least key greater than or equal to {@code key}, or null. */
+    K ceilingKey(Object key) {
+        int r = rank(key, false);
+        return r < size() ? select(r) : null;
+    }
+
+    /** Greatest key strictly less than {@code key}, or null. */
+    K lowerKey(Object key) {
+        int r = rank(key, false);
+        return r > 0 ? select(r - 1) : null;
+    }
+
+    /** Least key strictly greater than {@code key}, or null. */
+    K higherKey(Object key) {
+        int r = rank(key, true);
+        return r < size() ? select(r) : null;
+    }
+
+    // -- Ranges --
+
+    /** View of the keys in {@code [from, to)}; a null bound is open. */
+    SubMap<K, V> subMap(K from, K to) {
+        if (from != null && to != null && compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        return new SubMap<>(this, from, to);
+    }
+
+    private int startRank(Object from) {
+        return from == null ? 0 : rank(from, false);
+    }
+
+    private int endRank(Object to) {
+        return to == null ? size() : rank(to, false);
+    }
+
+    /** Cursor over the entries of rank {@code [fromRank, toRank)}. */
+    Cursor<K, V> cursorByRank(int fromRank, int toRank) {
+        Objects.checkFromToIndex(fromRank, toRank, size());
+        return new Cursor<>(this, fromRank, toRank);
+    }
+
+    /** Cursor over the keys in {@code [from, to)}; a null bound is open. */
+    Cursor<K, V> cursor(K from, K to) {
+        int start = startRank(from);
+        return new Cursor<>(this, start, Math.max(start, endRank(to)));
+    }
+
+    /** Visits the entries in {@code [from, to)} in order; a null bound is open. */
+    void forEachInRange(K from, K to, BiConsumer<? super K, ? super V> action) {
+        int start = startRank(from);
+        int end = endRank(to);
+        if (start < end) {
+            forEachByRank(root, start, end, action);
+        }
+    }
+
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (!isEmpty()) {
+            forEachByRank(root, 0, size(), action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void forEachByRank(Node node, int from, int to, BiConsumer<? super K, ? super V> action) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = from; i < to; i++) {
+                action.accept((K) leaf.keys[i], (V) leaf.values[i]);
+            }
+            return;
+        }
+        Branch branch = (Branch) node;
+        int before = 0;
+        for (int ci = 0; ci < branch.children.length && before < to; ci++) {
+            int after = branch.sizes[ci];
+            if (after > from) {
+                forEachByRank(branch.children[ci], Math.max(from, before) - before, Math.min(to, after) - before, action);
+            }
+            before = after;
+        }
+    }
+
+    /**
+     * Forward cursor over a rank range. Advancing reads the next slot of the current leaf array
+     * and only climbs the tree at leaf boundaries; no objects are allocated per entry.
+     *
+     * ```java
+     * for (Cursor<K, V> c = map.cursor(from, to); c.next(); ) {
+     *     use(c.key(), c.value());
+     * }
+     * ```
+     */
+    static final class Cursor<K, V> {
+        private final Branch[] path;
+        private final int[] positions;
+        private Leaf leaf;
+        private int index;
+        private int remaining;
+
+        Cursor(PersistentSortedMap<K, V> map, int fromRank, int toRank) {
+            int depth = 0;
+            for (Node node = map.root; node instanceof Branch; node = ((Branch) node).children[0]) {
+                depth++;
+            }
+            path = new Branch[depth];
+            positions = new int[depth];
+            remaining = toRank - fromRank;
+            if (remaining == 0) {
+                return;
+            }
+            Node node = map.root;
+            int offset = fromRank;
+            for (int level = 0; level < depth; level++) {
+                Branch branch = (Branch) node;
+                int ci = 0;
+                while (branch.sizes[ci] <= offset) {
+                    ci++;
+                }
+                if (ci > 0) {
+                    offset -= branch.sizes[ci - 1];
+                }
+                path[level] = branch;
+                positions[level] = ci;
+                node = branch.children[ci];
+            }
+            leaf = (Leaf) node;
+            // Positioned just before the first entry; next() moves onto it.
+            index = offset - 1;
+        }
+
+        /** Moves to the next entry; false once the range is exhausted. */
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            if (++index < leaf.keys.length) {
+                return true;
+            }
+            int level = path.length - 1;
+            while (positions[level] == path[level].children.length - 1) {
+                level--;
+            }
+            positions[level]++;
+            Node node = path[level].children[positions[level]];
+            for (level++; level < path.length; level++) {
+                path[level] = (Branch) node;
+                positions[level] = 0;
+                node = ((Branch) node).children[0];
+            }
+            leaf = (Leaf) node;
+            index = 0;
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        K key() {
+            return (K) leaf.keys[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        V value() {
+            return (V) leaf.values[index];
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        Cursor<K, V> cursor = new Cursor<>(this, 0, size());
+        return new Iterator<Map.Entry<K, V>>() {
+            private boolean ready;
+            private boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    hasNext = cursor.next();
+                    ready = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return new AbstractMap.SimpleImmutableEntry<>(cursor.key(), cursor.value());
+            }
+        };
+    }
+
+    /** Read-only view of a key range of a {@link PersistentSortedMap}; bounds are {@code [from, to)}. */
+    static final class SubMap<K, V> {
+        private final PersistentSortedMap<K, V> map;
+        private final K from;
+        private final K to;
+
+        SubMap(PersistentSortedMap<K, V> map, K from, K to) {
+            this.map = map;
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(Object key) {
+            return (from == null || map.compare(key, from) >= 0) && (to == null || map.compare(key, to) < 0);
+        }
+
+        int size() {
+            return Math.max(0, map.endRank(to) - map.startRank(from));
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+
+        boolean containsKey(Object key) {
+            return inRange(key) && map.containsKey(key);
+        }
+
+        V get(Object key) {
+            return inRange(key) ? map.get(key) : null;
+        }
+
+        K firstKey() {
+            int start = map.startRank(from);
+            return start < map.endRank(to) ? map.select(start) : null;
+        }
+
+        K lastKey() {
+            int end = map.endRank(to);
+            return end > map.startRank(from) ? map.select(end - 1) : null;
+        }
+
+        Cursor<K, V> cursor() {
+            return map.cursor(from, to);
+        }
+
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            map.forEachInRange(from, to, action);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentSortedMap)) {
+            return false;
+        }
+        PersistentSortedMap<?, ?> other = (PersistentSortedMap<?, ?>) o;
+        if (size() != other.size()) {
+            return false;
+        }
+        Cursor<K, V> a = new Cursor<>(this, 0, size());
+        Cursor<?, ?> b = new Cursor<>(other, 0, other.size());
+        while (a.next() && b.next()) {
+            if (!Objects.equals(a.key(), b.key()) || !Objects.equals(a.value(), b.value())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {0};
+        forEach((k, v) -> hash[0] += Objects.hashCode(k) ^ Objects.hashCode(v));
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    // -- Array helpers --
+
+    private static Object[] insertAt(Object[] array, int at, Object value) {
+        Object[] out = new Object[array.length + 1];
+        System.arraycopy(array, 0, out, 0, at);
+        out[at] = value;
+        System.arraycopy(array, at, out, at + 1, array.length - at);
+        return out;
+    }
+
+    private static Object[] removeAt(Object[] array, int at) {
+        Object[] out = new Object[array.length - 1];
+        System.arraycopy(array, 0, out, 0, at);
+        System.arraycopy(array, at + 1, out, at, array.length - at - 1);
+        return out;
+    }
+
+    private static Object[] concat(Object[] a, Object[] b) {
+        Object[] out = new Object[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static <T> T[] copyRange(T[] array, int from, int to) {
+        return Arrays.copyOfRange(array, from, to);
+    }
+}
+
+/** Persistent sorted set, stored as a {@link PersistentSortedMap} with the elements as values. */
+final class PersistentSortedSet<E> implements Iterable<E> {
+
+    final PersistentSortedMap<E, E> map;
+
+    PersistentSortedSet(PersistentSortedMap<E, E> map) {
+        this.map = map;
+    }
+
+    static <E extends Comparable<? super E>> PersistentSortedSet<E> empty() {
+        return new PersistentSortedSet<>(PersistentSortedMap.<E, E>empty());
+    }
+
+    static <E> PersistentSortedSet<E> empty(Comparator<? super E> comparator) {
+        return new PersistentSortedSet<>(PersistentSortedMap.empty(comparator));
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    boolean has(Object value) {
+        return map.containsKey(value);
+    }
+
+    PersistentSortedSet<E> add(E value) {
+        PersistentSortedMap<E, E> newMap = map.set(value, value);
+        return newMap == map ? this : new PersistentSortedSet<>(newMap);
+    }
+
+    PersistentSortedSet<E> remove(Object value) {
+        PersistentSortedMap<E, E> newMap = map.remove(value);
+        return newMap == map ? this : new PersistentSortedSet<>(newMap);
+    }
+
+    int rank(Object value) {
+        return map.rank(value);
+    }
+
+    E select(int index) {
+        return map.select(index);
+    }
+
+    E floor(Object value) {
+        return map.floorKey(value);
+    }
+
+    E ceiling(Object value) {
+        return map.ceilingKey(value);
+    }
+
+    E lower(Object value) {
+        return map.lowerKey(value);
+    }
+
+    E higher(Object value) {
+        return map.higherKey(value);
+    }
+
+    /** Cursor over the elements in {@code [from, to)}; read them with {@code key()}. */
+    PersistentSortedMap.Cursor<E, E> cursor(E from, E to) {
+        return map.cursor(from, to);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        PersistentSortedMap.Cursor<E, E> cursor = map.cursor(null, null);
+        return new Iterator<E>() {
+            private boolean ready;
+            private boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    hasNext = cursor.next();
+                    ready = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return cursor.key();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof PersistentSortedSet && map.equals(((PersistentSortedSet<?>) o).map);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (E e : this) {
+            hash += Objects.hashCode(e);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (E e : this) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(e);
+        }
+        return sb.append(']').toString();
+    }
+}
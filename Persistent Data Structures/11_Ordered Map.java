@@ -0,0 +1,312 @@
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persistent map that iterates in insertion order: `Immutable.OrderedMap`. Serializing the Redux
+ * `initialState` from the notes should give the keys in the order they were written, which a
+ * hash map does not promise.
+ *
+ * Entries live in a {@link PersistentVector} in insertion order, and a {@link PersistentHashMap}
+ * maps each key to its slot, so lookups cost one hash-map lookup plus one vector read.
+ * Overwriting a key keeps its slot. Removing a key leaves an empty slot (a tombstone) in the
+ * vector. Once tombstones outnumber live entries, the next removal compacts the vector. Each
+ * compaction costs O(n) and follows at least n/2 removals, so it is amortized O(1) per removal.
+ * Ordered traversal is linear in the number of live entries.
+ */
+final class OrderedMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    /** Tombstones tolerated regardless of size, so tiny maps do not compact on every removal. */
+    static final int MIN_TOMBSTONES = PersistentVector.WIDTH;
+
+    private static final OrderedMap<?, ?> EMPTY = new OrderedMap<>(PersistentHashMap.empty(), PersistentVector.empty());
+
+    /** Key to slot in {@link #entries}. */
+    final PersistentHashMap<K, Integer> index;
+    /** {@code Map.Entry} per slot in insertion order; null marks a removed entry. */
+    final PersistentVector<Map.Entry<K, V>> entries;
+
+    OrderedMap(PersistentHashMap<K, Integer> index, PersistentVector<Map.Entry<K, V>> entries) {
+        this.index = index;
+        this.entries = entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> OrderedMap<K, V> empty() {
+        return (OrderedMap<K, V>) EMPTY;
+    }
+
+    /** Copies {@code values} in its own iteration order, e.g. that of a {@code LinkedHashMap}. */
+    static <K, V> OrderedMap<K, V> from(Map<? extends K, ? extends V> values) {
+        TransientHashMap<K, Integer> index = PersistentHashMap.<K, Integer>empty().asTransient();
+        TransientVector<Map.Entry<K, V>> entries = PersistentVector.<Map.Entry<K, V>>empty().asTransient();
+        for (Map.Entry<? extends K, ? extends V> e : values.entrySet()) {
+            index.set(e.getKey(), entries.size());
+            entries.push(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+        }
+        return new OrderedMap<>(index.persistent(), entries.persistent());
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /** Removed entries still occupying a slot. */
+    int tombstones() {
+        return entries.size() - index.size();
+    }
+
+    boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    V get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    V getOrDefault(Object key, V defaultValue) {
+        Integer slot = index.get(key);
+        return slot == null ? defaultValue : entries.get(slot).getValue();
+    }
+
+    /** Sets {@code key}; a new key goes last, an existing key keeps its position. */
+    OrderedMap<K, V> set(K key, V value) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            return new OrderedMap<>(index.set(key, entries.size()),
+                    entries.push(new AbstractMap.SimpleImmutableEntry<>(key, value)));
+        }
+        if (entries.get(slot).getValue() == value) {
+            return this;
+        }
+        return new OrderedMap<>(index, entries.set(slot, new AbstractMap.SimpleImmutableEntry<>(key, value)));
+    }
+
+    OrderedMap<K, V> remove(Object key) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            return this;
+        }
+        PersistentHashMap<K, Integer> newIndex = index.remove(key);
+        if (newIndex.isEmpty()) {
+            return empty();
+        }
+        PersistentVector<Map.Entry<K, V>> newEntries = entries.set(slot, null);
+        while (newEntries.peek() == null) {
+            newEntries = newEntries.pop();
+        }
+        int tombstones = newEntries.size() - newIndex.size();
+        if (tombstones > newIndex.size() && tombstones > MIN_TOMBSTONES) {
+            return compact(newEntries);
+        }
+        return new OrderedMap<>(newIndex, newEntries);
+    }
+
+    /** Rebuilds both structures without tombstones; every live entry gets a new slot. */
+    private static <K, V> OrderedMap<K, V> compact(PersistentVector<Map.Entry<K, V>> entries) {
+        TransientHashMap<K, Integer> index = PersistentHashMap.<K, Integer>empty().asTransient();
+        TransientVector<Map.Entry<K, V>> live = PersistentVector.<Map.Entry<K, V>>empty().asTransient();
+        entries.forEach(e -> {
+            if (e != null) {
+                index.set(e.getKey(), live.size());
+                live.push(e);
+            }
+        });
+        return new OrderedMap<>(index.persistent(), live.persistent());
+    }
+
+    Map.Entry<K, V> first() {
+        for (Map.Entry<K, V> e : this) {
+            return e;
+        }
+        return null;
+    }
+
+    Map.Entry<K, V> last() {
+        // Trailing tombstones are popped eagerly, so the last slot is always live.
+        return entries.peek();
+    }
+
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        entries.forEach(e -> {
+            if (e != null) {
+                action.accept(e.getKey(), e.getValue());
+            }
+        });
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        Iterator<Map.Entry<K, V>> slots = entries.iterator();
+        return new Iterator<Map.Entry<K, V>>() {
+            private Map.Entry<K, V> next = advance();
+
+            private Map.Entry<K, V> advance() {
+                while (slots.hasNext()) {
+                    Map.Entry<K, V> e = slots.next();
+                    if (e != null) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    /** Ordered maps are equal when they hold equal entries in the same order. */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OrderedMap)) {
+            return false;
+        }
+        OrderedMap<?, ?> other = (OrderedMap<?, ?>) o;
+        if (size() != other.size()) {
+            return false;
+        }
+        Iterator<?> it = other.iterator();
+        for (Map.Entry<K, V> e : this) {
+            if (!e.equals(it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (Map.Entry<K, V> e : this) {
+            hash = 31 * hash + e.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+}
+
+/** Persistent set that iterates in insertion order: `Immutable.OrderedSet`, backed by an {@link OrderedMap}. */
+final class OrderedSet<E> implements Iterable<E> {
+
+    private static final OrderedSet<?> EMPTY = new OrderedSet<>(OrderedMap.empty());
+
+    final OrderedMap<E, E> map;
+
+    OrderedSet(OrderedMap<E, E> map) {
+        this.map = map;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> OrderedSet<E> empty() {
+        return (OrderedSet<E>) EMPTY;
+    }
+
+    @SafeVarargs
+    static <E> OrderedSet<E> of(E... values) {
+        OrderedSet<E> set = empty();
+        for (E value : values) {
+            set = set.add(value);
+        }
+        return set;
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    boolean has(Object value) {
+        return map.containsKey(value);
+    }
+
+    /** Adds {@code value} last; adding an element already present keeps its position. */
+    OrderedSet<E> add(E value) {
+        return map.containsKey(value) ? this : new OrderedSet<>(map.set(value, value));
+    }
+
+    OrderedSet<E> remove(Object value) {
+        OrderedMap<E, E> newMap = map.remove(value);
+        return newMap == map ? this : new OrderedSet<>(newMap);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<Map.Entry<E, E>> it = map.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next().getKey();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        map.forEach((k, v) -> action.accept(k));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof OrderedSet && map.equals(((OrderedSet<?>) o).map);
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (E e : this) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(e);
+        }
+        return sb.append(']').toString();
+    }
+}
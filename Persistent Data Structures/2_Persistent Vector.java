@@ -0,0 +1,518 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Persistent vector: the 32-way vector trie behind `List.of(1, 2, 3).push(4)` in Immutable.js,
+ * as popularized by Clojure and Scala.
+ *
+ * Elements live in 32-slot leaf arrays hanging off a trie of 32-way branch nodes, plus a tail
+ * buffer holding the last (up to) 32 elements outside the trie:
+ *
+ * - `get` / `set` walk at most log32(n) levels, so a million elements is only four levels deep.
+ * - `push` / `pop` only copy the small tail array 31 times out of 32, so they are amortized O(1).
+ * - Every update copies one root-to-leaf path and shares every other node with the old version,
+ *   unlike `[...originalArray, 4]`, which copies the whole array on each append.
+ *
+ * For bulk loads, `asTransient()` / `withMutations(fn)` hand out a {@link TransientVector} that
+ * updates the nodes it created in place instead of copying a path per element.
+ */
+final class PersistentVector<T> implements Iterable<T> {
+
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    /**
+     * Branch or leaf of the trie; branches hold child nodes, leaves hold elements. {@code edit} is
+     * the token of the transient session that created the node, or null for persistent nodes.
+     */
+    static final class Node {
+        final Object edit;
+        final Object[] array;
+
+        Node(Object[] array) {
+            this(null, array);
+        }
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    static final Node EMPTY_NODE = new Node(new Object[WIDTH]);
+    private static final Object[] EMPTY_TAIL = new Object[0];
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, EMPTY_NODE, EMPTY_TAIL);
+
+    final int size;
+    final int shift;
+    final Node root;
+    final Object[] tail;
+
+    PersistentVector(int size, int shift, Node root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    @SafeVarargs
+    static <T> PersistentVector<T> of(T... values) {
+        TransientVector<T> vector = PersistentVector.<T>empty().asTransient();
+        for (T value : values) {
+            vector.push(value);
+        }
+        return vector.persistent();
+    }
+
+    static <T> PersistentVector<T> from(Iterable<? extends T> values) {
+        TransientVector<T> vector = PersistentVector.<T>empty().asTransient();
+        for (T value : values) {
+            vector.push(value);
+        }
+        return vector.persistent();
+    }
+
+    TransientVector<T> asTransient() {
+        return new TransientVector<>(this);
+    }
+
+    /** Applies {@code fn} to a transient copy of this vector and seals the result. */
+    PersistentVector<T> withMutations(Consumer<? super TransientVector<T>> fn) {
+        TransientVector<T> vector = asTransient();
+        fn.accept(vector);
+        return vector.persistent();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Index of the first element stored in the tail rather than in the trie. */
+    int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /** The 32-element leaf array (or the tail) holding index {@code i}. */
+    Object[] arrayFor(int i) {
+        Objects.checkIndex(i, size);
+        if (i >= tailOffset()) {
+            return tail;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(i >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int i) {
+        return (T) arrayFor(i)[i & MASK];
+    }
+
+    T peek() {
+        return size == 0 ? null : get(size - 1);
+    }
+
+    /** Returns a vector with index {@code i} replaced; {@code i == size()} appends. */
+    PersistentVector<T> set(int i, T value) {
+        if (i == size) {
+            return push(value);
+        }
+        Objects.checkIndex(i, size);
+        if (i >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = value;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, doSet(shift, root, i, value), tail);
+    }
+
+    private static Node doSet(int level, Node node, int i, Object value) {
+        Object[] array = node.array.clone();
+        if (level == 0) {
+            array[i & MASK] = value;
+        } else {
+            int slot = (i >>> level) & MASK;
+            array[slot] = doSet(level - BITS, (Node) node.array[slot], i, value);
+        }
+        return new Node(array);
+    }
+
+    PersistentVector<T> push(T value) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        // Tail is full: move it into the trie and start a new one.
+        Node tailNode = new Node(tail);
+        Node newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            Object[] array = new Object[WIDTH];
+            array[0] = root;
+            array[1] = newPath(shift, tailNode);
+            newRoot = new Node(array);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tailNode);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] {value});
+    }
+
+    private Node pushTail(int level, Node parent, Node tailNode) {
+        int slot = ((size - 1) >>> level) & MASK;
+        Object[] array = parent.array.clone();
+        Node child;
+        if (level == BITS) {
+            child = tailNode;
+        } else {
+            Node existing = (Node) parent.array[slot];
+            child = existing != null ? pushTail(level - BITS, existing, tailNode) : newPath(level - BITS, tailNode);
+        }
+        array[slot] = child;
+        return new Node(array);
+    }
+
+    static Node newPath(int level, Node node) {
+        return newPath(null, level, node);
+    }
+
+    static Node newPath(Object edit, int level, Node node) {
+        for (; level > 0; level -= BITS) {
+            Object[] array = new Object[WIDTH];
+            array[0] = node;
+            node = new Node(edit, array);
+        }
+        return node;
+    }
+
+    PersistentVector<T> pop() {
+        if (size == 0) {
+            throw new IllegalStateException("Can't pop empty vector");
+        }
+        if (size == 1) {
+            return empty();
+        }
+        if (size - tailOffset() > 1) {
+            return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        // Tail holds a single element: the last leaf of the trie becomes the new tail.
+        Object[] newTail = arrayFor(size - 2);
+        Node newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = EMPTY_NODE;
+        }
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = (Node) newRoot.array[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+    }
+
+    private Node popTail(int level, Node node) {
+        int slot = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node child = popTail(level - BITS, (Node) node.array[slot]);
+            if (child == null && slot == 0) {
+                return null;
+            }
+            Object[] array = node.array.clone();
+            array[slot] = child;
+            return new Node(array);
+        }
+        if (slot == 0) {
+            return null;
+        }
+        Object[] array = node.array.clone();
+        array[slot] = null;
+        return new Node(array);
+    }
+
+    /** Iterates leaf by leaf, so each step is an array read rather than a trie walk. */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int i = 0;
+            private int base = -WIDTH;
+            private Object[] leaf = EMPTY_TAIL;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (i >= size) {
+                    throw new NoSuchElementException();
+                }
+                if (i - base == WIDTH) {
+                    leaf = arrayFor(i);
+                    base = i;
+                }
+                return (T) leaf[i++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super T> action) {
+        for (int base = 0; base < size; base += WIDTH) {
+            Object[] leaf = arrayFor(base);
+            int end = Math.min(WIDTH, size - base);
+            for (int j = 0; j < end; j++) {
+                action.accept((T) leaf[j]);
+            }
+        }
+    }
+
+    Object[] toArray() {
+        Object[] out = new Object[size];
+        for (int base = 0; base < size; base += WIDTH) {
+            System.arraycopy(arrayFor(base), 0, out, base, Math.min(WIDTH, size - base));
+        }
+        return out;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentVector)) {
+            return false;
+        }
+        PersistentVector<?> other = (PersistentVector<?>) o;
+        if (size != other.size) {
+            return false;
+        }
+        Iterator<?> it = other.iterator();
+        for (T value : this) {
+            if (!Objects.equals(value, it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (T value : this) {
+            hash = 31 * hash + Objects.hashCode(value);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (T value : this) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.append(']').toString();
+    }
+}
+
+/**
+ * Batch-mutation view of a {@link PersistentVector}. Nodes created by this session carry its edit
+ * token and are updated in place; shared nodes are copied once, on first write. After
+ * {@link #persistent()} the session token is dropped and the transient can no longer be used.
+ *
+ * Not thread-safe: a transient belongs to the code that created it.
+ */
+final class TransientVector<T> {
+
+    private static final int BITS = PersistentVector.BITS;
+    private static final int WIDTH = PersistentVector.WIDTH;
+    private static final int MASK = PersistentVector.MASK;
+
+    private Object edit = new Object();
+    private int size;
+    private int shift;
+    private PersistentVector.Node root;
+    private Object[] tail;
+
+    TransientVector(PersistentVector<T> vector) {
+        this.size = vector.size;
+        this.shift = vector.shift;
+        this.root = new PersistentVector.Node(edit, vector.root.array.clone());
+        this.tail = Arrays.copyOf(vector.tail, WIDTH);
+    }
+
+    private void ensureEditable() {
+        if (edit == null) {
+            throw new IllegalStateException("Transient used after persistent() call");
+        }
+    }
+
+    private PersistentVector.Node ensureEditable(PersistentVector.Node node) {
+        return node.edit == edit ? node : new PersistentVector.Node(edit, node.array.clone());
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    int size() {
+        ensureEditable();
+        return size;
+    }
+
+    private Object[] arrayFor(int i) {
+        Objects.checkIndex(i, size);
+        if (i >= tailOffset()) {
+            return tail;
+        }
+        PersistentVector.Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (PersistentVector.Node) node.array[(i >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int i) {
+        ensureEditable();
+        return (T) arrayFor(i)[i & MASK];
+    }
+
+    TransientVector<T> set(int i, T value) {
+        ensureEditable();
+        if (i == size) {
+            return push(value);
+        }
+        Objects.checkIndex(i, size);
+        if (i >= tailOffset()) {
+            tail[i & MASK] = value;
+        } else {
+            root = doSet(shift, root, i, value);
+        }
+        return this;
+    }
+
+    private PersistentVector.Node doSet(int level, PersistentVector.Node node, int i, Object value) {
+        PersistentVector.Node editable = ensureEditable(node);
+        if (level == 0) {
+            editable.array[i & MASK] = value;
+        } else {
+            int slot = (i >>> level) & MASK;
+            editable.array[slot] = doSet(level - BITS, (PersistentVector.Node) editable.array[slot], i, value);
+        }
+        return editable;
+    }
+
+    TransientVector<T> push(T value) {
+        ensureEditable();
+        if (size - tailOffset() < WIDTH) {
+            tail[size & MASK] = value;
+            size++;
+            return this;
+        }
+        PersistentVector.Node tailNode = new PersistentVector.Node(edit, tail);
+        tail = new Object[WIDTH];
+        tail[0] = value;
+        if ((size >>> BITS) > (1 << shift)) {
+            Object[] array = new Object[WIDTH];
+            array[0] = root;
+            array[1] = PersistentVector.newPath(edit, shift, tailNode);
+            root = new PersistentVector.Node(edit, array);
+            shift += BITS;
+        } else {
+            root = pushTail(shift, root, tailNode);
+        }
+        size++;
+        return this;
+    }
+
+    private PersistentVector.Node pushTail(int level, PersistentVector.Node parent, PersistentVector.Node tailNode) {
+        PersistentVector.Node editable = ensureEditable(parent);
+        int slot = ((size - 1) >>> level) & MASK;
+        PersistentVector.Node child;
+        if (level == BITS) {
+            child = tailNode;
+        } else {
+            PersistentVector.Node existing = (PersistentVector.Node) editable.array[slot];
+            child = existing != null
+                    ? pushTail(level - BITS, existing, tailNode)
+                    : PersistentVector.newPath(edit, level - BITS, tailNode);
+        }
+        editable.array[slot] = child;
+        return editable;
+    }
+
+    TransientVector<T> pop() {
+        ensureEditable();
+        if (size == 0) {
+            throw new IllegalStateException("Can't pop empty vector");
+        }
+        if (size == 1 || ((size - 1) & MASK) > 0) {
+            size--;
+            tail[size & MASK] = null;
+            return this;
+        }
+        Object[] newTail = Arrays.copyOf(arrayFor(size - 2), WIDTH);
+        PersistentVector.Node newRoot = popTail(shift, root);
+        if (newRoot == null) {
+            newRoot = new PersistentVector.Node(edit, new Object[WIDTH]);
+        }
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = ensureEditable((PersistentVector.Node) newRoot.array[0]);
+            shift -= BITS;
+        }
+        root = newRoot;
+        tail = newTail;
+        size--;
+        return this;
+    }
+
+    private PersistentVector.Node popTail(int level, PersistentVector.Node node) {
+        PersistentVector.Node editable = ensureEditable(node);
+        int slot = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            PersistentVector.Node child = popTail(level - BITS, (PersistentVector.Node) editable.array[slot]);
+            if (child == null && slot == 0) {
+                return null;
+            }
+            editable.array[slot] = child;
+            return editable;
+        }
+        if (slot == 0) {
+            return null;
+        }
+        editable.array[slot] = null;
+        return editable;
+    }
+
+    /** Seals this session and returns the result; the transient is unusable afterwards. */
+    PersistentVector<T> persistent() {
+        ensureEditable();
+        edit = null;
+        if (size == 0) {
+            return PersistentVector.empty();
+        }
+        Object[] trimmedTail = Arrays.copyOf(tail, size - tailOffset());
+        return new PersistentVector<>(size, shift, root, trimmedTail);
+    }
+}
@@ -0,0 +1,665 @@
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persistent hash map: the "hash map trie" behind `Map({ user: Map({...}) })` and
+ * `map.set('newKey', 'newValue')` in Immutable.js, using the CHAMP layout
+ * (Compressed Hash-Array Mapped Prefix-tree, Steindorfer and Vinju).
+ *
+ * Each node consumes 5 bits of the key's hash and keeps two bitmaps: `dataMap` marks slots that
+ * hold a key/value pair inline, `nodeMap` marks slots that hold a sub-node. The pairs are packed
+ * at the front of one array and the sub-nodes at the back, so:
+ *
+ * - iteration reads all entries of a node contiguously before descending, which is what makes it
+ *   faster than a plain HAMT where entries and sub-nodes are interleaved;
+ * - there are no empty slots and no per-entry wrapper objects, so it uses less memory;
+ * - deletion is canonical: a sub-node left with a single entry is folded back into its parent, so
+ *   the same set of keys always produces the same trie no matter the order of updates.
+ *
+ * For bulk loads, `asTransient()` / `withMutations(fn)` hand out a {@link TransientHashMap} whose
+ * edit session updates the nodes it owns in place.
+ */
+final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    static final int BITS = 5;
+    static final int MASK = (1 << BITS) - 1;
+    static final int HASH_LENGTH = 32;
+
+    static final Object NOT_FOUND = new Object();
+
+    /** Tracks what an update did, so the map can adjust its size without a second lookup. */
+    static final class Change {
+        boolean modified;
+        boolean replaced;
+        Object oldValue;
+    }
+
+    abstract static class Node {
+        static final int SIZE_EMPTY = 0;
+        static final int SIZE_ONE = 1;
+        static final int SIZE_MORE = 2;
+
+        abstract Object find(Object key, int hash, int shift);
+
+        /** {@code edit} is the transient session token, or null for a persistent update. */
+        abstract Node updated(Object edit, Object key, Object value, int hash, int shift, Change change);
+
+        abstract Node removed(Object edit, Object key, int hash, int shift, Change change);
+
+        /** Whether this node holds no entries, exactly one inline entry, or more. */
+        abstract int sizePredicate();
+
+        abstract int payloadArity();
+
+        abstract Object keyAt(int i);
+
+        abstract Object valueAt(int i);
+
+        abstract int nodeArity();
+
+        abstract Node nodeAt(int i);
+    }
+
+    static int mask(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    static int bitpos(int mask) {
+        return 1 << mask;
+    }
+
+    /** True if a node stamped {@code nodeEdit} belongs to the live transient session {@code edit}. */
+    static boolean isOwned(Object nodeEdit, Object edit) {
+        return edit != null && nodeEdit == edit;
+    }
+
+    /** Fields are only reassigned in place by the transient session that owns the node. */
+    static final class BitmapNode extends Node {
+        final Object edit;
+        int dataMap;
+        int nodeMap;
+        /** Key/value pairs from the front, sub-nodes from the back in reverse order. */
+        Object[] content;
+
+        BitmapNode(Object edit, int dataMap, int nodeMap, Object[] content) {
+            this.edit = edit;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private Node with(Object edit, int dataMap, int nodeMap, Object[] content) {
+            if (isOwned(this.edit, edit)) {
+                this.dataMap = dataMap;
+                this.nodeMap = nodeMap;
+                this.content = content;
+                return this;
+            }
+            return new BitmapNode(edit, dataMap, nodeMap, content);
+        }
+
+        int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        int nodeIndex(int bit) {
+            return Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int bit = bitpos(mask(hash, shift));
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                return Objects.equals(key, content[2 * idx]) ? content[2 * idx + 1] : NOT_FOUND;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(nodeIndex(bit)).find(key, hash, shift + BITS);
+            }
+            return NOT_FOUND;
+        }
+
+        @Override
+        Node updated(Object edit, Object key, Object value, int hash, int shift, Change change) {
+            int bit = bitpos(mask(hash, shift));
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                Object existingKey = content[2 * idx];
+                if (Objects.equals(key, existingKey)) {
+                    Object existingValue = content[2 * idx + 1];
+                    change.replaced = true;
+                    change.oldValue = existingValue;
+                    if (existingValue == value) {
+                        return this;
+                    }
+                    if (isOwned(this.edit, edit)) {
+                        content[2 * idx + 1] = value;
+                        return this;
+                    }
+                    Object[] array = content.clone();
+                    array[2 * idx + 1] = value;
+                    return new BitmapNode(edit, dataMap, nodeMap, array);
+                }
+                Object existingValue = content[2 * idx + 1];
+                Node sub = mergeTwoPairs(edit, existingKey, existingValue, Objects.hashCode(existingKey),
+                        key, value, hash, shift + BITS);
+                change.modified = true;
+                return copyAndMigrateFromInlineToNode(edit, bit, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                Node sub = nodeAt(nodeIndex(bit));
+                Node newSub = sub.updated(edit, key, value, hash, shift + BITS, change);
+                return newSub == sub ? this : copyAndSetNode(edit, bit, newSub);
+            }
+            change.modified = true;
+            return copyAndInsertValue(edit, bit, key, value);
+        }
+
+        @Override
+        Node removed(Object edit, Object key, int hash, int shift, Change change) {
+            int bit = bitpos(mask(hash, shift));
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (!Objects.equals(key, content[2 * idx])) {
+                    return this;
+                }
+                change.modified = true;
+                change.oldValue = content[2 * idx + 1];
+                if (Integer.bitCount(dataMap) == 2 && nodeMap == 0) {
+                    // The surviving pair will be inlined by the parent; below the root its bit
+                    // is recomputed for level 0 so it is also correct if it bubbles up to the root.
+                    int newDataMap = shift == 0 ? dataMap ^ bit : bitpos(mask(hash, 0));
+                    int keep = idx == 0 ? 1 : 0;
+                    return new BitmapNode(edit, newDataMap, 0,
+                            new Object[] {content[2 * keep], content[2 * keep + 1]});
+                }
+                return copyAndRemoveValue(edit, bit);
+            }
+            if ((nodeMap & bit) != 0) {
+                Node sub = nodeAt(nodeIndex(bit));
+                Node newSub = sub.removed(edit, key, hash, shift + BITS, change);
+                if (newSub == sub) {
+                    return this;
+                }
+                if (newSub.sizePredicate() == SIZE_ONE) {
+                    if (dataMap == 0 && Integer.bitCount(nodeMap) == 1) {
+                        // Escalate: this node would only hold the single-entry sub-node.
+                        return newSub;
+                    }
+                    return copyAndMigrateFromNodeToInline(edit, bit, newSub);
+                }
+                return copyAndSetNode(edit, bit, newSub);
+            }
+            return this;
+        }
+
+        @Override
+        int sizePredicate() {
+            if (nodeMap != 0) {
+                return SIZE_MORE;
+            }
+            int arity = Integer.bitCount(dataMap);
+            return arity == 0 ? SIZE_EMPTY : arity == 1 ? SIZE_ONE : SIZE_MORE;
+        }
+
+        @Override
+        int payloadArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        Object keyAt(int i) {
+            return content[2 * i];
+        }
+
+        @Override
+        Object valueAt(int i) {
+            return content[2 * i + 1];
+        }
+
+        @Override
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        Node nodeAt(int i) {
+            return (Node) content[content.length - 1 - i];
+        }
+
+        private Node copyAndSetNode(Object edit, int bit, Node node) {
+            if (isOwned(this.edit, edit)) {
+                content[content.length - 1 - nodeIndex(bit)] = node;
+                return this;
+            }
+            Object[] array = content.clone();
+            array[content.length - 1 - nodeIndex(bit)] = node;
+            return new BitmapNode(edit, dataMap, nodeMap, array);
+        }
+
+        private Node copyAndInsertValue(Object edit, int bit, Object key, Object value) {
+            int at = 2 * dataIndex(bit);
+            Object[] array = new Object[content.length + 2];
+            System.arraycopy(content, 0, array, 0, at);
+            array[at] = key;
+            array[at + 1] = value;
+            System.arraycopy(content, at, array, at + 2, content.length - at);
+            return with(edit, dataMap | bit, nodeMap, array);
+        }
+
+        private Node copyAndRemoveValue(Object edit, int bit) {
+            int at = 2 * dataIndex(bit);
+            Object[] array = new Object[content.length - 2];
+            System.arraycopy(content, 0, array, 0, at);
+            System.arraycopy(content, at + 2, array, at, content.length - at - 2);
+            return with(edit, dataMap ^ bit, nodeMap, array);
+        }
+
+        private Node copyAndMigrateFromInlineToNode(Object edit, int bit, Node node) {
+            int oldAt = 2 * dataIndex(bit);
+            int newAt = content.length - 2 - nodeIndex(bit);
+            Object[] array = new Object[content.length - 1];
+            System.arraycopy(content, 0, array, 0, oldAt);
+            System.arraycopy(content, oldAt + 2, array, oldAt, newAt - oldAt);
+            array[newAt] = node;
+            System.arraycopy(content, newAt + 2, array, newAt + 1, content.length - newAt - 2);
+            return with(edit, dataMap ^ bit, nodeMap | bit, array);
+        }
+
+        private Node copyAndMigrateFromNodeToInline(Object edit, int bit, Node node) {
+            int oldAt = content.length - 1 - nodeIndex(bit);
+            int newAt = 2 * dataIndex(bit);
+            Object[] array = new Object[content.length + 1];
+            System.arraycopy(content, 0, array, 0, newAt);
+            array[newAt] = node.keyAt(0);
+            array[newAt + 1] = node.valueAt(0);
+            System.arraycopy(content, newAt, array, newAt + 2, oldAt - newAt);
+            System.arraycopy(content, oldAt + 1, array, oldAt + 2, content.length - oldAt - 1);
+            return with(edit, dataMap | bit, nodeMap ^ bit, array);
+        }
+    }
+
+    static Node mergeTwoPairs(Object edit, Object key0, Object value0, int hash0,
+                              Object key1, Object value1, int hash1, int shift) {
+        if (shift >= HASH_LENGTH) {
+            return new CollisionNode(edit, hash0, new Object[] {key0, value0, key1, value1});
+        }
+        int mask0 = mask(hash0, shift);
+        int mask1 = mask(hash1, shift);
+        if (mask0 != mask1) {
+            int dataMap = bitpos(mask0) | bitpos(mask1);
+            return mask0 < mask1
+                    ? new BitmapNode(edit, dataMap, 0, new Object[] {key0, value0, key1, value1})
+                    : new BitmapNode(edit, dataMap, 0, new Object[] {key1, value1, key0, value0});
+        }
+        Node sub = mergeTwoPairs(edit, key0, value0, hash0, key1, value1, hash1, shift + BITS);
+        return new BitmapNode(edit, 0, bitpos(mask0), new Object[] {sub});
+    }
+
+    /** Keys whose full 32-bit hashes collide, kept as a flat list of pairs. */
+    static final class CollisionNode extends Node {
+        final Object edit;
+        final int hash;
+        Object[] content;
+
+        CollisionNode(Object edit, int hash, Object[] content) {
+            this.edit = edit;
+            this.hash = hash;
+            this.content = content;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (Objects.equals(key, content[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : content[i + 1];
+        }
+
+        @Override
+        Node updated(Object edit, Object key, Object value, int hash, int shift, Change change) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                change.replaced = true;
+                change.oldValue = content[i + 1];
+                if (content[i + 1] == value) {
+                    return this;
+                }
+                if (isOwned(this.edit, edit)) {
+                    content[i + 1] = value;
+                    return this;
+                }
+                Object[] array = content.clone();
+                array[i + 1] = value;
+                return new CollisionNode(edit, this.hash, array);
+            }
+            Object[] array = new Object[content.length + 2];
+            System.arraycopy(content, 0, array, 0, content.length);
+            array[content.length] = key;
+            array[content.length + 1] = value;
+            change.modified = true;
+            return with(edit, array);
+        }
+
+        private Node with(Object edit, Object[] content) {
+            if (isOwned(this.edit, edit)) {
+                this.content = content;
+                return this;
+            }
+            return new CollisionNode(edit, this.hash, content);
+        }
+
+        @Override
+        Node removed(Object edit, Object key, int hash, int shift, Change change) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            change.modified = true;
+            change.oldValue = content[i + 1];
+            if (content.length == 4) {
+                int keep = i == 0 ? 2 : 0;
+                return new BitmapNode(edit, bitpos(mask(hash, 0)), 0, new Object[] {content[keep], content[keep + 1]});
+            }
+            Object[] array = new Object[content.length - 2];
+            System.arraycopy(content, 0, array, 0, i);
+            System.arraycopy(content, i + 2, array, i, content.length - i - 2);
+            return with(edit, array);
+        }
+
+        @Override
+        int sizePredicate() {
+            return SIZE_MORE;
+        }
+
+        @Override
+        int payloadArity() {
+            return content.length / 2;
+        }
+
+        @Override
+        Object keyAt(int i) {
+            return content[2 * i];
+        }
+
+        @Override
+        Object valueAt(int i) {
+            return content[2 * i + 1];
+        }
+
+        @Override
+        int nodeArity() {
+            return 0;
+        }
+
+        @Override
+        Node nodeAt(int i) {
+            throw new IndexOutOfBoundsException(i);
+        }
+    }
+
+    static final Node EMPTY_NODE = new BitmapNode(null, 0, 0, new Object[0]);
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(EMPTY_NODE, 0);
+
+    final Node root;
+    final int size;
+
+    PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    static <K, V> PersistentHashMap<K, V> from(Map<? extends K, ? extends V> values) {
+        TransientHashMap<K, V> map = PersistentHashMap.<K, V>empty().asTransient();
+        for (Map.Entry<? extends K, ? extends V> e : values.entrySet()) {
+            map.set(e.getKey(), e.getValue());
+        }
+        return map.persistent();
+    }
+
+    TransientHashMap<K, V> asTransient() {
+        return new TransientHashMap<>(this);
+    }
+
+    /** Applies {@code fn} to a transient copy of this map and seals the result. */
+    PersistentHashMap<K, V> withMutations(Consumer<? super TransientHashMap<K, V>> fn) {
+        TransientHashMap<K, V> map = asTransient();
+        fn.accept(map);
+        return map.persistent();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean containsKey(Object key) {
+        return root.find(key, Objects.hashCode(key), 0) != NOT_FOUND;
+    }
+
+    V get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    V getOrDefault(Object key, V defaultValue) {
+        Object value = root.find(key, Objects.hashCode(key), 0);
+        return value == NOT_FOUND ? defaultValue : (V) value;
+    }
+
+    PersistentHashMap<K, V> set(K key, V value) {
+        Change change = new Change();
+        Node newRoot = root.updated(null, key, value, Objects.hashCode(key), 0, change);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, change.modified ? size + 1 : size);
+    }
+
+    PersistentHashMap<K, V> remove(Object key) {
+        Change change = new Change();
+        Node newRoot = root.removed(null, key, Objects.hashCode(key), 0, change);
+        if (!change.modified) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /** Visits every entry without allocating an entry object per pair. */
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, (BiConsumer<Object, Object>) action);
+    }
+
+    private static void forEach(Node node, BiConsumer<Object, Object> action) {
+        for (int i = 0, n = node.payloadArity(); i < n; i++) {
+            action.accept(node.keyAt(i), node.valueAt(i));
+        }
+        for (int i = 0, n = node.nodeArity(); i < n; i++) {
+            forEach(node.nodeAt(i), action);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(root);
+    }
+
+    /** Drains the inline pairs of one node, then moves on to its sub-nodes. */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final ArrayDeque<Node> pending = new ArrayDeque<>();
+        private Node current;
+        private int index;
+
+        EntryIterator(Node root) {
+            current = root;
+            pushChildren(root);
+        }
+
+        private void pushChildren(Node node) {
+            for (int i = node.nodeArity() - 1; i >= 0; i--) {
+                pending.push(node.nodeAt(i));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index >= current.payloadArity()) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                current = pending.pop();
+                index = 0;
+                pushChildren(current);
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = index++;
+            return new AbstractMap.SimpleImmutableEntry<>((K) current.keyAt(i), (V) current.valueAt(i));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PersistentHashMap)) {
+            return false;
+        }
+        PersistentHashMap<?, ?> other = (PersistentHashMap<?, ?>) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (Map.Entry<K, V> e : this) {
+            Object value = other.root.find(e.getKey(), Objects.hashCode(e.getKey()), 0);
+            if (value == NOT_FOUND || !Objects.equals(value, e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {0};
+        forEach((k, v) -> hash[0] += Objects.hashCode(k) ^ Objects.hashCode(v));
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+}
+
+/**
+ * Batch-mutation view of a {@link PersistentHashMap}. Nodes created by this session are updated in
+ * place; shared nodes are copied once, on first write. After {@link #persistent()} the transient
+ * can no longer be used.
+ *
+ * Not thread-safe: a transient belongs to the code that created it.
+ */
+final class TransientHashMap<K, V> {
+
+    private Object edit = new Object();
+    private PersistentHashMap.Node root;
+    private int size;
+    private final PersistentHashMap.Change change = new PersistentHashMap.Change();
+
+    TransientHashMap(PersistentHashMap<K, V> map) {
+        this.root = map.root;
+        this.size = map.size;
+    }
+
+    private void ensureEditable() {
+        if (edit == null) {
+            throw new IllegalStateException("Transient used after persistent() call");
+        }
+    }
+
+    private PersistentHashMap.Change resetChange() {
+        change.modified = false;
+        change.replaced = false;
+        change.oldValue = null;
+        return change;
+    }
+
+    int size() {
+        ensureEditable();
+        return size;
+    }
+
+    boolean containsKey(Object key) {
+        ensureEditable();
+        return root.find(key, Objects.hashCode(key), 0) != PersistentHashMap.NOT_FOUND;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        ensureEditable();
+        Object value = root.find(key, Objects.hashCode(key), 0);
+        return value == PersistentHashMap.NOT_FOUND ? null : (V) value;
+    }
+
+    TransientHashMap<K, V> set(K key, V value) {
+        ensureEditable();
+        root = root.updated(edit, key, value, Objects.hashCode(key), 0, resetChange());
+        if (change.modified) {
+            size++;
+        }
+        return this;
+    }
+
+    TransientHashMap<K, V> remove(Object key) {
+        ensureEditable();
+        root = root.removed(edit, key, Objects.hashCode(key), 0, resetChange());
+        if (change.modified) {
+            size--;
+        }
+        return this;
+    }
+
+    /** Seals this session and returns the result; the transient is unusable afterwards. */
+    PersistentHashMap<K, V> persistent() {
+        ensureEditable();
+        edit = null;
+        change.oldValue = null;
+        return size == 0 ? PersistentHashMap.empty() : new PersistentHashMap<>(root, size);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Persistent hash set: `Immutable.Set([1, 2, 3])` and `set.has(2)`, stored as a
+ * {@link PersistentHashMap} whose values are the elements themselves, so it shares the CHAMP
+ * layout, canonical deletion and transient support of the map.
+ */
+final class PersistentHashSet<E> implements Iterable<E> {
+
+    private static final PersistentHashSet<?> EMPTY = new PersistentHashSet<>(PersistentHashMap.empty());
+
+    final PersistentHashMap<E, E> map;
+
+    PersistentHashSet(PersistentHashMap<E, E> map) {
+        this.map = map;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> PersistentHashSet<E> empty() {
+        return (PersistentHashSet<E>) EMPTY;
+    }
+
+    @SafeVarargs
+    static <E> PersistentHashSet<E> of(E... values) {
+        TransientHashSet<E> set = PersistentHashSet.<E>empty().asTransient();
+        for (E value : values) {
+            set.add(value);
+        }
+        return set.persistent();
+    }
+
+    static <E> PersistentHashSet<E> from(Iterable<? extends E> values) {
+        TransientHashSet<E> set = PersistentHashSet.<E>empty().asTransient();
+        for (E value : values) {
+            set.add(value);
+        }
+        return set.persistent();
+    }
+
+    TransientHashSet<E> asTransient() {
+        return new TransientHashSet<>(map.asTransient());
+    }
+
+    /** Applies {@code fn} to a transient copy of this set and seals the result. */
+    PersistentHashSet<E> withMutations(Consumer<? super TransientHashSet<E>> fn) {
+        TransientHashSet<E> set = asTransient();
+        fn.accept(set);
+        return set.persistent();
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    boolean has(Object value) {
+        return map.containsKey(value);
+    }
+
+    PersistentHashSet<E> add(E value) {
+        PersistentHashMap<E, E> newMap = map.set(value, value);
+        return newMap == map ? this : new PersistentHashSet<>(newMap);
+    }
+
+    PersistentHashSet<E> remove(Object value) {
+        PersistentHashMap<E, E> newMap = map.remove(value);
+        return newMap == map ? this : new PersistentHashSet<>(newMap);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<Map.Entry<E, E>> entries = map.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        map.forEach((k, v) -> action.accept(k));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof PersistentHashSet && map.equals(((PersistentHashSet<?>) o).map);
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {0};
+        forEach(e -> hash[0] += e == null ? 0 : e.hashCode());
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        forEach(e -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(e);
+        });
+        return sb.append(']').toString();
+    }
+}
+
+/** Batch-mutation view of a {@link PersistentHashSet}, backed by a {@link TransientHashMap}. */
+final class TransientHashSet<E> {
+
+    private final TransientHashMap<E, E> map;
+
+    TransientHashSet(TransientHashMap<E, E> map) {
+        this.map = map;
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    boolean has(Object value) {
+        return map.containsKey(value);
+    }
+
+    TransientHashSet<E> add(E value) {
+        map.set(value, value);
+        return this;
+    }
+
+    TransientHashSet<E> remove(Object value) {
+        map.remove(value);
+        return this;
+    }
+
+    /** Seals this session and returns the result; the transient is unusable afterwards. */
+    PersistentHashSet<E> persistent() {
+        PersistentHashMap<E, E> result = map.persistent();
+        return result.isEmpty() ? PersistentHashSet.empty() : new PersistentHashSet<>(result);
+    }
+}
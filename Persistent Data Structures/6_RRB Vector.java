@@ -0,0 +1,618 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * RRB vector (Relaxed Radix Balanced tree, Bagwell and Rompf): a persistent vector for event logs
+ * that are constantly spliced, concatenated and sliced.
+ *
+ * A plain vector trie needs every node except the rightmost to be full, so `concat` or a slice
+ * from the middle has to rebuild the whole right-hand side in O(n). An RRB tree relaxes that rule:
+ * a branch may hold partly filled children, and then carries a size table (cumulative element
+ * counts per child) so lookups can still find the right child.
+ *
+ * - `get` / `set` use plain radix indexing in balanced branches and a short scan of the size
+ *   table in relaxed ones, so they stay O(log32 n) and close to {@link PersistentVector}.
+ * - `concat` only rebuilds the two spines where the trees meet, redistributing their children so
+ *   that no branch level has more than 2 nodes beyond the optimal count; that keeps it O(log n).
+ * - `slice`, `insert(i, x)` and `remove(i)` are built from O(log n) take/drop splits plus concat.
+ *
+ * There is no tail buffer, so for push-heavy workloads {@link PersistentVector} remains faster.
+ */
+final class RrbVector<T> implements Iterable<T> {
+
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+    /** Extra nodes per level tolerated by concat before it redistributes children. */
+    static final int EXTRAS = 2;
+
+    /**
+     * Branch node; children are branches one level down or, at height 1, {@code Object[]} leaves.
+     * {@code sizes} holds cumulative element counts per child, or is null when every child but
+     * the last is full and plain radix indexing applies.
+     */
+    static final class Branch {
+        final Object[] children;
+        final int[] sizes;
+
+        Branch(Object[] children, int[] sizes) {
+            this.children = children;
+            this.sizes = sizes;
+        }
+    }
+
+    private static final Object[] EMPTY_LEAF = new Object[0];
+    private static final RrbVector<?> EMPTY = new RrbVector<>(EMPTY_LEAF, 0, 0);
+
+    /** Either an {@code Object[]} leaf (height 0) or a {@link Branch}. */
+    final Object root;
+    final int height;
+    final int size;
+
+    RrbVector(Object root, int height, int size) {
+        this.root = root;
+        this.height = height;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> RrbVector<T> empty() {
+        return (RrbVector<T>) EMPTY;
+    }
+
+    @SafeVarargs
+    static <T> RrbVector<T> of(T... values) {
+        return fromArray(Arrays.copyOf(values, values.length, Object[].class));
+    }
+
+    static <T> RrbVector<T> from(Iterable<? extends T> values) {
+        List<Object> list = new ArrayList<>();
+        values.forEach(list::add);
+        return fromArray(list.toArray());
+    }
+
+    /** Builds a fully balanced tree bottom-up; takes ownership of {@code values}. */
+    private static <T> RrbVector<T> fromArray(Object[] values) {
+        if (values.length == 0) {
+            return empty();
+        }
+        int count = (values.length + MASK) >>> BITS;
+        Object[] level = new Object[count];
+        for (int i = 0; i < count; i++) {
+            level[i] = Arrays.copyOfRange(values, i << BITS, Math.min(values.length, (i + 1) << BITS));
+        }
+        int height = 0;
+        while (level.length > 1) {
+            height++;
+            Object[] parents = new Object[(level.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = new Branch(
+                        Arrays.copyOfRange(level, i << BITS, Math.min(level.length, (i + 1) << BITS)), null);
+            }
+            level = parents;
+        }
+        return new RrbVector<>(level[0], height, values.length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // -- Sizes and indexing --
+
+    /** Number of elements a full subtree of the given height holds, capped at int range. */
+    private static int capacity(int height) {
+        int shift = BITS * (height + 1);
+        return shift >= Integer.SIZE - 1 ? Integer.MAX_VALUE : 1 << shift;
+    }
+
+    /** {@code i >>> (BITS * height)}, without Java's wrap-around of large shift distances. */
+    private static int radix(int i, int height) {
+        int shift = BITS * height;
+        return shift >= Integer.SIZE ? 0 : i >>> shift;
+    }
+
+    static int sizeOf(Object node, int height) {
+        if (height == 0) {
+            return ((Object[]) node).length;
+        }
+        Branch branch = (Branch) node;
+        int n = branch.children.length;
+        if (branch.sizes != null) {
+            return branch.sizes[n - 1];
+        }
+        return (n - 1) * capacity(height - 1) + sizeOf(branch.children[n - 1], height - 1);
+    }
+
+    /** Creates a branch of the given height, adding a size table only if it is needed. */
+    static Branch branch(Object[] children, int height) {
+        int childCapacity = capacity(height - 1);
+        int[] sizes = new int[children.length];
+        boolean balanced = true;
+        int total = 0;
+        for (int i = 0; i < children.length; i++) {
+            int childSize = sizeOf(children[i], height - 1);
+            if (i < children.length - 1 && childSize != childCapacity) {
+                balanced = false;
+            }
+            total += childSize;
+            sizes[i] = total;
+        }
+        return new Branch(children, balanced ? null : sizes);
+    }
+
+    /** Index of the child of {@code branch} that holds element {@code i}. */
+    private static int childIndex(Branch branch, int height, int i) {
+        if (branch.sizes == null) {
+            return radix(i, height) & MASK;
+        }
+        // Each child holds at most 32^height elements, so the radix guess is a lower bound.
+        int idx = radix(i, height);
+        while (branch.sizes[idx] <= i) {
+            idx++;
+        }
+        return idx;
+    }
+
+    /** Number of elements held by children of {@code branch} before child {@code idx}. */
+    private static int offsetOf(Branch branch, int height, int idx) {
+        if (idx == 0) {
+            return 0;
+        }
+        return branch.sizes == null ? idx * capacity(height - 1) : branch.sizes[idx - 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int i) {
+        Objects.checkIndex(i, size);
+        Object node = root;
+        for (int h = height; h > 0; h--) {
+            Branch branch = (Branch) node;
+            int idx = childIndex(branch, h, i);
+            i -= offsetOf(branch, h, idx);
+            node = branch.children[idx];
+        }
+        return (T) ((Object[]) node)[i];
+    }
+
+    RrbVector<T> set(int i, T value) {
+        if (i == size) {
+            return push(value);
+        }
+        Objects.checkIndex(i, size);
+        return new RrbVector<>(doSet(root, height, i, value), height, size);
+    }
+
+    private static Object doSet(Object node, int height, int i, Object value) {
+        if (height == 0) {
+            Object[] leaf = ((Object[]) node).clone();
+            leaf[i] = value;
+            return leaf;
+        }
+        Branch branch = (Branch) node;
+        int idx = childIndex(branch, height, i);
+        Object[] children = branch.children.clone();
+        children[idx] = doSet(children[idx], height - 1, i - offsetOf(branch, height, idx), value);
+        return new Branch(children, branch.sizes);
+    }
+
+    // -- Append --
+
+    RrbVector<T> push(T value) {
+        if (size == 0) {
+            return new RrbVector<>(new Object[] {value}, 0, 1);
+        }
+        Object pushed = pushLast(root, height, value);
+        if (pushed != null) {
+            return new RrbVector<>(pushed, height, size + 1);
+        }
+        Object[] children = {root, newPath(height, value)};
+        return new RrbVector<>(branch(children, height + 1), height + 1, size + 1);
+    }
+
+    /** Appends along the rightmost spine, or returns null if that spine has no free slot. */
+    private static Object pushLast(Object node, int height, Object value) {
+        if (height == 0) {
+            Object[] leaf = (Object[]) node;
+            if (leaf.length == WIDTH) {
+                return null;
+            }
+            Object[] grown = Arrays.copyOf(leaf, leaf.length + 1);
+            grown[leaf.length] = value;
+            return grown;
+        }
+        Branch branch = (Branch) node;
+        int n = branch.children.length;
+        Object last = pushLast(branch.children[n - 1], height - 1, value);
+        if (last != null) {
+            Object[] children = branch.children.clone();
+            children[n - 1] = last;
+            int[] sizes = branch.sizes;
+            if (sizes != null) {
+                sizes = sizes.clone();
+                sizes[n - 1]++;
+            }
+            return new Branch(children, sizes);
+        }
+        if (n == WIDTH) {
+            return null;
+        }
+        Object[] children = Arrays.copyOf(branch.children, n + 1);
+        children[n] = newPath(height - 1, value);
+        return branch(children, height);
+    }
+
+    private static Object newPath(int height, Object value) {
+        Object node = new Object[] {value};
+        for (int h = 1; h <= height; h++) {
+            node = new Branch(new Object[] {node}, null);
+        }
+        return node;
+    }
+
+    RrbVector<T> pop() {
+        if (size == 0) {
+            throw new IllegalStateException("Can't pop empty vector");
+        }
+        return take(size - 1);
+    }
+
+    // -- Slicing --
+
+    /** The first {@code n} elements. */
+    RrbVector<T> take(int n) {
+        Objects.checkFromToIndex(0, n, size);
+        if (n == size) {
+            return this;
+        }
+        if (n == 0) {
+            return empty();
+        }
+        return normalized(takeNode(root, height, n), height, n);
+    }
+
+    /** Everything after the first {@code n} elements. */
+    RrbVector<T> drop(int n) {
+        Objects.checkFromToIndex(0, n, size);
+        if (n == 0) {
+            return this;
+        }
+        if (n == size) {
+            return empty();
+        }
+        return normalized(dropNode(root, height, n), height, size - n);
+    }
+
+    /** Elements {@code [from, to)}. */
+    RrbVector<T> slice(int from, int to) {
+        Objects.checkFromToIndex(from, to, size);
+        return take(to).drop(from);
+    }
+
+    private static Object takeNode(Object node, int height, int n) {
+        if (height == 0) {
+            return Arrays.copyOf((Object[]) node, n);
+        }
+        Branch branch = (Branch) node;
+        int idx = childIndex(branch, height, n - 1);
+        int local = n - offsetOf(branch, height, idx);
+        Object child = branch.children[idx];
+        Object[] children = Arrays.copyOf(branch.children, idx + 1);
+        if (local != sizeOf(child, height - 1)) {
+            children[idx] = takeNode(child, height - 1, local);
+        }
+        int[] sizes = branch.sizes == null ? null : Arrays.copyOf(branch.sizes, idx + 1);
+        if (sizes != null) {
+            sizes[idx] = n;
+        }
+        return new Branch(children, sizes);
+    }
+
+    private static Object dropNode(Object node, int height, int n) {
+        if (height == 0) {
+            Object[] leaf = (Object[]) node;
+            return Arrays.copyOfRange(leaf, n, leaf.length);
+        }
+        Branch branch = (Branch) node;
+        int idx = childIndex(branch, height, n);
+        int local = n - offsetOf(branch, height, idx);
+        Object[] children = Arrays.copyOfRange(branch.children, idx, branch.children.length);
+        if (local > 0) {
+            children[0] = dropNode(children[0], height - 1, local);
+        }
+        return branch(children, height);
+    }
+
+    /** Strips single-child branches off the top of a tree. */
+    private static <T> RrbVector<T> normalized(Object root, int height, int size) {
+        while (height > 0 && ((Branch) root).children.length == 1) {
+            root = ((Branch) root).children[0];
+            height--;
+        }
+        return new RrbVector<>(root, height, size);
+    }
+
+    // -- Concatenation --
+
+    RrbVector<T> concat(RrbVector<? extends T> other) {
+        if (other.size == 0) {
+            return this;
+        }
+        if (size == 0) {
+            @SuppressWarnings("unchecked")
+            RrbVector<T> result = (RrbVector<T>) other;
+            return result;
+        }
+        Object[] merged = merge(root, height, other.root, other.height);
+        int mergedHeight = Math.max(height, other.height);
+        if (merged.length == 1) {
+            return normalized(merged[0], mergedHeight, size + other.size);
+        }
+        return normalized(branch(merged, mergedHeight + 1), mergedHeight + 1, size + other.size);
+    }
+
+    /**
+     * Concatenates two subtrees into one or two nodes of height {@code max(hl, hr)}, descending
+     * along the right spine of {@code left} and the left spine of {@code right} and rebalancing
+     * every level on the way back up.
+     */
+    private static Object[] merge(Object left, int hl, Object right, int hr) {
+        if (hl > hr) {
+            Branch l = (Branch) left;
+            Object[] mid = merge(l.children[l.children.length - 1], hl - 1, right, hr);
+            return rebalance(concat3(l.children, 0, l.children.length - 1, mid, EMPTY_LEAF, 0, 0), hl - 1);
+        }
+        if (hl < hr) {
+            Branch r = (Branch) right;
+            Object[] mid = merge(left, hl, r.children[0], hr - 1);
+            return rebalance(concat3(EMPTY_LEAF, 0, 0, mid, r.children, 1, r.children.length), hr - 1);
+        }
+        if (hl == 0) {
+            Object[] l = (Object[]) left;
+            Object[] r = (Object[]) right;
+            if (l.length + r.length <= WIDTH) {
+                Object[] leaf = Arrays.copyOf(l, l.length + r.length);
+                System.arraycopy(r, 0, leaf, l.length, r.length);
+                return new Object[] {leaf};
+            }
+            return new Object[] {left, right};
+        }
+        Branch l = (Branch) left;
+        Branch r = (Branch) right;
+        Object[] mid = merge(l.children[l.children.length - 1], hl - 1, r.children[0], hr - 1);
+        return rebalance(concat3(l.children, 0, l.children.length - 1, mid, r.children, 1, r.children.length), hl - 1);
+    }
+
+    private static Object[] concat3(Object[] a, int aFrom, int aTo, Object[] b, Object[] c, int cFrom, int cTo) {
+        Object[] out = new Object[(aTo - aFrom) + b.length + (cTo - cFrom)];
+        System.arraycopy(a, aFrom, out, 0, aTo - aFrom);
+        System.arraycopy(b, 0, out, aTo - aFrom, b.length);
+        System.arraycopy(c, cFrom, out, aTo - aFrom + b.length, cTo - cFrom);
+        return out;
+    }
+
+    private static int slotCount(Object node, int height) {
+        return height == 0 ? ((Object[]) node).length : ((Branch) node).children.length;
+    }
+
+    private static Object slotAt(Object node, int height, int i) {
+        return height == 0 ? ((Object[]) node)[i] : ((Branch) node).children[i];
+    }
+
+    /**
+     * Redistributes the slots of {@code nodes} (all of height {@code h}) so there are at most
+     * {@link #EXTRAS} more nodes than the optimal count, then packs them under one or two
+     * parents of height {@code h + 1}.
+     */
+    private static Object[] rebalance(Object[] nodes, int h) {
+        int n = nodes.length;
+        int[] plan = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            plan[i] = slotCount(nodes[i], h);
+            total += plan[i];
+        }
+        int optimal = (total + MASK) >>> BITS;
+        int planned = n;
+        int i = 0;
+        while (planned > optimal + EXTRAS) {
+            // Skip nodes that are (nearly) full, then spread the first sparse node's slots
+            // over the nodes that follow it.
+            while (plan[i] > WIDTH - EXTRAS / 2) {
+                i++;
+            }
+            int remaining = plan[i];
+            do {
+                int filled = Math.min(remaining + plan[i + 1], WIDTH);
+                remaining = remaining + plan[i + 1] - filled;
+                plan[i] = filled;
+                i++;
+            } while (remaining > 0);
+            System.arraycopy(plan, i + 1, plan, i, planned - i - 1);
+            planned--;
+            i--;
+        }
+
+        Object[] rebalanced = new Object[planned];
+        int src = 0;
+        int srcOffset = 0;
+        for (int k = 0; k < planned; k++) {
+            int want = plan[k];
+            if (srcOffset == 0 && slotCount(nodes[src], h) == want) {
+                rebalanced[k] = nodes[src++];
+                continue;
+            }
+            Object[] slots = new Object[want];
+            int filled = 0;
+            while (filled < want) {
+                int available = slotCount(nodes[src], h) - srcOffset;
+                int copy = Math.min(available, want - filled);
+                for (int j = 0; j < copy; j++) {
+                    slots[filled + j] = slotAt(nodes[src], h, srcOffset + j);
+                }
+                filled += copy;
+                srcOffset += copy;
+                if (srcOffset == slotCount(nodes[src], h)) {
+                    src++;
+                    srcOffset = 0;
+                }
+            }
+            rebalanced[k] = h == 0 ? slots : branch(slots, h);
+        }
+
+        if (planned <= WIDTH) {
+            return new Object[] {branch(rebalanced, h + 1)};
+        }
+        return new Object[] {
+            branch(Arrays.copyOf(rebalanced, WIDTH), h + 1),
+            branch(Arrays.copyOfRange(rebalanced, WIDTH, planned), h + 1)
+        };
+    }
+
+    // -- Splicing --
+
+    /** Inserts {@code value} before index {@code i}; {@code i == size()} appends. */
+    RrbVector<T> insert(int i, T value) {
+        Objects.checkIndex(i, size + 1);
+        if (i == size) {
+            return push(value);
+        }
+        return take(i).push(value).concat(drop(i));
+    }
+
+    RrbVector<T> remove(int i) {
+        Objects.checkIndex(i, size);
+        return take(i).concat(drop(i + 1));
+    }
+
+    // -- Iteration --
+
+    /** Walks leaves left to right with an explicit stack, so each step is an array read. */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private final Branch[] branches = new Branch[height];
+            private final int[] positions = new int[height];
+            private Object[] leaf;
+            private int index;
+            private int remaining = size;
+
+            {
+                if (size > 0) {
+                    descend(root, height);
+                }
+            }
+
+            private void descend(Object node, int h) {
+                while (h > 0) {
+                    Branch branch = (Branch) node;
+                    branches[h - 1] = branch;
+                    positions[h - 1] = 0;
+                    node = branch.children[0];
+                    h--;
+                }
+                leaf = (Object[]) node;
+                index = 0;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                if (index == leaf.length) {
+                    int h = 0;
+                    while (positions[h] == branches[h].children.length - 1) {
+                        h++;
+                    }
+                    positions[h]++;
+                    descend(branches[h].children[positions[h]], h);
+                }
+                remaining--;
+                return (T) leaf[index++];
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        forEach(root, height, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void forEach(Object node, int height, Consumer<? super T> action) {
+        if (height == 0) {
+            for (Object value : (Object[]) node) {
+                action.accept((T) value);
+            }
+            return;
+        }
+        for (Object child : ((Branch) node).children) {
+            forEach(child, height - 1, action);
+        }
+    }
+
+    Object[] toArray() {
+        Object[] out = new Object[size];
+        int[] at = {0};
+        forEach(value -> out[at[0]++] = value);
+        return out;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RrbVector)) {
+            return false;
+        }
+        RrbVector<?> other = (RrbVector<?>) o;
+        if (size != other.size) {
+            return false;
+        }
+        Iterator<?> it = other.iterator();
+        for (T value : this) {
+            if (!Objects.equals(value, it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (T value : this) {
+            hash = 31 * hash + Objects.hashCode(value);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (T value : this) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.append(']').toString();
+    }
+}
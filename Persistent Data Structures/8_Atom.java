@@ -0,0 +1,215 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Atom: a thread-safe cell holding an immutable value, the multi-threaded version of the
+ * `createCounter` closure from the notes.
+ *
+ * `createCounter` mutates a captured `count`, so two threads calling it at once can lose an
+ * update. An atom instead holds a persistent value (a number, a {@link PersistentHashMap} state
+ * tree, ...) and `swap(fn)` computes the next value from the current one, publishing it with a
+ * compare-and-set. If another thread won the race, `fn` simply runs again on the newer value:
+ * no locks, and readers never block. This is only correct because `fn` is a pure function of
+ * its input and the value is never mutated in place.
+ *
+ * ```java
+ * Atom<Integer> counter = new Atom<>(0);
+ * counter.swap(count -> count + 1); // 1
+ * counter.swap(count -> count + 1); // 2
+ * ```
+ */
+final class Atom<T> {
+
+    /** Called after every successful change, on the thread that made it. */
+    interface Watcher<T> {
+        void changed(Object key, Atom<T> atom, T oldValue, T newValue);
+    }
+
+    private final AtomicReference<T> state;
+    private final AtomicReference<PersistentHashMap<Object, Watcher<T>>> watchers =
+            new AtomicReference<>(PersistentHashMap.empty());
+
+    Atom(T initialValue) {
+        this.state = new AtomicReference<>(initialValue);
+    }
+
+    T deref() {
+        return state.get();
+    }
+
+    /** Replaces the value unconditionally and returns the new value. */
+    T reset(T newValue) {
+        T oldValue = state.getAndSet(newValue);
+        notifyWatchers(oldValue, newValue);
+        return newValue;
+    }
+
+    /** Sets the value if the current one is (by identity) {@code expected}. */
+    boolean compareAndSet(T expected, T newValue) {
+        if (!state.compareAndSet(expected, newValue)) {
+            return false;
+        }
+        notifyWatchers(expected, newValue);
+        return true;
+    }
+
+    /** Atomically applies {@code fn} to the current value and returns the new value. */
+    T swap(UnaryOperator<T> fn) {
+        Backoff backoff = null;
+        while (true) {
+            T oldValue = state.get();
+            T newValue = fn.apply(oldValue);
+            if (state.compareAndSet(oldValue, newValue)) {
+                notifyWatchers(oldValue, newValue);
+                return newValue;
+            }
+            if (backoff == null) {
+                backoff = new Backoff();
+            }
+            backoff.pause();
+        }
+    }
+
+    /** Like {@link #swap} but returns the value that was replaced. */
+    T getAndSwap(UnaryOperator<T> fn) {
+        Backoff backoff = null;
+        while (true) {
+            T oldValue = state.get();
+            T newValue = fn.apply(oldValue);
+            if (state.compareAndSet(oldValue, newValue)) {
+                notifyWatchers(oldValue, newValue);
+                return oldValue;
+            }
+            if (backoff == null) {
+                backoff = new Backoff();
+            }
+            backoff.pause();
+        }
+    }
+
+    Atom<T> addWatch(Object key, Watcher<T> watcher) {
+        watchers.updateAndGet(w -> w.set(key, watcher));
+        return this;
+    }
+
+    Atom<T> removeWatch(Object key) {
+        watchers.updateAndGet(w -> w.remove(key));
+        return this;
+    }
+
+    private void notifyWatchers(T oldValue, T newValue) {
+        PersistentHashMap<Object, Watcher<T>> current = watchers.get();
+        if (!current.isEmpty()) {
+            current.forEach((key, watcher) -> watcher.changed(key, this, oldValue, newValue));
+        }
+    }
+
+    /**
+     * Contention-aware backoff for a failed compare-and-set: a few spins first (the winner is
+     * usually done within nanoseconds), then yields, then randomized exponential parking so a
+     * crowd of losers does not retry in lockstep.
+     */
+    static final class Backoff {
+        private static final int SPIN_LIMIT = 6;
+        private static final int YIELD_LIMIT = 10;
+        private static final long MAX_PARK_NANOS = 1_000_000;
+
+        private int failures;
+
+        void pause() {
+            failures++;
+            if (failures <= SPIN_LIMIT) {
+                for (int i = 1 << failures; i > 0; i--) {
+                    Thread.onSpinWait();
+                }
+            } else if (failures <= YIELD_LIMIT) {
+                Thread.yield();
+            } else {
+                long ceiling = Math.min(MAX_PARK_NANOS, 1_000L << Math.min(failures - YIELD_LIMIT, 10));
+                LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+            }
+        }
+    }
+}
+
+/**
+ * Striped atom for commutative updates such as counters or set unions. Instead of every thread
+ * fighting over one cell, each thread updates one of several stripes, moving to another stripe
+ * when it hits contention (as {@code LongAdder} does). {@link #deref()} folds the stripes together.
+ *
+ * Only correct when updates commute and {@code combine} is associative and commutative with
+ * {@code identity} as its neutral element; e.g. {@code new StripedAtom<>(0L, Long::sum)} with
+ * {@code update(n -> n + 1)}.
+ */
+final class StripedAtom<T> {
+
+    /** Cells are spaced 16 references apart so neighbouring stripes do not share a cache line. */
+    private static final int PADDING = 16;
+
+    private final T identity;
+    private final BinaryOperator<T> combine;
+    private final int stripes;
+    private final AtomicReferenceArray<T> cells;
+
+    StripedAtom(T identity, BinaryOperator<T> combine) {
+        this(identity, combine, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1));
+    }
+
+    StripedAtom(T identity, BinaryOperator<T> combine, int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a power of two: " + stripes);
+        }
+        this.identity = identity;
+        this.combine = combine;
+        this.stripes = stripes;
+        this.cells = new AtomicReferenceArray<>(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PADDING, identity);
+        }
+    }
+
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+    }
+
+    /** Applies a commutative update to this thread's stripe. */
+    void update(UnaryOperator<T> fn) {
+        int h = probe();
+        Atom.Backoff backoff = null;
+        for (int attempt = 0; ; attempt++) {
+            int slot = (h & (stripes - 1)) * PADDING;
+            T oldValue = cells.get(slot);
+            if (cells.compareAndSet(slot, oldValue, fn.apply(oldValue))) {
+                return;
+            }
+            if (attempt < stripes) {
+                // Contended: try a different stripe before backing off.
+                h ^= h << 13;
+                h ^= h >>> 17;
+                h ^= h << 5;
+            } else {
+                if (backoff == null) {
+                    backoff = new Atom.Backoff();
+                }
+                backoff.pause();
+            }
+        }
+    }
+
+    /**
+     * Combined value of all stripes. Not an atomic snapshot: updates racing with this call may or
+     * may not be included, as with {@code LongAdder.sum()}.
+     */
+    T deref() {
+        T result = identity;
+        for (int i = 0; i < stripes; i++) {
+            result = combine.apply(result, cells.get(i * PADDING));
+        }
+        return result;
+    }
+}
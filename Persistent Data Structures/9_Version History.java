@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Bounded version history (undo log) for persistent collections.
+ *
+ * Persistent structures "always preserve the previous version", but nothing decides how many of
+ * those versions to keep. This history retains the last N versions and/or a byte budget, with
+ * O(1) undo/redo by moving a cursor, and evicts the oldest versions once a bound is exceeded.
+ *
+ * Because versions share most of their nodes, the memory of a version is not its full size. The
+ * history reference-counts the nodes reachable from retained versions: committing a version only
+ * visits nodes it does not share with a retained version, and evicting one only visits the nodes
+ * it frees, so both stay proportional to the size of the change. {@link #report()} breaks the
+ * total down into memory unique to each version and memory shared with others.
+ *
+ * Byte counts are estimates of the trie structure itself (node headers, references and arrays,
+ * assuming compressed oops), not of the element objects stored in it.
+ */
+final class VersionHistory<T> {
+
+    /** How the history sees the nodes of a version; the version object itself is the root node. */
+    interface MemoryModel {
+        /** Estimated shallow size of {@code node}, including arrays it owns exclusively. */
+        long bytes(Object node);
+
+        /** Nodes referenced by {@code node} that may be shared between versions. */
+        void children(Object node, Consumer<Object> out);
+    }
+
+    /** Model for the persistent collections in this folder; other objects count as small leaves. */
+    static final MemoryModel PERSISTENT_COLLECTIONS = new MemoryModel() {
+        @Override
+        public long bytes(Object node) {
+            if (node instanceof PersistentVector.Node) {
+                // Its array is a separate child: a popped vector reuses a leaf array as its tail.
+                return objectBytes(2);
+            }
+            if (node instanceof PersistentHashMap.BitmapNode) {
+                return objectBytes(4) + arrayBytes(((PersistentHashMap.BitmapNode) node).content.length);
+            }
+            if (node instanceof PersistentHashMap.CollisionNode) {
+                return objectBytes(3) + arrayBytes(((PersistentHashMap.CollisionNode) node).content.length);
+            }
+            if (node instanceof Object[]) {
+                return arrayBytes(((Object[]) node).length);
+            }
+            if (node instanceof PersistentVector) {
+                return objectBytes(4);
+            }
+            return objectBytes(2);
+        }
+
+        @Override
+        public void children(Object node, Consumer<Object> out) {
+            if (node instanceof PersistentVector) {
+                PersistentVector<?> vector = (PersistentVector<?>) node;
+                out.accept(vector.root);
+                out.accept(vector.tail);
+            } else if (node instanceof PersistentVector.Node) {
+                out.accept(((PersistentVector.Node) node).array);
+            } else if (node instanceof Object[]) {
+                for (Object child : (Object[]) node) {
+                    if (child instanceof PersistentVector.Node) {
+                        out.accept(child);
+                    }
+                }
+            } else if (node instanceof PersistentHashSet) {
+                out.accept(((PersistentHashSet<?>) node).map);
+            } else if (node instanceof PersistentHashMap) {
+                out.accept(((PersistentHashMap<?, ?>) node).root);
+            } else if (node instanceof PersistentHashMap.Node) {
+                PersistentHashMap.Node mapNode = (PersistentHashMap.Node) node;
+                for (int i = 0, n = mapNode.nodeArity(); i < n; i++) {
+                    out.accept(mapNode.nodeAt(i));
+                }
+            }
+        }
+    };
+
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    static long objectBytes(int fields) {
+        return align(HEADER + (long) REFERENCE * fields);
+    }
+
+    static long arrayBytes(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /** Memory of one retained version, as reported by {@link #report()}. */
+    static final class VersionStats {
+        /** 0 is the oldest retained version. */
+        final int index;
+        final boolean current;
+        /** Bytes that would be freed if only this version were dropped. */
+        final long uniqueBytes;
+        /** Bytes reachable from this version that other retained versions also use. */
+        final long sharedBytes;
+
+        VersionStats(int index, boolean current, long uniqueBytes, long sharedBytes) {
+            this.index = index;
+            this.current = current;
+            this.uniqueBytes = uniqueBytes;
+            this.sharedBytes = sharedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "v" + index + (current ? "*" : "") + " unique=" + uniqueBytes + " shared=" + sharedBytes;
+        }
+    }
+
+    private final MemoryModel model;
+    private final int maxVersions;
+    private final long maxBytes;
+
+    /** Ring buffer of retained versions, oldest at {@code head}. */
+    private Object[] versions = new Object[16];
+    private int head;
+    private int count;
+    /** Offset from {@code head} of the current version; versions after it can be redone. */
+    private int cursor;
+
+    private final IdentityHashMap<Object, Integer> refCounts = new IdentityHashMap<>();
+    private long retainedBytes;
+    private long evictions;
+
+    VersionHistory(T initial, int maxVersions, long maxBytes) {
+        this(initial, PERSISTENT_COLLECTIONS, maxVersions, maxBytes);
+    }
+
+    VersionHistory(T initial, MemoryModel model, int maxVersions, long maxBytes) {
+        if (maxVersions < 1) {
+            throw new IllegalArgumentException("maxVersions must be at least 1: " + maxVersions);
+        }
+        this.model = model;
+        this.maxVersions = maxVersions;
+        this.maxBytes = maxBytes;
+        versions[0] = initial;
+        count = 1;
+        retain(initial);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T at(int offset) {
+        return (T) versions[(head + offset) & (versions.length - 1)];
+    }
+
+    T current() {
+        return at(cursor);
+    }
+
+    int size() {
+        return count;
+    }
+
+    long retainedBytes() {
+        return retainedBytes;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    boolean canUndo() {
+        return cursor > 0;
+    }
+
+    boolean canRedo() {
+        return cursor < count - 1;
+    }
+
+    T undo() {
+        if (!canUndo()) {
+            throw new NoSuchElementException("Nothing to undo");
+        }
+        return at(--cursor);
+    }
+
+    T redo() {
+        if (!canRedo()) {
+            throw new NoSuchElementException("Nothing to redo");
+        }
+        return at(++cursor);
+    }
+
+    /**
+     * Makes {@code next} the current version, discarding any redo versions, then evicts the oldest
+     * versions until both bounds hold. The current version itself is never evicted.
+     */
+    T commit(T next) {
+        while (count - 1 > cursor) {
+            int slot = (head + count - 1) & (versions.length - 1);
+            release(versions[slot]);
+            versions[slot] = null;
+            count--;
+        }
+        if (count == versions.length) {
+            grow();
+        }
+        versions[(head + count) & (versions.length - 1)] = next;
+        count++;
+        cursor = count - 1;
+        retain(next);
+        while (count > 1 && (count > maxVersions || retainedBytes > maxBytes)) {
+            release(versions[head]);
+            versions[head] = null;
+            head = (head + 1) & (versions.length - 1);
+            count--;
+            cursor--;
+            evictions++;
+        }
+        return next;
+    }
+
+    private void grow() {
+        Object[] bigger = new Object[versions.length * 2];
+        for (int i = 0; i < count; i++) {
+            bigger[i] = versions[(head + i) & (versions.length - 1)];
+        }
+        versions = bigger;
+        head = 0;
+    }
+
+    private void retain(Object node) {
+        Integer refs = refCounts.get(node);
+        if (refs != null) {
+            refCounts.put(node, refs + 1);
+            return;
+        }
+        refCounts.put(node, 1);
+        retainedBytes += model.bytes(node);
+        model.children(node, this::retain);
+    }
+
+    private void release(Object node) {
+        int refs = refCounts.get(node);
+        if (refs > 1) {
+            refCounts.put(node, refs - 1);
+            return;
+        }
+        refCounts.remove(node);
+        retainedBytes -= model.bytes(node);
+        model.children(node, this::release);
+    }
+
+    /**
+     * Unique and shared memory per retained version, oldest first. This walks every retained
+     * node, so it is meant for diagnostics rather than the update path.
+     */
+    List<VersionStats> report() {
+        List<VersionStats> stats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Object version = at(i);
+            long reachable = reachableBytes(version, Collections.newSetFromMap(new IdentityHashMap<>()));
+            long unique = freedBytes(version, new IdentityHashMap<>());
+            stats.add(new VersionStats(i, i == cursor, unique, reachable - unique));
+        }
+        return stats;
+    }
+
+    private long reachableBytes(Object node, Set<Object> seen) {
+        if (!seen.add(node)) {
+            return 0;
+        }
+        long[] total = {model.bytes(node)};
+        model.children(node, child -> total[0] += reachableBytes(child, seen));
+        return total[0];
+    }
+
+    /** Bytes a release of {@code node} would free, without touching the real counts. */
+    private long freedBytes(Object node, Map<Object, Integer> pendingReleases) {
+        int released = pendingReleases.merge(node, 1, Integer::sum);
+        if (released < refCounts.get(node)) {
+            return 0;
+        }
+        long[] total = {model.bytes(node)};
+        model.children(node, child -> total[0] += freedBytes(child, pendingReleases));
+        return total[0];
+    }
+}
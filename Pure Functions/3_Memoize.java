@@ -0,0 +1,566 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Memoization for pure functions: the notes' claim that a pure function's result "can be cached",
+ * made concrete. A pure function returns the same output for the same input and has no side
+ * effects, so calling it once per key and reusing the result cannot change the program's meaning.
+ *
+ * ```java
+ * Memo.Memoized<Integer, Long> fib = Memo.memoizeRecursive(
+ *         (self, n) -> n < 2 ? (long) n : self.apply(n - 1) + self.apply(n - 2),
+ *         Memo.Policy.unbounded());
+ * fib.apply(90); // linear instead of exponential
+ * ```
+ *
+ * - **Exactly once per key.** The first caller installs a pending future and computes the value
+ *   outside any lock; concurrent callers for the same key wait on that future instead of
+ *   computing again. A failed computation is removed, so the next call retries.
+ * - **Recursive calls.** Because no lock is held while computing, the function may call its own
+ *   memoized version for other keys. A call that reaches the key it is already computing would
+ *   wait on itself forever, so it fails with an {@code IllegalStateException} instead.
+ * - **Policies.** Unbounded, LRU or W-TinyLFU, bounded by entry count or by a {@link Weigher},
+ *   optionally with a time-to-live measured from when the value was computed.
+ *
+ * Bookkeeping for bounded policies happens under a short lock. Recording a hit is skipped when
+ * that lock is contended, so reads never queue behind each other; the policy then sees a sample
+ * of the accesses, which is enough for recency and frequency estimates.
+ */
+final class Memo {
+
+    private Memo() {
+    }
+
+    /** Cost of an entry for weight-bounded policies. Must be non-negative. */
+    interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /** Which entries to keep; immutable, so one policy can configure many memoized functions. */
+    static final class Policy {
+        enum Kind { UNBOUNDED, LRU, TINY_LFU }
+
+        final Kind kind;
+        final long maximum;
+        final Weigher<?, ?> weigher;
+        final long ttlNanos;
+
+        private Policy(Kind kind, long maximum, Weigher<?, ?> weigher, long ttlNanos) {
+            if (maximum <= 0) {
+                throw new IllegalArgumentException("maximum must be positive: " + maximum);
+            }
+            this.kind = kind;
+            this.maximum = maximum;
+            this.weigher = weigher;
+            this.ttlNanos = ttlNanos;
+        }
+
+        static Policy unbounded() {
+            return new Policy(Kind.UNBOUNDED, Long.MAX_VALUE, null, 0);
+        }
+
+        /** Evicts the least recently used entry once more than {@code maximumSize} are cached. */
+        static Policy lru(long maximumSize) {
+            return new Policy(Kind.LRU, maximumSize, null, 0);
+        }
+
+        /**
+         * W-TinyLFU: new entries go through a small LRU window, then must beat the eviction
+         * candidate's estimated access frequency to stay. Keeps hit rates high under scans and
+         * one-off keys that would flush a plain LRU.
+         */
+        static Policy tinyLfu(long maximumSize) {
+            return new Policy(Kind.TINY_LFU, maximumSize, null, 0);
+        }
+
+        /** Same policy bounded by total weight: {@code maximum} becomes a weight budget. */
+        Policy weighedBy(Weigher<?, ?> weigher) {
+            if (kind == Kind.UNBOUNDED) {
+                throw new IllegalStateException("An unbounded policy has no weight budget");
+            }
+            return new Policy(kind, maximum, weigher, ttlNanos);
+        }
+
+        /** Entries expire {@code ttl} after their value was computed. */
+        Policy expireAfterWrite(Duration ttl) {
+            if (ttl.isNegative() || ttl.isZero()) {
+                throw new IllegalArgumentException("ttl must be positive: " + ttl);
+            }
+            return new Policy(kind, maximum, weigher, ttl.toNanos());
+        }
+    }
+
+    /** Counters since creation; {@code hits} includes callers that waited on an in-flight computation. */
+    static final class Stats {
+        final long hits;
+        final long misses;
+        final long evictions;
+        final long expirations;
+
+        Stats(long hits, long misses, long evictions, long expirations) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " evictions=" + evictions + " expirations=" + expirations;
+        }
+    }
+
+    static <K, V> Memoized<K, V> memoize(Function<? super K, ? extends V> fn, Policy policy) {
+        return new Memoized<>((self, key) -> fn.apply(key), policy);
+    }
+
+    /** Memoizes a recursive definition; {@code fn} receives the memoized function to recurse through. */
+    static <K, V> Memoized<K, V> memoizeRecursive(BiFunction<? super Function<K, V>, ? super K, ? extends V> fn,
+                                                  Policy policy) {
+        return new Memoized<>(fn, policy);
+    }
+
+    static final class Memoized<K, V> implements Function<K, V> {
+        private final BiFunction<? super Function<K, V>, ? super K, ? extends V> fn;
+        private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+        private final Eviction<K, V> eviction;
+        private final Weigher<? super K, ? super V> weigher;
+        private final long ttlNanos;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+
+        @SuppressWarnings("unchecked")
+        Memoized(BiFunction<? super Function<K, V>, ? super K, ? extends V> fn, Policy policy) {
+            this.fn = fn;
+            this.ttlNanos = policy.ttlNanos;
+            this.weigher = policy.weigher == null ? (k, v) -> 1 : (Weigher<? super K, ? super V>) policy.weigher;
+            switch (policy.kind) {
+                case LRU:
+                    eviction = new Lru<>(policy.maximum);
+                    break;
+                case TINY_LFU:
+                    eviction = new TinyLfu<>(policy.maximum);
+                    break;
+                default:
+                    eviction = null;
+            }
+        }
+
+        @Override
+        public V apply(K key) {
+            while (true) {
+                Node<K, V> node = map.get(key);
+                if (node == null) {
+                    Node<K, V> fresh = new Node<>(key);
+                    if (map.putIfAbsent(key, fresh) == null) {
+                        return compute(fresh);
+                    }
+                    continue;
+                }
+                if (!node.future.isDone()) {
+                    if (node.owner == Thread.currentThread()) {
+                        throw new IllegalStateException("Recursive memoized call for key " + key + " while computing it");
+                    }
+                    hits.increment();
+                    return await(node);
+                }
+                if (ttlNanos > 0 && System.nanoTime() - node.writeNanos >= ttlNanos) {
+                    Node<K, V> fresh = new Node<>(key);
+                    if (map.replace(key, node, fresh)) {
+                        expirations.increment();
+                        unlink(node);
+                        return compute(fresh);
+                    }
+                    continue;
+                }
+                hits.increment();
+                if (eviction != null && lock.tryLock()) {
+                    try {
+                        if (node.queue != Node.NONE) {
+                            eviction.access(node);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return await(node);
+            }
+        }
+
+        private V compute(Node<K, V> node) {
+            misses.increment();
+            V value;
+            try {
+                value = fn.apply(this, node.key);
+            } catch (RuntimeException | Error e) {
+                map.remove(node.key, node);
+                node.future.completeExceptionally(e);
+                node.owner = null;
+                throw e;
+            }
+            node.writeNanos = System.nanoTime();
+            node.future.complete(value);
+            node.owner = null;
+            if (eviction != null) {
+                List<Node<K, V>> evicted = new ArrayList<>(1);
+                lock.lock();
+                try {
+                    // Invalidated while computing: the caller still gets the value, but it is not cached.
+                    if (map.get(node.key) == node) {
+                        node.weight = weigher.weigh(node.key, value);
+                        eviction.add(node, evicted);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                for (Node<K, V> victim : evicted) {
+                    if (map.remove(victim.key, victim)) {
+                        evictions.increment();
+                    }
+                }
+            }
+            return value;
+        }
+
+        private static <V> V await(Node<?, V> node) {
+            try {
+                return node.future.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        private void unlink(Node<K, V> node) {
+            if (eviction == null) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (node.queue != Node.NONE) {
+                    eviction.remove(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Drops the cached value for {@code key}; an in-flight computation still completes for its callers. */
+        void invalidate(K key) {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        }
+
+        void invalidateAll() {
+            for (K key : map.keySet()) {
+                invalidate(key);
+            }
+        }
+
+        /** Removes expired entries now rather than when they are next requested. */
+        void cleanUp() {
+            if (ttlNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Map.Entry<K, Node<K, V>> e : map.entrySet()) {
+                Node<K, V> node = e.getValue();
+                if (node.future.isDone() && now - node.writeNanos >= ttlNanos && map.remove(e.getKey(), node)) {
+                    expirations.increment();
+                    unlink(node);
+                }
+            }
+        }
+
+        /** Cached and in-flight entries. */
+        int size() {
+            return map.size();
+        }
+
+        Stats stats() {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+        }
+    }
+
+    // -- Policy bookkeeping; every method below runs under the memoized function's lock --
+
+    static final class Node<K, V> {
+        static final int NONE = 0;
+        static final int WINDOW = 1;
+        static final int PROBATION = 2;
+        static final int PROTECTED = 3;
+
+        final K key;
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        /**
+         * Thread computing the value, to detect a computation that asks for its own key. Cleared
+         * once the future completes, so a cached entry does not keep its thread reachable.
+         */
+        volatile Thread owner = Thread.currentThread();
+        volatile long writeNanos;
+        long weight;
+
+        int queue = NONE;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    /** Intrusive doubly linked list in access order, least recent first. */
+    static final class AccessQueue<K, V> {
+        private final Node<K, V> sentinel = new Node<>(null);
+        final int id;
+        long weight;
+
+        AccessQueue(int id) {
+            this.id = id;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        Node<K, V> first() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        Node<K, V> last() {
+            return sentinel.prev == sentinel ? null : sentinel.prev;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = sentinel.prev;
+            node.next = sentinel;
+            sentinel.prev.next = node;
+            sentinel.prev = node;
+            node.queue = id;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.queue = Node.NONE;
+            weight -= node.weight;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    abstract static class Eviction<K, V> {
+        /** Links a newly computed entry and collects the entries that must go to stay in budget. */
+        abstract void add(Node<K, V> node, List<Node<K, V>> evicted);
+
+        abstract void access(Node<K, V> node);
+
+        abstract void remove(Node<K, V> node);
+    }
+
+    static final class Lru<K, V> extends Eviction<K, V> {
+        private final long maximum;
+        private final AccessQueue<K, V> queue = new AccessQueue<>(Node.WINDOW);
+
+        Lru(long maximum) {
+            this.maximum = maximum;
+        }
+
+        @Override
+        void add(Node<K, V> node, List<Node<K, V>> evicted) {
+            queue.addLast(node);
+            while (queue.weight > maximum) {
+                Node<K, V> victim = queue.first();
+                queue.remove(victim);
+                evicted.add(victim);
+            }
+        }
+
+        @Override
+        void access(Node<K, V> node) {
+            queue.moveToBack(node);
+        }
+
+        @Override
+        void remove(Node<K, V> node) {
+            queue.remove(node);
+        }
+    }
+
+    /**
+     * W-TinyLFU (Einziger, Friedman and Manes): a window LRU of 1% of the budget in front of a
+     * segmented LRU whose protected segment holds 80% of the rest. Entries leaving the window
+     * enter probation; when the budget is exceeded, the newest probation entry and the oldest one
+     * compete and the one with the lower estimated frequency is evicted.
+     */
+    static final class TinyLfu<K, V> extends Eviction<K, V> {
+        private final long maximum;
+        private final long maxWindow;
+        private final long maxProtected;
+        private final AccessQueue<K, V> window = new AccessQueue<>(Node.WINDOW);
+        private final AccessQueue<K, V> probation = new AccessQueue<>(Node.PROBATION);
+        private final AccessQueue<K, V> protectedQueue = new AccessQueue<>(Node.PROTECTED);
+        private final FrequencySketch sketch;
+
+        TinyLfu(long maximum) {
+            this.maximum = maximum;
+            this.maxWindow = Math.max(1, maximum / 100);
+            this.maxProtected = (maximum - maxWindow) * 8 / 10;
+            this.sketch = new FrequencySketch(maximum);
+        }
+
+        @Override
+        void add(Node<K, V> node, List<Node<K, V>> evicted) {
+            sketch.increment(node.key);
+            window.addLast(node);
+            while (window.weight > maxWindow && window.first() != null) {
+                Node<K, V> candidate = window.first();
+                window.remove(candidate);
+                probation.addLast(candidate);
+            }
+            while (window.weight + probation.weight + protectedQueue.weight > maximum) {
+                Node<K, V> victim = probation.first();
+                Node<K, V> candidate = probation.last();
+                Node<K, V> loser;
+                if (victim == null) {
+                    loser = protectedQueue.first() != null ? protectedQueue.first() : window.first();
+                } else if (victim == candidate || sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    loser = victim;
+                } else {
+                    loser = candidate;
+                }
+                remove(loser);
+                evicted.add(loser);
+            }
+        }
+
+        @Override
+        void access(Node<K, V> node) {
+            sketch.increment(node.key);
+            switch (node.queue) {
+                case Node.WINDOW:
+                    window.moveToBack(node);
+                    break;
+                case Node.PROBATION:
+                    probation.remove(node);
+                    protectedQueue.addLast(node);
+                    while (protectedQueue.weight > maxProtected) {
+                        Node<K, V> demoted = protectedQueue.first();
+                        protectedQueue.remove(demoted);
+                        probation.addLast(demoted);
+                    }
+                    break;
+                default:
+                    protectedQueue.moveToBack(node);
+            }
+        }
+
+        @Override
+        void remove(Node<K, V> node) {
+            switch (node.queue) {
+                case Node.WINDOW:
+                    window.remove(node);
+                    break;
+                case Node.PROBATION:
+                    probation.remove(node);
+                    break;
+                default:
+                    protectedQueue.remove(node);
+            }
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies with 4 rows of saturating 4-bit counters. All
+     * counters are halved once the number of increments reaches ten times the width, so old
+     * popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L,
+        };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(16, Math.min(expectedEntries, 1 << 22)) - 1) << 1;
+            this.rows = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key);
+            int min = MAX_COUNT;
+            for (int row = 0; row < rows.length; row++) {
+                min = Math.min(min, rows[row][index(hash, row)]);
+            }
+            return min;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key);
+            boolean added = false;
+            for (int row = 0; row < rows.length; row++) {
+                int i = index(hash, row);
+                if (rows[row][i] < MAX_COUNT) {
+                    rows[row][i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (byte[] counters : rows) {
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] >>>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        private static int spread(Object key) {
+            int h = key == null ? 0 : key.hashCode();
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,698 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A source of keyed data that can be fetched in bulk, such as a database table or an HTTP API
+ * with a batch endpoint. {@link IO#fetch} requests go through it.
+ */
+interface DataSource<K, V> {
+
+    /**
+     * Fetches every key in one round trip. A key that is missing from the result fails its
+     * request with {@code NoSuchElementException}; an exception fails all of them.
+     */
+    Map<K, V> fetchAll(Set<K> keys) throws Exception;
+
+    default String name() {
+        return getClass().getSimpleName();
+    }
+}
+
+/** A {@link DataSource} backed by a map that counts its round trips; stands in for a remote store. */
+final class InMemoryDataSource<K, V> implements DataSource<K, V> {
+    private final Map<K, V> data;
+    private final long latencyMillis;
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final AtomicLong keysFetched = new AtomicLong();
+
+    /** {@code latencyMillis} is slept once per round trip, whatever the number of keys. */
+    InMemoryDataSource(Map<K, V> data, long latencyMillis) {
+        this.data = Map.copyOf(data);
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public Map<K, V> fetchAll(Set<K> keys) throws InterruptedException {
+        roundTrips.incrementAndGet();
+        keysFetched.addAndGet(keys.size());
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        Map<K, V> result = new HashMap<>();
+        for (K key : keys) {
+            V value = data.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    int roundTrips() {
+        return roundTrips.get();
+    }
+
+    long keysFetched() {
+        return keysFetched.get();
+    }
+}
+
+/**
+ * A description of a side-effecting computation: the "computations with side effects" of the
+ * notes' monad section, kept out of the pure code that builds them. Nothing happens until
+ * {@link #run()} hands the description to an {@link IORuntime}.
+ *
+ * Because an `IO` is only data until it runs, the runtime can see which requests are independent
+ * of each other and send them together. N lookups combined with {@link #all} or
+ * {@link #traverse} become one `fetchAll` call per data source, and repeated keys are fetched
+ * once:
+ *
+ * ```java
+ * IO<List<User>> users = IO.traverse(userIds, id -> IO.fetch(usersSource, id));
+ * IO<List<String>> managerNames = users.flatMap(list ->
+ *         IO.traverse(list, user -> IO.fetch(usersSource, user.managerId()).map(User::name)));
+ * managerNames.run(); // two round trips in total, however many users and managers
+ * ```
+ *
+ * This only works for requests that are combined with `zip`, `all` or `traverse`. A request
+ * inside `flatMap` depends on the value before it, so it cannot be sent in the same round.
+ * Results are cached for the duration of one run, which also keeps a run consistent: the same
+ * key always has the same value within it.
+ */
+abstract class IO<T> {
+
+    private IO() {
+    }
+
+    static <T> IO<T> pure(T value) {
+        return new Pure<>(value);
+    }
+
+    static <T> IO<T> fail(Throwable error) {
+        return new Fail<>(Objects.requireNonNull(error, "error"));
+    }
+
+    /** A side effect, run when the IO is run (and again each time it is run). */
+    static <T> IO<T> of(Callable<? extends T> effect) {
+        return new Delay<>(Objects.requireNonNull(effect, "effect"));
+    }
+
+    /** Looks {@code key} up in {@code source}, batched with the other requests of the same round. */
+    static <K, V> IO<V> fetch(DataSource<K, V> source, K key) {
+        return new Fetch<>(Objects.requireNonNull(source, "source"), Objects.requireNonNull(key, "key"));
+    }
+
+    /** A yield point: lets other fibers run before this one continues. */
+    static IO<Void> cede() {
+        return Cede.INSTANCE;
+    }
+
+    <R> IO<R> map(Function<? super T, ? extends R> fn) {
+        Objects.requireNonNull(fn, "fn");
+        return new Bind<>(this, value -> new Pure<>(fn.apply(value)));
+    }
+
+    <R> IO<R> flatMap(Function<? super T, ? extends IO<? extends R>> fn) {
+        return new Bind<>(this, Objects.requireNonNull(fn, "fn"));
+    }
+
+    /** Replaces a failure with {@code fn(error)}; cancellation is not recovered. */
+    IO<T> recover(Function<? super Throwable, ? extends T> fn) {
+        return new Recover<>(this, Objects.requireNonNull(fn, "fn"));
+    }
+
+    /** Runs both concurrently, with their requests batched together. */
+    @SuppressWarnings("unchecked")
+    <U, R> IO<R> zip(IO<U> other, BiFunction<? super T, ? super U, ? extends R> fn) {
+        Objects.requireNonNull(fn, "fn");
+        return new Par<>(List.of(this, other), results -> fn.apply((T) results[0], (U) results[1]));
+    }
+
+    /** Runs all concurrently; the first failure cancels the others and is the result. */
+    @SuppressWarnings("unchecked")
+    static <T> IO<List<T>> all(List<? extends IO<? extends T>> ios) {
+        return new Par<>(List.copyOf(ios), results -> {
+            List<T> list = new ArrayList<>(results.length);
+            for (Object result : results) {
+                list.add((T) result);
+            }
+            return list;
+        });
+    }
+
+    static <A, B> IO<List<B>> traverse(Iterable<? extends A> items, Function<? super A, ? extends IO<? extends B>> fn) {
+        List<IO<? extends B>> ios = new ArrayList<>();
+        for (A item : items) {
+            ios.add(fn.apply(item));
+        }
+        return all(ios);
+    }
+
+    /** Runs on {@link IORuntime#DEFAULT} and waits for the result. */
+    T run() throws Exception {
+        return IORuntime.DEFAULT.run(this);
+    }
+
+    // -- The instruction set interpreted by IORuntime.Fiber --
+
+    static final class Pure<T> extends IO<T> {
+        final T value;
+
+        Pure(T value) {
+            this.value = value;
+        }
+    }
+
+    static final class Fail<T> extends IO<T> {
+        final Throwable error;
+
+        Fail(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    static final class Delay<T> extends IO<T> {
+        final Callable<? extends T> effect;
+
+        Delay(Callable<? extends T> effect) {
+            this.effect = effect;
+        }
+    }
+
+    static final class Fetch<K, V> extends IO<V> {
+        final DataSource<K, V> source;
+        final K key;
+
+        Fetch(DataSource<K, V> source, K key) {
+            this.source = source;
+            this.key = key;
+        }
+    }
+
+    static final class Cede extends IO<Void> {
+        static final Cede INSTANCE = new Cede();
+    }
+
+    static final class Bind<S, T> extends IO<T> {
+        final IO<S> source;
+        final Function<? super S, ? extends IO<? extends T>> fn;
+
+        Bind(IO<S> source, Function<? super S, ? extends IO<? extends T>> fn) {
+            this.source = source;
+            this.fn = fn;
+        }
+    }
+
+    static final class Recover<T> extends IO<T> {
+        final IO<T> source;
+        final Function<? super Throwable, ? extends T> fn;
+
+        Recover(IO<T> source, Function<? super Throwable, ? extends T> fn) {
+            this.source = source;
+            this.fn = fn;
+        }
+    }
+
+    static final class Par<T> extends IO<T> {
+        final List<? extends IO<?>> children;
+        final Function<Object[], ? extends T> combine;
+
+        Par(List<? extends IO<?>> children, Function<Object[], ? extends T> combine) {
+            this.children = children;
+            this.combine = combine;
+        }
+    }
+}
+
+/**
+ * Runs {@link IO} values as fibers on a work-stealing {@code ForkJoinPool}.
+ *
+ * A fiber is a heap object holding the IO still to run and a stack of pending `flatMap` and
+ * `recover` frames, so deep chains do not grow the thread stack. A fiber never blocks a pool
+ * thread while it waits for a fetch or for its children: it parks, and whatever completes the
+ * wait puts it back on the pool. After {@value #BUDGET} steps, or at {@link IO#cede()}, a fiber
+ * goes to the back of the queue, so one long chain cannot starve the others.
+ *
+ * Requests are sent in rounds. Fetches are queued while any fiber of the run can still make
+ * progress. When every fiber is parked, the queued keys are deduplicated and sent as one
+ * `fetchAll` per data source. `fetchAll` may block; it runs as a managed blocker, so the pool
+ * adds a thread to keep the other fibers going.
+ */
+final class IORuntime {
+
+    static final int BUDGET = 1024;
+
+    static final IORuntime DEFAULT = new IORuntime(new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true));
+
+    private final ForkJoinPool pool;
+
+    /** Use an async-mode (FIFO) pool so that fibers which yield are resumed fairly. */
+    IORuntime(ForkJoinPool pool) {
+        this.pool = Objects.requireNonNull(pool, "pool");
+    }
+
+    /** Runs {@code io} and waits for its result, rethrowing its failure. */
+    <T> T run(IO<T> io) throws Exception {
+        return start(io).join();
+    }
+
+    /** Starts {@code io} on a new fiber with its own request cache. */
+    <T> Fiber<T> start(IO<T> io) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Fiber<T> fiber = new Fiber<>(new Env(pool), io, future);
+        fiber.env.schedule(fiber);
+        return fiber;
+    }
+
+    /** Per-run state: the request cache, the requests waiting for the next round and a count of runnable work. */
+    private static final class Env {
+        final ForkJoinPool pool;
+        // Fibers that are scheduled or running, plus fetches in flight. A new round starts when this reaches 0.
+        final AtomicInteger running = new AtomicInteger();
+        private final Map<DataSource<?, ?>, Map<Object, Cell>> cache = new HashMap<>();
+        private Map<DataSource<?, ?>, List<Cell>> pending = new LinkedHashMap<>();
+
+        Env(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        void schedule(Fiber<?> fiber) {
+            running.incrementAndGet();
+            pool.execute(fiber);
+        }
+
+        void exit() {
+            if (running.decrementAndGet() == 0) {
+                flush();
+            }
+        }
+
+        /** The cell for a key; a new one is queued for the next round, a known one is shared. */
+        synchronized Cell request(IO.Fetch<?, ?> fetch) {
+            Map<Object, Cell> cells = cache.computeIfAbsent(fetch.source, source -> new HashMap<>());
+            Cell cell = cells.get(fetch.key);
+            if (cell == null) {
+                cell = new Cell(fetch.key);
+                cells.put(fetch.key, cell);
+                pending.computeIfAbsent(fetch.source, source -> new ArrayList<>()).add(cell);
+            }
+            return cell;
+        }
+
+        private void flush() {
+            Map<DataSource<?, ?>, List<Cell>> round;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                round = pending;
+                pending = new LinkedHashMap<>();
+            }
+            for (Map.Entry<DataSource<?, ?>, List<Cell>> entry : round.entrySet()) {
+                running.incrementAndGet();
+                pool.execute(() -> {
+                    try {
+                        dispatch(entry.getKey(), entry.getValue());
+                    } finally {
+                        exit();
+                    }
+                });
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static void dispatch(DataSource<?, ?> source, List<Cell> cells) {
+            Set<Object> keys = new LinkedHashSet<>();
+            for (Cell cell : cells) {
+                keys.add(cell.key);
+            }
+            FetchBlocker blocker = new FetchBlocker((DataSource<Object, Object>) source, keys);
+            try {
+                ForkJoinPool.managedBlock(blocker);
+            } catch (InterruptedException e) {
+                blocker.error = e;
+                Thread.currentThread().interrupt();
+            }
+            for (Cell cell : cells) {
+                if (blocker.error != null) {
+                    cell.complete(null, blocker.error);
+                } else if (blocker.result != null && blocker.result.containsKey(cell.key)) {
+                    cell.complete(blocker.result.get(cell.key), null);
+                } else {
+                    cell.complete(null, new NoSuchElementException(source.name() + " has no value for " + cell.key));
+                }
+            }
+        }
+    }
+
+    private static final class FetchBlocker implements ForkJoinPool.ManagedBlocker {
+        final DataSource<Object, Object> source;
+        final Set<Object> keys;
+        Map<Object, Object> result;
+        Throwable error;
+        boolean done;
+
+        FetchBlocker(DataSource<Object, Object> source, Set<Object> keys) {
+            this.source = source;
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                result = source.fetchAll(keys);
+            } catch (Throwable e) {
+                error = e;
+            }
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    /** The result of one key, shared by every fiber that requested it during the run. */
+    private static final class Cell {
+        final Object key;
+        private boolean done;
+        private Object value;
+        private Throwable error;
+        private List<Fiber<?>> waiters = new ArrayList<>(1);
+
+        Cell(Object key) {
+            this.key = key;
+        }
+
+        /** Returns false if the cell is already complete, in which case the fiber should not park. */
+        synchronized boolean addWaiter(Fiber<?> fiber) {
+            if (done) {
+                return false;
+            }
+            waiters.add(fiber);
+            return true;
+        }
+
+        void complete(Object value, Throwable error) {
+            List<Fiber<?>> woken;
+            synchronized (this) {
+                done = true;
+                this.value = value;
+                this.error = error;
+                woken = waiters;
+                waiters = null;
+            }
+            for (Fiber<?> fiber : woken) {
+                fiber.wake();
+            }
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        synchronized IO<?> outcome() {
+            return error != null ? new IO.Fail<>(error) : new IO.Pure<>(value);
+        }
+    }
+
+    /** Waits for the children of a {@code zip} / {@code all}, then wakes the parent. */
+    private static final class Join {
+        final Fiber<?> parent;
+        final IO.Par<?> par;
+        final Fiber<?>[] children;
+        final Object[] results;
+        final AtomicInteger remaining;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Join(Fiber<?> parent, IO.Par<?> par) {
+            this.parent = parent;
+            this.par = par;
+            int n = par.children.size();
+            this.children = new Fiber<?>[n];
+            this.results = new Object[n];
+            this.remaining = new AtomicInteger(n);
+        }
+
+        void childDone(int index, Object value, Throwable failure) {
+            if (failure != null) {
+                if (error.compareAndSet(null, failure)) {
+                    cancelChildren();
+                }
+            } else {
+                results[index] = value;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                parent.wake();
+            }
+        }
+
+        void cancelChildren() {
+            for (Fiber<?> child : children) {
+                child.cancel();
+            }
+        }
+
+        IO<?> outcome() {
+            Throwable e = error.get();
+            if (e != null) {
+                return new IO.Fail<>(e);
+            }
+            try {
+                return new IO.Pure<>(par.combine.apply(results));
+            } catch (Throwable failure) {
+                return new IO.Fail<>(failure);
+            }
+        }
+    }
+
+    /**
+     * A running IO. {@link #cancel()} stops it at its next step. A fiber waiting on a fetch stops
+     * right away; one waiting on `zip` / `all` cancels its children and stops once they have.
+     */
+    static final class Fiber<T> implements Runnable {
+        private static final int RUNNING = 0;
+        private static final int PARKED = 1;
+        private static final int DONE = 2;
+
+        private final Env env;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final ArrayDeque<IO<?>> frames = new ArrayDeque<>();
+        private IO<?> current;
+        // What the fiber is parked on: a Cell or a Join. Written before the state becomes PARKED.
+        private volatile Object blocker;
+        private volatile boolean cancelled;
+        // Exactly one of these reports the outcome: the future of a root fiber, or the join of a child.
+        private final CompletableFuture<T> future;
+        private final Join join;
+        private final int index;
+
+        Fiber(Env env, IO<?> io, CompletableFuture<T> future) {
+            this(env, io, future, null, -1);
+        }
+
+        private Fiber(Env env, IO<?> io, CompletableFuture<T> future, Join join, int index) {
+            this.env = env;
+            this.current = io;
+            this.future = future;
+            this.join = join;
+            this.index = index;
+        }
+
+        /** Waits for the result, rethrowing the IO's failure. */
+        T join() throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (Exception) cause;
+            }
+        }
+
+        boolean isDone() {
+            return state.get() == DONE;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Object b = blocker;
+            if (b instanceof Join) {
+                ((Join) b).cancelChildren();
+            } else if (b instanceof Cell) {
+                wake();
+            }
+        }
+
+        void wake() {
+            if (state.compareAndSet(PARKED, RUNNING)) {
+                env.schedule(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Object b = blocker;
+                if (b != null) {
+                    blocker = null;
+                    if (!cancelled) {
+                        current = b instanceof Cell ? ((Cell) b).outcome() : ((Join) b).outcome();
+                    }
+                }
+                loop();
+            } finally {
+                env.exit();
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void loop() {
+            for (int budget = BUDGET; budget > 0; budget--) {
+                if (cancelled) {
+                    finish(null, new CancellationException("Fiber cancelled"));
+                    return;
+                }
+                IO<?> io = current;
+                if (io instanceof IO.Pure) {
+                    Object value = ((IO.Pure<?>) io).value;
+                    IO.Bind bind = popFrame(IO.Bind.class);
+                    if (bind == null) {
+                        finish(value, null);
+                        return;
+                    }
+                    try {
+                        current = Objects.requireNonNull((IO<?>) bind.fn.apply(value), "flatMap returned null");
+                    } catch (Throwable e) {
+                        current = new IO.Fail<>(e);
+                    }
+                } else if (io instanceof IO.Fail) {
+                    Throwable error = ((IO.Fail<?>) io).error;
+                    IO.Recover recover = popFrame(IO.Recover.class);
+                    if (recover == null) {
+                        finish(null, error);
+                        return;
+                    }
+                    try {
+                        current = new IO.Pure<>(recover.fn.apply(error));
+                    } catch (Throwable e) {
+                        current = new IO.Fail<>(e);
+                    }
+                } else if (io instanceof IO.Bind) {
+                    frames.push(io);
+                    current = ((IO.Bind<?, ?>) io).source;
+                } else if (io instanceof IO.Recover) {
+                    frames.push(io);
+                    current = ((IO.Recover<?>) io).source;
+                } else if (io instanceof IO.Delay) {
+                    try {
+                        current = new IO.Pure<>(((IO.Delay<?>) io).effect.call());
+                    } catch (Throwable e) {
+                        current = new IO.Fail<>(e);
+                    }
+                } else if (io instanceof IO.Fetch) {
+                    Cell cell = env.request((IO.Fetch<?, ?>) io);
+                    if (!cell.isDone() && park(cell)) {
+                        return;
+                    }
+                    current = cell.outcome();
+                } else if (io instanceof IO.Par) {
+                    IO.Par<?> par = (IO.Par<?>) io;
+                    if (par.children.isEmpty()) {
+                        current = new Join(this, par).outcome();
+                    } else {
+                        fork(par);
+                        return;
+                    }
+                } else if (io instanceof IO.Cede) {
+                    current = new IO.Pure<>(null);
+                    env.schedule(this);
+                    return;
+                } else {
+                    throw new IllegalStateException("Unknown IO: " + io.getClass().getName());
+                }
+            }
+            // Out of budget: go to the back of the queue.
+            env.schedule(this);
+        }
+
+        /** Pops frames up to and including the nearest one of {@code type}; null if there is none. */
+        @SuppressWarnings("unchecked")
+        private <F> F popFrame(Class<F> type) {
+            while (!frames.isEmpty()) {
+                IO<?> frame = frames.pop();
+                if (type.isInstance(frame)) {
+                    return (F) frame;
+                }
+            }
+            return null;
+        }
+
+        /** Parks on {@code cell}; returns false (without parking) if it completed in the meantime. */
+        private boolean park(Cell cell) {
+            blocker = cell;
+            state.set(PARKED);
+            if (!cell.addWaiter(this) || cancelled) {
+                // Either way we carry on here, unless wake() already rescheduled us.
+                if (state.compareAndSet(PARKED, RUNNING)) {
+                    blocker = null;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void fork(IO.Par<?> par) {
+            Join join = new Join(this, par);
+            for (int i = 0; i < join.children.length; i++) {
+                join.children[i] = new Fiber<>(env, par.children.get(i), null, join, i);
+            }
+            blocker = join;
+            state.set(PARKED);
+            // This fiber has not exited yet, so no round can start before the children are scheduled.
+            for (Fiber<?> child : join.children) {
+                env.schedule(child);
+            }
+            if (cancelled) {
+                join.cancelChildren();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void finish(Object value, Throwable error) {
+            state.set(DONE);
+            frames.clear();
+            current = null;
+            if (join != null) {
+                join.childDone(index, value, error);
+            } else if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete((T) value);
+            }
+        }
+    }
+}
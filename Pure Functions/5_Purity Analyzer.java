@@ -0,0 +1,1650 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** A {@code Function} the compiler makes serializable, so its implementation method can be located. */
+interface SerializableFunction<A, R> extends Function<A, R>, Serializable {
+}
+
+/**
+ * The result of {@link PurityAnalyzer}: whether the target was proven pure, and if not, every
+ * reason found. The bytecode hash covers all the code the verdict depends on: each analyzed
+ * method's instructions together with the constants, members and bootstrap arguments they refer
+ * to. A cached verdict, or a cached result of the function, can be invalidated when any of that
+ * code changes, down to a single literal.
+ */
+final class PurityCertificate {
+
+    enum Kind {
+        /** Writes a field of an object that was not allocated during the call. */
+        FIELD_WRITE,
+        /** Writes an element of an array that was not allocated during the call. */
+        ARRAY_WRITE,
+        /** Writes a static field: global state. */
+        STATIC_WRITE,
+        /** Reads a non-final static field, or a final one whose value may be mutable. */
+        STATIC_READ,
+        /** Reads a non-final field of an object it did not allocate, such as a receiver's mutable state. */
+        MUTABLE_READ,
+        /** The lambda captured a value of a mutable type. */
+        MUTABLE_CAPTURE,
+        /** Calls into I/O, the clock, randomness, threads or the process environment. */
+        IO,
+        /** Calls a native method, which cannot be inspected. */
+        NATIVE,
+        /** A call whose target cannot be determined or inspected, such as an overridable method. */
+        UNRESOLVED,
+        /** Bytecode the analyzer does not handle, or a target it could not load. */
+        UNSUPPORTED
+    }
+
+    /** One reason the target is not certified. */
+    static final class Violation {
+        final Kind kind;
+        final String method;
+        final String detail;
+
+        Violation(Kind kind, String method, String detail) {
+            this.kind = kind;
+            this.method = method;
+            this.detail = detail;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Violation)) {
+                return false;
+            }
+            Violation other = (Violation) o;
+            return kind == other.kind && method.equals(other.method) && detail.equals(other.detail);
+        }
+
+        @Override
+        public int hashCode() {
+            return (kind.hashCode() * 31 + method.hashCode()) * 31 + detail.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " in " + method + ": " + detail;
+        }
+    }
+
+    final String target;
+    final List<Violation> violations;
+    final List<String> methods;
+    final String bytecodeHash;
+
+    PurityCertificate(String target, List<Violation> violations, List<String> methods, String bytecodeHash) {
+        this.target = target;
+        this.violations = Collections.unmodifiableList(new ArrayList<>(violations));
+        this.methods = Collections.unmodifiableList(new ArrayList<>(methods));
+        this.bytecodeHash = bytecodeHash;
+    }
+
+    /** True when no violation was found: safe to memoize, reorder or run in parallel. */
+    boolean isPure() {
+        return violations.isEmpty();
+    }
+
+    PurityCertificate requirePure() {
+        if (!isPure()) {
+            throw new IllegalStateException(this.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(target)
+                .append(isPure() ? " is pure" : " is not pure")
+                .append(" (").append(methods.size()).append(" methods, sha256 ").append(bytecodeHash, 0, 12).append(')');
+        for (Violation violation : violations) {
+            sb.append("\n  ").append(violation);
+        }
+        return sb.toString();
+    }
+}
+
+/**
+ * Static purity check over compiled bytecode, for the test the notes do by eye: `addY` writes an
+ * outer variable, `multiplyWithOutsideVariable` and `pureFunctionUsingGlobal` read one.
+ *
+ * ```java
+ * static int globalVar = 10;
+ * SerializableFunction<Integer, Integer> usesGlobal = n -> n * globalVar;
+ * PurityAnalyzer.analyze(usesGlobal);   // STATIC_READ: reads non-final static globalVar
+ *
+ * SerializableFunction<Integer, Integer> square = n -> n * n;
+ * PurityAnalyzer.analyze(square).isPure(); // true
+ * Function<Integer, Integer> fast = PurityAnalyzer.memoizeIfPure(square, Memo.Policy.lru(10_000));
+ * ```
+ *
+ * The analyzer reads class files with its own minimal parser, so it needs no library and runs on
+ * any JDK. Starting from a method, or from the method behind a serializable lambda, it follows
+ * every call it can resolve and every lambda created along the way. It records:
+ *
+ * - writes to fields, array elements and statics, and reads of mutable state;
+ * - calls to I/O, clock, random, thread and process classes, and to native methods;
+ * - calls it cannot follow: interface and overridable methods, and library code it does not trust.
+ *
+ * Mutating an object allocated during the call is fine: a method that fills a new array or
+ * `StringBuilder` and returns it is pure. This is tracked per value by a dataflow pass over each
+ * method.
+ *
+ * The check is conservative, so "pure" is a proof (modulo reflection and the trusted classes
+ * below) and "not pure" may be a false alarm. The trusted classes are immutable JDK value types,
+ * `Math`, `Objects`, this repository's persistent collections, and the read-only methods of the
+ * collection interfaces. Standard collections and `StringBuilder` are trusted only when the
+ * receiver is freshly allocated.
+ *
+ * Trust is per method, not per class. A few methods of the trusted classes are impure and are
+ * reported as such:
+ *
+ * ```java
+ * n -> n * Math.random();            // IO: random seed
+ * k -> Integer.getInteger(k, 0);     // IO: system properties (also Long.getLong, Boolean.getBoolean)
+ * s -> s.toLowerCase();              // IO: default Locale (also toUpperCase(), String.format)
+ * s -> s.getBytes();                 // IO: default charset (also new String(byte[]))
+ * buf -> "abc".getChars(0, 3, buf, 0); // ARRAY_WRITE: fills the caller's array
+ * ```
+ *
+ * A trusted method that takes a function, such as `Objects.requireNonNullElseGet` or
+ * `PersistentVector.forEach`, runs it, so it is trusted only when the function is a lambda
+ * created in the analyzed code, whose body has been checked too.
+ */
+final class PurityAnalyzer {
+
+    /** Stop after this many method bodies; the result is then UNSUPPORTED rather than a guess. */
+    static final int MAX_METHODS = 5000;
+
+    // Trusted classes: immutable value classes, whose instances are safe to capture or read from a
+    // static final field, and the static helpers Math, StrictMath and Objects. Their methods are
+    // pure except those in IMPURE_METHODS and ARRAY_WRITING_METHODS.
+    private static final Set<String> PURE_CLASSES = Set.of(
+            "java/lang/Math", "java/lang/StrictMath", "java/lang/String", "java/lang/Integer", "java/lang/Long",
+            "java/lang/Short", "java/lang/Byte", "java/lang/Character", "java/lang/Boolean", "java/lang/Float",
+            "java/lang/Double", "java/lang/Enum", "java/math/BigInteger", "java/math/BigDecimal",
+            "java/math/MathContext", "java/util/Objects",
+            // This repository's persistent collections: immutable once built.
+            "PersistentVector", "PersistentHashMap", "PersistentHashSet", "PersistentSortedMap",
+            "PersistentSortedSet", "OrderedMap", "OrderedSet", "RrbVector");
+
+    // Classes whose methods mutate the receiver: pure on a receiver allocated during the call. A few
+    // also write into an array argument (getChars, toArray), so array arguments must be fresh too.
+    private static final Set<String> LOCAL_CLASSES = Set.of(
+            "java/lang/StringBuilder", "java/util/ArrayList", "java/util/LinkedList", "java/util/ArrayDeque",
+            "java/util/HashMap", "java/util/LinkedHashMap", "java/util/TreeMap", "java/util/HashSet",
+            "java/util/LinkedHashSet", "java/util/TreeSet", "java/util/StringJoiner");
+
+    // Methods of the trusted classes that read global state (random seed, system properties, the
+    // default Locale or charset) or write into an argument. "owner.name" matches every overload.
+    private static final Set<String> IMPURE_METHODS = Set.of(
+            "java/lang/Math.random", "java/lang/StrictMath.random", "java/lang/Integer.getInteger",
+            "java/lang/Long.getLong", "java/lang/Boolean.getBoolean", "java/lang/String.format",
+            "java/lang/String.formatted", "java/lang/String.toLowerCase()Ljava/lang/String;",
+            "java/lang/String.toUpperCase()Ljava/lang/String;", "java/lang/String.getBytes()[B",
+            "java/lang/String.<init>([B)V", "java/lang/String.<init>([BII)V",
+            "java/math/BigInteger.probablePrime", "java/math/BigInteger.<init>(ILjava/util/Random;)V",
+            "java/math/BigInteger.<init>(IILjava/util/Random;)V");
+
+    // Methods of the trusted classes that write into an array argument.
+    private static final Set<String> ARRAY_WRITING_METHODS = Set.of(
+            "java/lang/String.getChars", "java/lang/String.getBytes(II[BI)V", "java/lang/Character.toChars(I[CI)I");
+
+    // Methods of LOCAL_CLASSES that only read their array arguments.
+    private static final Set<String> ARRAY_READING_METHODS = Set.of("append", "insert");
+
+    // Parameter types that are code the callee will run.
+    private static final List<String> FUNCTION_TYPES = List.of(
+            "Ljava/util/function/", "Ljava/util/Comparator;", "Ljava/lang/Runnable;", "Ljava/util/concurrent/Callable;");
+
+    // Interfaces whose read-only methods are trusted by contract, whatever the implementation.
+    private static final Set<String> READ_ONLY_INTERFACES = Set.of(
+            "java/lang/Object", "java/lang/CharSequence", "java/lang/Comparable", "java/lang/Iterable",
+            "java/util/Collection", "java/util/List", "java/util/Set", "java/util/Map", "java/util/Map$Entry",
+            "java/util/Iterator", "java/util/SortedMap", "java/util/NavigableMap");
+
+    private static final Set<String> READ_ONLY_METHODS = Set.of(
+            "equals", "hashCode", "toString", "compareTo", "size", "isEmpty", "length", "charAt", "get",
+            "getOrDefault", "contains", "containsKey", "containsValue", "indexOf", "lastIndexOf", "getKey",
+            "getValue", "iterator", "hasNext", "next", "peek", "first", "last", "firstKey", "lastKey");
+
+    private static final Set<String> IO_CLASSES = Set.of(
+            "java/lang/System", "java/lang/Runtime", "java/lang/Thread", "java/lang/Process",
+            "java/lang/ProcessBuilder", "java/util/Random", "java/util/concurrent/ThreadLocalRandom",
+            "java/security/SecureRandom", "java/time/Clock");
+
+    private static final List<String> IO_PACKAGES = List.of(
+            "java/io/", "java/nio/", "java/net/", "java/sql/", "java/util/logging/", "java/lang/management/");
+
+    private static final List<String> LIBRARY_PACKAGES = List.of(
+            "java/", "javax/", "jdk/", "sun/", "com/sun/");
+
+    // Static final fields of these types hold immutable values.
+    private static final Set<String> IMMUTABLE_TYPES;
+
+    static {
+        Set<String> types = new LinkedHashSet<>();
+        for (String name : PURE_CLASSES) {
+            types.add("L" + name + ";");
+        }
+        // Immutable, though not every method is pure: Locale.getDefault reads global state.
+        types.add("Ljava/util/Locale;");
+        IMMUTABLE_TYPES = Collections.unmodifiableSet(types);
+    }
+
+    private PurityAnalyzer() {
+    }
+
+    // -- Entry points --
+
+    /** Analyzes a serializable lambda or method reference, including what it captured. */
+    static PurityCertificate analyze(Serializable lambda) {
+        SerializedLambda serialized = serialize(lambda);
+        Run run = new Run(lambda.getClass().getClassLoader());
+        String target = serialized.getImplClass() + "." + serialized.getImplMethodName() + serialized.getImplMethodSignature();
+        for (int i = 0; i < serialized.getCapturedArgCount(); i++) {
+            Object captured = serialized.getCapturedArg(i);
+            if (captured != null && !isImmutableValue(captured)) {
+                run.violation(PurityCertificate.Kind.MUTABLE_CAPTURE, target,
+                        "captures a " + captured.getClass().getName());
+            }
+        }
+        int kind = serialized.getImplMethodKind();
+        boolean isStatic = kind == MethodHandleInfo.REF_invokeStatic;
+        run.entry(serialized.getImplClass(), serialized.getImplMethodName(), serialized.getImplMethodSignature(),
+                isStatic, kind == MethodHandleInfo.REF_newInvokeSpecial);
+        return run.certificate(target);
+    }
+
+    static PurityCertificate analyze(Method method) {
+        String descriptor = MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString();
+        return analyze(method.getDeclaringClass(), method.getName(), descriptor);
+    }
+
+    /** Analyzes {@code owner.name} with a JVM descriptor such as {@code "(II)I"}. */
+    static PurityCertificate analyze(Class<?> owner, String name, String descriptor) {
+        Run run = new Run(owner.getClassLoader());
+        String internal = owner.getName().replace('.', '/');
+        ClassInfo info = run.load(internal);
+        MethodInfo method = info == null ? null : info.methods.get(name + descriptor);
+        boolean isStatic = method != null && (method.access & Modifier.STATIC) != 0;
+        run.entry(internal, name, descriptor, isStatic, name.equals("<init>"));
+        return run.certificate(internal + "." + name + descriptor);
+    }
+
+    /** Memoizes {@code fn} if it is certified pure, and returns it unchanged otherwise. */
+    static <A, R> Function<A, R> memoizeIfPure(SerializableFunction<A, R> fn, Memo.Policy policy) {
+        return analyze(fn).isPure() ? Memo.memoize(fn, policy) : fn;
+    }
+
+    static SerializedLambda serialize(Serializable lambda) {
+        try {
+            Method writeReplace = lambda.getClass().getDeclaredMethod("writeReplace");
+            writeReplace.setAccessible(true);
+            Object replaced = writeReplace.invoke(lambda);
+            if (replaced instanceof SerializedLambda) {
+                return (SerializedLambda) replaced;
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Not a serializable lambda: " + lambda.getClass().getName(), e);
+        }
+        throw new IllegalArgumentException("Not a serializable lambda: " + lambda.getClass().getName());
+    }
+
+    private static boolean isImmutableValue(Object value) {
+        return value instanceof String || value instanceof Number && (value instanceof Integer
+                || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof Double
+                || value instanceof Float || value instanceof BigInteger || value instanceof BigDecimal)
+                || value instanceof Character || value instanceof Boolean || value instanceof Enum
+                || value instanceof Class
+                || PURE_CLASSES.contains(value.getClass().getName().replace('.', '/'));
+    }
+
+    // -- One analysis --
+
+    /** The state of one analysis: loaded classes, methods still to inspect, and findings. */
+    private static final class Run {
+        private final ClassLoader loader;
+        private final Map<String, ClassInfo> classes = new HashMap<>();
+        private final Set<String> queued = new LinkedHashSet<>();
+        private final ArrayDeque<Object[]> work = new ArrayDeque<>();
+        private final Set<PurityCertificate.Violation> violations = new LinkedHashSet<>();
+        // Code of every analyzed method by key, sorted so the hash does not depend on visiting order.
+        private final TreeMap<String, byte[]> code = new TreeMap<>();
+
+        Run(ClassLoader loader) {
+            this.loader = loader != null ? loader : ClassLoader.getSystemClassLoader();
+        }
+
+        void violation(PurityCertificate.Kind kind, String method, String detail) {
+            violations.add(new PurityCertificate.Violation(kind, method, detail));
+        }
+
+        ClassInfo load(String internalName) {
+            if (classes.containsKey(internalName)) {
+                return classes.get(internalName);
+            }
+            ClassInfo info = null;
+            try (InputStream in = loader.getResourceAsStream(internalName + ".class")) {
+                if (in != null) {
+                    info = new ClassInfo(in.readAllBytes());
+                }
+            } catch (IOException | RuntimeException e) {
+                info = null;
+            }
+            classes.put(internalName, info);
+            return info;
+        }
+
+        /** The entry method itself is analyzed exactly: the caller named the implementation. */
+        void entry(String owner, String name, String descriptor, boolean isStatic, boolean isConstructor) {
+            String where = owner + "." + name + descriptor;
+            if (isTrustedClass(owner)) {
+                checkTrustedMethod(where, owner, name, descriptor, null);
+                return;
+            }
+            ClassInfo info = load(owner);
+            MethodInfo method = info == null ? null : info.methods.get(name + descriptor);
+            if (method == null) {
+                violation(PurityCertificate.Kind.UNSUPPORTED, where, "cannot load the method's class file");
+                return;
+            }
+            enqueue(info, method, isConstructor);
+            drain();
+        }
+
+        private void enqueue(ClassInfo owner, MethodInfo method, boolean receiverFresh) {
+            String key = owner.name + "." + method.name + method.descriptor + (receiverFresh ? "#fresh" : "");
+            if (queued.add(key)) {
+                work.add(new Object[] {owner, method, receiverFresh});
+            }
+        }
+
+        private void drain() {
+            while (!work.isEmpty()) {
+                if (code.size() >= MAX_METHODS) {
+                    violation(PurityCertificate.Kind.UNSUPPORTED, "analysis", "more than " + MAX_METHODS + " methods");
+                    return;
+                }
+                Object[] item = work.poll();
+                ClassInfo owner = (ClassInfo) item[0];
+                MethodInfo method = (MethodInfo) item[1];
+                new MethodAnalysis(this, owner, method, (Boolean) item[2]).run();
+            }
+        }
+
+        PurityCertificate certificate(String target) {
+            MessageDigest sha;
+            try {
+                sha = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Map.Entry<String, byte[]> entry : code.entrySet()) {
+                sha.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                sha.update(entry.getValue());
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new PurityCertificate(target, new ArrayList<>(violations), new ArrayList<>(code.keySet()), hex.toString());
+        }
+
+        private static boolean isTrustedClass(String owner) {
+            return PURE_CLASSES.contains(owner) || owner.startsWith("[");
+        }
+
+        /**
+         * A call from {@code where}. {@code receiver} is the abstract value of the receiver
+         * ({@link MethodAnalysis#UNKNOWN} for static calls), {@code arguments} those of the
+         * arguments, or null if they are not known.
+         */
+        void call(String where, int opcode, String owner, String name, String descriptor, int receiver,
+                  int[] arguments) {
+            String target = owner + "." + name + descriptor;
+            boolean fresh = receiver != MethodAnalysis.UNKNOWN;
+            if (receiver >= MethodAnalysis.FRESH_CLASS && opcode != Opcodes.INVOKESPECIAL) {
+                String actual = MethodAnalysis.freshClassName(receiver);
+                if (actual.equals(MethodAnalysis.LAMBDA)) {
+                    // The body was enqueued where the lambda was created.
+                    return;
+                }
+                // Dispatch on the class we allocated, so List.add on a new ArrayList is a local mutation.
+                owner = actual;
+            }
+            if (fresh && name.equals("<init>") && owner.startsWith("java/lang/")
+                    && (owner.endsWith("Exception") || owner.endsWith("Error"))) {
+                return;
+            }
+            if (owner.equals("java/lang/Object") && (name.equals("<init>") || name.equals("getClass"))) {
+                return;
+            }
+            if (isTrustedClass(owner)) {
+                checkTrustedMethod(where, owner, name, descriptor, arguments);
+                return;
+            }
+            if (isIo(owner)) {
+                violation(PurityCertificate.Kind.IO, where, "calls " + target);
+                return;
+            }
+            if (LOCAL_CLASSES.contains(owner)) {
+                if (!fresh && !name.equals("<init>") && !READ_ONLY_METHODS.contains(name)) {
+                    violation(PurityCertificate.Kind.FIELD_WRITE, where, "may mutate a shared " + owner + " via " + name);
+                }
+                if (!ARRAY_READING_METHODS.contains(name)) {
+                    checkArrayArguments(where, target, descriptor, arguments);
+                }
+                checkFunctionArguments(where, target, descriptor, arguments);
+                return;
+            }
+            if (READ_ONLY_INTERFACES.contains(owner) && READ_ONLY_METHODS.contains(name)) {
+                return;
+            }
+            if (isLibrary(owner)) {
+                violation(PurityCertificate.Kind.UNRESOLVED, where, "calls untrusted library method " + target);
+                return;
+            }
+            // Exact dispatch: static, constructor/super/private calls, or a receiver whose class we allocated.
+            boolean exact = opcode == Opcodes.INVOKESTATIC || opcode == Opcodes.INVOKESPECIAL;
+            String start = owner;
+            if (!exact && receiver >= MethodAnalysis.FRESH_CLASS) {
+                exact = true;
+                start = MethodAnalysis.freshClassName(receiver);
+            }
+            Resolved resolved = resolve(start, name, descriptor);
+            if (resolved == null) {
+                violation(PurityCertificate.Kind.UNSUPPORTED, where, "cannot load " + target);
+                return;
+            }
+            MethodInfo method = resolved.method;
+            if (!exact && (method.access & (Modifier.FINAL | Modifier.PRIVATE)) == 0
+                    && (resolved.owner.access & Modifier.FINAL) == 0) {
+                violation(PurityCertificate.Kind.UNRESOLVED, where, "calls overridable " + target);
+                return;
+            }
+            if ((method.access & Modifier.NATIVE) != 0) {
+                violation(PurityCertificate.Kind.NATIVE, where, "calls native " + target);
+                return;
+            }
+            if ((method.access & Modifier.ABSTRACT) != 0) {
+                violation(PurityCertificate.Kind.UNRESOLVED, where, "calls abstract " + target);
+                return;
+            }
+            boolean receiverFresh = opcode != Opcodes.INVOKESTATIC && (fresh || name.equals("<init>"));
+            enqueue(resolved.owner, method, receiverFresh);
+        }
+
+        /** A call into a trusted class: pure unless the method is listed as impure or runs unknown code. */
+        private void checkTrustedMethod(String where, String owner, String name, String descriptor, int[] arguments) {
+            String target = owner + "." + name + descriptor;
+            String method = owner + "." + name;
+            if (IMPURE_METHODS.contains(method) || IMPURE_METHODS.contains(target)) {
+                violation(PurityCertificate.Kind.IO, where, "calls " + target + ", which reads global state");
+            } else if (ARRAY_WRITING_METHODS.contains(method) || ARRAY_WRITING_METHODS.contains(target)) {
+                // The written array is the only array argument of these methods.
+                checkArrayArguments(where, target, descriptor, arguments);
+            }
+            checkFunctionArguments(where, target, descriptor, arguments);
+        }
+
+        /** Reports a call that may store into an array argument the analyzed code did not allocate. */
+        private void checkArrayArguments(String where, String target, String descriptor, int[] arguments) {
+            List<String> types = MethodAnalysis.parameterTypes(descriptor);
+            for (int i = 0; i < types.size(); i++) {
+                if (types.get(i).startsWith("[") && (arguments == null || arguments[i] == MethodAnalysis.UNKNOWN)) {
+                    violation(PurityCertificate.Kind.ARRAY_WRITE, where, target + " may store into an array it did not allocate");
+                }
+            }
+        }
+
+        /** A function passed to trusted code must be a lambda created here, whose body is analyzed. */
+        private void checkFunctionArguments(String where, String target, String descriptor, int[] arguments) {
+            List<String> types = MethodAnalysis.parameterTypes(descriptor);
+            for (int i = 0; i < types.size(); i++) {
+                for (String prefix : FUNCTION_TYPES) {
+                    if (types.get(i).startsWith(prefix) && (arguments == null || !MethodAnalysis.isLambda(arguments[i]))) {
+                        violation(PurityCertificate.Kind.UNRESOLVED, where, "passes an unknown function to " + target);
+                    }
+                }
+            }
+        }
+
+        /** Finds the method in {@code owner}, its superclasses, then its interfaces' default methods. */
+        private Resolved resolve(String owner, String name, String descriptor) {
+            String key = name + descriptor;
+            for (String c = owner; c != null; ) {
+                ClassInfo info = load(c);
+                if (info == null) {
+                    return null;
+                }
+                MethodInfo method = info.methods.get(key);
+                if (method != null) {
+                    return new Resolved(info, method);
+                }
+                c = info.superName;
+            }
+            ArrayDeque<String> interfaces = new ArrayDeque<>();
+            for (String c = owner; c != null; ) {
+                ClassInfo info = load(c);
+                interfaces.addAll(Arrays.asList(info.interfaces));
+                c = info.superName;
+            }
+            Set<String> seen = new LinkedHashSet<>();
+            while (!interfaces.isEmpty()) {
+                String name0 = interfaces.poll();
+                if (!seen.add(name0)) {
+                    continue;
+                }
+                ClassInfo info = load(name0);
+                if (info == null) {
+                    return null;
+                }
+                MethodInfo method = info.methods.get(key);
+                if (method != null) {
+                    return new Resolved(info, method);
+                }
+                interfaces.addAll(Arrays.asList(info.interfaces));
+            }
+            return null;
+        }
+
+        /** Field flags for {@code owner.name}, searching superclasses and interfaces; -1 if not found. */
+        int fieldAccess(String owner, String name, String descriptor) {
+            ArrayDeque<String> pending = new ArrayDeque<>();
+            pending.add(owner);
+            Set<String> seen = new LinkedHashSet<>();
+            while (!pending.isEmpty()) {
+                String c = pending.poll();
+                if (!seen.add(c)) {
+                    continue;
+                }
+                ClassInfo info = load(c);
+                if (info == null) {
+                    continue;
+                }
+                Integer access = info.fields.get(name + ":" + descriptor);
+                if (access != null) {
+                    return access;
+                }
+                pending.addAll(Arrays.asList(info.interfaces));
+                if (info.superName != null) {
+                    pending.add(info.superName);
+                }
+            }
+            return -1;
+        }
+
+        void recordCode(ClassInfo owner, MethodInfo method) {
+            code.put(owner.name + "." + method.name + method.descriptor, owner.resolvedCode(method));
+        }
+
+        private static boolean isIo(String owner) {
+            if (IO_CLASSES.contains(owner)) {
+                return true;
+            }
+            for (String prefix : IO_PACKAGES) {
+                if (owner.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isLibrary(String owner) {
+            for (String prefix : LIBRARY_PACKAGES) {
+                if (owner.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Resolved {
+        final ClassInfo owner;
+        final MethodInfo method;
+
+        Resolved(ClassInfo owner, MethodInfo method) {
+            this.owner = owner;
+            this.method = method;
+        }
+    }
+
+    // -- Per-method dataflow --
+
+    /**
+     * Abstract interpretation of one method body. Every local variable and stack slot holds
+     * {@link #UNKNOWN}, {@link #FRESH} (allocated during the call, class unknown), or
+     * {@code FRESH_CLASS + i} (a new instance of the class at constant-pool index i). Where paths
+     * merge, a slot stays fresh only if it is fresh on every path, so a write is allowed only
+     * when the target was allocated during the call on all paths.
+     */
+    private static final class MethodAnalysis {
+        static final int UNKNOWN = 0;
+        static final int FRESH = 1;
+        static final int FRESH_CLASS = 2;
+        /** Pseudo class name of a lambda created in the method, whose body is already checked. */
+        static final String LAMBDA = "<lambda>";
+
+        // Fresh class names by value, shared across methods: FRESH_CLASS + index.
+        private static final List<String> FRESH_NAMES = new ArrayList<>();
+        private static final Map<String, Integer> FRESH_IDS = new HashMap<>();
+
+        private final Run run;
+        private final ClassInfo owner;
+        private final MethodInfo method;
+        private final boolean receiverFresh;
+        private final String where;
+        private int[][] frames;
+
+        MethodAnalysis(Run run, ClassInfo owner, MethodInfo method, boolean receiverFresh) {
+            this.run = run;
+            this.owner = owner;
+            this.method = method;
+            this.receiverFresh = receiverFresh;
+            this.where = owner.name + "." + method.name + method.descriptor;
+        }
+
+        static synchronized int freshClass(String name) {
+            Integer id = FRESH_IDS.get(name);
+            if (id == null) {
+                id = FRESH_CLASS + FRESH_NAMES.size();
+                FRESH_NAMES.add(name);
+                FRESH_IDS.put(name, id);
+            }
+            return id;
+        }
+
+        static synchronized String freshClassName(int value) {
+            return FRESH_NAMES.get(value - FRESH_CLASS);
+        }
+
+        private static int merge(int a, int b) {
+            return a == b ? a : (a == UNKNOWN || b == UNKNOWN ? UNKNOWN : FRESH);
+        }
+
+        void run() {
+            run.recordCode(owner, method);
+            if ((method.access & Modifier.NATIVE) != 0) {
+                run.violation(PurityCertificate.Kind.NATIVE, where, "is native");
+                return;
+            }
+            if (method.code == null) {
+                run.violation(PurityCertificate.Kind.UNRESOLVED, where, "has no code");
+                return;
+            }
+            // A frame is locals, then the stack, then the stack size.
+            int width = method.maxLocals + method.maxStack + 1;
+            frames = new int[method.code.length][];
+            int[] entry = new int[width];
+            int local = 0;
+            if ((method.access & Modifier.STATIC) == 0) {
+                entry[local++] = receiverFresh || method.name.equals("<init>") ? FRESH : UNKNOWN;
+            }
+            // Parameters start UNKNOWN, which is 0.
+            frames[0] = entry;
+            ArrayDeque<Integer> pending = new ArrayDeque<>();
+            pending.add(0);
+            while (!pending.isEmpty()) {
+                int pc = pending.poll();
+                int[] frame = frames[pc].clone();
+                for (int[] handler : method.handlers) {
+                    if (pc >= handler[0] && pc < handler[1]) {
+                        int[] handlerFrame = frame.clone();
+                        Arrays.fill(handlerFrame, method.maxLocals, width, UNKNOWN);
+                        handlerFrame[width - 1] = 1;
+                        flow(handler[2], handlerFrame, pending);
+                    }
+                }
+                int[] successors = step(pc, frame);
+                if (successors == null) {
+                    return;
+                }
+                for (int successor : successors) {
+                    flow(successor, frame, pending);
+                }
+            }
+        }
+
+        private void flow(int target, int[] frame, ArrayDeque<Integer> pending) {
+            int[] existing = frames[target];
+            if (existing == null) {
+                frames[target] = frame.clone();
+                pending.add(target);
+                return;
+            }
+            boolean changed = false;
+            for (int i = 0; i < existing.length - 1; i++) {
+                int merged = merge(existing[i], frame[i]);
+                if (merged != existing[i]) {
+                    existing[i] = merged;
+                    changed = true;
+                }
+            }
+            if (changed && !pending.contains(target)) {
+                pending.add(target);
+            }
+        }
+
+        // -- Stack helpers over a frame --
+
+        private int sp(int[] f) {
+            return f[f.length - 1];
+        }
+
+        private void push(int[] f, int value) {
+            f[method.maxLocals + f[f.length - 1]++] = value;
+        }
+
+        private void pushN(int[] f, int slots) {
+            for (int i = 0; i < slots; i++) {
+                push(f, UNKNOWN);
+            }
+        }
+
+        private int pop(int[] f) {
+            return f[method.maxLocals + --f[f.length - 1]];
+        }
+
+        private void popN(int[] f, int slots) {
+            f[f.length - 1] -= slots;
+        }
+
+        /** The value {@code depth} slots below the top (0 is the top). */
+        private int peek(int[] f, int depth) {
+            return f[method.maxLocals + sp(f) - 1 - depth];
+        }
+
+        private int u1(int pc) {
+            return method.code[pc] & 0xFF;
+        }
+
+        private int u2(int pc) {
+            return ((method.code[pc] & 0xFF) << 8) | (method.code[pc + 1] & 0xFF);
+        }
+
+        private int s2(int pc) {
+            return (short) u2(pc);
+        }
+
+        private int s4(int pc) {
+            return ByteBuffer.wrap(method.code, pc, 4).getInt();
+        }
+
+        /** Applies the instruction at {@code pc} to {@code f}; returns the successor pcs, or null to abort. */
+        private int[] step(int pc, int[] f) {
+            int op = u1(pc);
+            int next = pc + 1;
+            if (op == Opcodes.NOP) {
+                return new int[] {next};
+            } else if (op == Opcodes.ACONST_NULL || op >= Opcodes.ICONST_M1 && op <= Opcodes.ICONST_5
+                    || op >= Opcodes.FCONST_0 && op <= Opcodes.FCONST_2) {
+                push(f, UNKNOWN);
+            } else if (op == Opcodes.LCONST_0 || op == Opcodes.LCONST_1 || op == Opcodes.DCONST_0 || op == Opcodes.DCONST_1) {
+                pushN(f, 2);
+            } else if (op == Opcodes.BIPUSH) {
+                push(f, UNKNOWN);
+                next = pc + 2;
+            } else if (op == Opcodes.SIPUSH) {
+                push(f, UNKNOWN);
+                next = pc + 3;
+            } else if (op == Opcodes.LDC) {
+                push(f, UNKNOWN);
+                next = pc + 2;
+            } else if (op == Opcodes.LDC_W) {
+                push(f, UNKNOWN);
+                next = pc + 3;
+            } else if (op == Opcodes.LDC2_W) {
+                pushN(f, 2);
+                next = pc + 3;
+            } else if (op >= Opcodes.ILOAD && op <= Opcodes.ALOAD) {
+                load(f, op - Opcodes.ILOAD, u1(pc + 1));
+                next = pc + 2;
+            } else if (op >= Opcodes.ILOAD_0 && op <= Opcodes.ALOAD_3) {
+                load(f, (op - Opcodes.ILOAD_0) / 4, (op - Opcodes.ILOAD_0) % 4);
+            } else if (op >= Opcodes.IALOAD && op <= Opcodes.SALOAD) {
+                popN(f, 2);
+                pushN(f, op == Opcodes.LALOAD || op == Opcodes.DALOAD ? 2 : 1);
+            } else if (op >= Opcodes.ISTORE && op <= Opcodes.ASTORE) {
+                store(f, op - Opcodes.ISTORE, u1(pc + 1));
+                next = pc + 2;
+            } else if (op >= Opcodes.ISTORE_0 && op <= Opcodes.ASTORE_3) {
+                store(f, (op - Opcodes.ISTORE_0) / 4, (op - Opcodes.ISTORE_0) % 4);
+            } else if (op >= Opcodes.IASTORE && op <= Opcodes.SASTORE) {
+                int valueSlots = op == Opcodes.LASTORE || op == Opcodes.DASTORE ? 2 : 1;
+                if (peek(f, valueSlots + 1) == UNKNOWN) {
+                    run.violation(PurityCertificate.Kind.ARRAY_WRITE, where, "stores into an array it did not allocate");
+                }
+                popN(f, valueSlots + 2);
+            } else if (op >= Opcodes.POP && op <= Opcodes.SWAP) {
+                stackOp(f, op);
+            } else if (op >= Opcodes.IADD && op <= Opcodes.LXOR) {
+                arithmetic(f, op);
+            } else if (op == Opcodes.IINC) {
+                next = pc + 3;
+            } else if (op >= Opcodes.I2L && op <= Opcodes.I2S) {
+                convert(f, op);
+            } else if (op == Opcodes.LCMP || op == Opcodes.DCMPL || op == Opcodes.DCMPG) {
+                popN(f, 4);
+                push(f, UNKNOWN);
+            } else if (op == Opcodes.FCMPL || op == Opcodes.FCMPG) {
+                popN(f, 2);
+                push(f, UNKNOWN);
+            } else if (op >= Opcodes.IFEQ && op <= Opcodes.IFLE || op == Opcodes.IFNULL || op == Opcodes.IFNONNULL) {
+                popN(f, 1);
+                return new int[] {pc + 3, pc + s2(pc + 1)};
+            } else if (op >= Opcodes.IF_ICMPEQ && op <= Opcodes.IF_ACMPNE) {
+                popN(f, 2);
+                return new int[] {pc + 3, pc + s2(pc + 1)};
+            } else if (op == Opcodes.GOTO) {
+                return new int[] {pc + s2(pc + 1)};
+            } else if (op == Opcodes.GOTO_W) {
+                return new int[] {pc + s4(pc + 1)};
+            } else if (op == Opcodes.TABLESWITCH || op == Opcodes.LOOKUPSWITCH) {
+                popN(f, 1);
+                return switchTargets(pc, op);
+            } else if (op >= Opcodes.IRETURN && op <= Opcodes.RETURN || op == Opcodes.ATHROW) {
+                return new int[0];
+            } else if (op >= Opcodes.GETSTATIC && op <= Opcodes.PUTFIELD) {
+                field(f, op, u2(pc + 1));
+                next = pc + 3;
+            } else if (op >= Opcodes.INVOKEVIRTUAL && op <= Opcodes.INVOKEINTERFACE) {
+                invoke(f, op, u2(pc + 1));
+                next = pc + (op == Opcodes.INVOKEINTERFACE ? 5 : 3);
+            } else if (op == Opcodes.INVOKEDYNAMIC) {
+                invokeDynamic(f, u2(pc + 1));
+                next = pc + 5;
+            } else if (op == Opcodes.NEW) {
+                push(f, freshClass(owner.className(u2(pc + 1))));
+                next = pc + 3;
+            } else if (op == Opcodes.NEWARRAY) {
+                popN(f, 1);
+                push(f, FRESH);
+                next = pc + 2;
+            } else if (op == Opcodes.ANEWARRAY) {
+                popN(f, 1);
+                push(f, FRESH);
+                next = pc + 3;
+            } else if (op == Opcodes.MULTIANEWARRAY) {
+                popN(f, u1(pc + 3));
+                push(f, FRESH);
+                next = pc + 4;
+            } else if (op == Opcodes.ARRAYLENGTH || op == Opcodes.INSTANCEOF) {
+                popN(f, 1);
+                push(f, UNKNOWN);
+                next = op == Opcodes.INSTANCEOF ? pc + 3 : pc + 1;
+            } else if (op == Opcodes.CHECKCAST) {
+                next = pc + 3;
+            } else if (op == Opcodes.MONITORENTER || op == Opcodes.MONITOREXIT) {
+                popN(f, 1);
+            } else if (op == Opcodes.WIDE) {
+                int wideOp = u1(pc + 1);
+                int index = u2(pc + 2);
+                if (wideOp == Opcodes.IINC) {
+                    next = pc + 6;
+                } else if (wideOp >= Opcodes.ILOAD && wideOp <= Opcodes.ALOAD) {
+                    load(f, wideOp - Opcodes.ILOAD, index);
+                    next = pc + 4;
+                } else if (wideOp >= Opcodes.ISTORE && wideOp <= Opcodes.ASTORE) {
+                    store(f, wideOp - Opcodes.ISTORE, index);
+                    next = pc + 4;
+                } else {
+                    run.violation(PurityCertificate.Kind.UNSUPPORTED, where, "wide ret");
+                    return null;
+                }
+            } else {
+                // jsr / ret (pre-Java 6 subroutines) and anything unknown.
+                run.violation(PurityCertificate.Kind.UNSUPPORTED, where, "opcode " + op + " at " + pc);
+                return null;
+            }
+            return new int[] {next};
+        }
+
+        /** {@code type}: 0 int, 1 long, 2 float, 3 double, 4 reference. */
+        private void load(int[] f, int type, int index) {
+            if (type == 1 || type == 3) {
+                pushN(f, 2);
+            } else {
+                push(f, type == 4 ? f[index] : UNKNOWN);
+            }
+        }
+
+        private void store(int[] f, int type, int index) {
+            if (type == 1 || type == 3) {
+                popN(f, 2);
+                f[index] = UNKNOWN;
+                f[index + 1] = UNKNOWN;
+            } else {
+                f[index] = pop(f);
+            }
+        }
+
+        private void stackOp(int[] f, int op) {
+            int a;
+            int b;
+            int c;
+            int d;
+            switch (op) {
+                case Opcodes.POP:
+                    popN(f, 1);
+                    break;
+                case Opcodes.POP2:
+                    popN(f, 2);
+                    break;
+                case Opcodes.DUP:
+                    push(f, peek(f, 0));
+                    break;
+                case Opcodes.DUP_X1:
+                    a = pop(f);
+                    b = pop(f);
+                    push(f, a);
+                    push(f, b);
+                    push(f, a);
+                    break;
+                case Opcodes.DUP_X2:
+                    a = pop(f);
+                    b = pop(f);
+                    c = pop(f);
+                    push(f, a);
+                    push(f, c);
+                    push(f, b);
+                    push(f, a);
+                    break;
+                case Opcodes.DUP2:
+                    a = peek(f, 1);
+                    b = peek(f, 0);
+                    push(f, a);
+                    push(f, b);
+                    break;
+                case Opcodes.DUP2_X1:
+                    a = pop(f);
+                    b = pop(f);
+                    c = pop(f);
+                    push(f, b);
+                    push(f, a);
+                    push(f, c);
+                    push(f, b);
+                    push(f, a);
+                    break;
+                case Opcodes.DUP2_X2:
+                    a = pop(f);
+                    b = pop(f);
+                    c = pop(f);
+                    d = pop(f);
+                    push(f, b);
+                    push(f, a);
+                    push(f, d);
+                    push(f, c);
+                    push(f, b);
+                    push(f, a);
+                    break;
+                default:
+                    a = pop(f);
+                    b = pop(f);
+                    push(f, a);
+                    push(f, b);
+                    break;
+            }
+        }
+
+        private void arithmetic(int[] f, int op) {
+            // IADD..DNEG cycle through int, long, float, double; the shifts and bitwise ops through int, long.
+            boolean wide;
+            if (op < Opcodes.INEG) {
+                wide = ((op - Opcodes.IADD) & 1) == 1;
+                popN(f, wide ? 4 : 2);
+            } else if (op <= Opcodes.DNEG) {
+                wide = ((op - Opcodes.INEG) & 1) == 1;
+                popN(f, wide ? 2 : 1);
+            } else if (op <= Opcodes.LUSHR) {
+                wide = ((op - Opcodes.ISHL) & 1) == 1;
+                popN(f, wide ? 3 : 2);
+            } else {
+                wide = ((op - Opcodes.IAND) & 1) == 1;
+                popN(f, wide ? 4 : 2);
+            }
+            pushN(f, wide ? 2 : 1);
+        }
+
+        private void convert(int[] f, int op) {
+            // Source and result widths for I2L..I2S.
+            int[] from = {1, 1, 1, 2, 2, 2, 1, 1, 1, 2, 2, 2, 1, 1, 1};
+            int[] to = {2, 1, 2, 1, 1, 2, 1, 2, 2, 1, 2, 1, 1, 1, 1};
+            popN(f, from[op - Opcodes.I2L]);
+            pushN(f, to[op - Opcodes.I2L]);
+        }
+
+        private int[] switchTargets(int pc, int op) {
+            int base = (pc + 4) & ~3;
+            List<Integer> targets = new ArrayList<>();
+            targets.add(pc + s4(base));
+            if (op == Opcodes.TABLESWITCH) {
+                int low = s4(base + 4);
+                int high = s4(base + 8);
+                for (int i = 0; i <= high - low; i++) {
+                    targets.add(pc + s4(base + 12 + 4 * i));
+                }
+            } else {
+                int pairs = s4(base + 4);
+                for (int i = 0; i < pairs; i++) {
+                    targets.add(pc + s4(base + 12 + 8 * i));
+                }
+            }
+            int[] result = new int[targets.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = targets.get(i);
+            }
+            return result;
+        }
+
+        private void field(int[] f, int op, int index) {
+            String[] ref = owner.memberRef(index);
+            String fieldOwner = ref[0];
+            String name = ref[1];
+            String descriptor = ref[2];
+            int size = slots(descriptor.charAt(0));
+            String field = fieldOwner + "." + name;
+            int access = run.fieldAccess(fieldOwner, name, descriptor);
+            boolean isFinal = access != -1 && (access & Modifier.FINAL) != 0;
+            switch (op) {
+                case Opcodes.GETSTATIC:
+                    if (!isFinal) {
+                        run.violation(PurityCertificate.Kind.STATIC_READ, where, "reads non-final static " + field);
+                    } else if (!immutableType(descriptor) && (access & 0x4000) == 0) {
+                        // 0x4000 is ACC_ENUM: enum constants are immutable references.
+                        run.violation(PurityCertificate.Kind.STATIC_READ, where,
+                                "reads static " + field + " of mutable type " + descriptor);
+                    }
+                    pushN(f, size);
+                    break;
+                case Opcodes.PUTSTATIC:
+                    run.violation(PurityCertificate.Kind.STATIC_WRITE, where, "writes static " + field);
+                    popN(f, size);
+                    break;
+                case Opcodes.GETFIELD:
+                    if (pop(f) == UNKNOWN && !isFinal) {
+                        run.violation(PurityCertificate.Kind.MUTABLE_READ, where, "reads non-final field " + field);
+                    }
+                    pushN(f, size);
+                    break;
+                default:
+                    if (peek(f, size) == UNKNOWN) {
+                        run.violation(PurityCertificate.Kind.FIELD_WRITE, where, "writes field " + field);
+                    }
+                    popN(f, size + 1);
+                    break;
+            }
+        }
+
+        private void invoke(int[] f, int op, int index) {
+            String[] ref = owner.memberRef(index);
+            String descriptor = ref[2];
+            int argSlots = argumentSlots(descriptor);
+            int receiver = UNKNOWN;
+            if (op != Opcodes.INVOKESTATIC) {
+                receiver = peek(f, argSlots);
+            }
+            run.call(where, op, ref[0], ref[1], descriptor, receiver, argumentValues(f, descriptor));
+            popN(f, argSlots + (op == Opcodes.INVOKESTATIC ? 0 : 1));
+            char ret = descriptor.charAt(descriptor.indexOf(')') + 1);
+            if (ret == 'V') {
+                // A constructor makes the value it was called on (and its DUPs) a complete fresh object.
+                return;
+            }
+            // A builder method returning its own fresh receiver (sb.append(x)) keeps the chain fresh.
+            String returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+            if (receiver != UNKNOWN && LOCAL_CLASSES.contains(ref[0]) && returnType.equals("L" + ref[0] + ";")) {
+                push(f, receiver);
+            } else {
+                pushN(f, slots(ret));
+            }
+        }
+
+        private void invokeDynamic(int[] f, int index) {
+            int[] indy = owner.invokeDynamic(index);
+            String descriptor = owner.nameAndType(indy[1])[1];
+            String bootstrap = owner.bootstrapOwner(indy[0]);
+            popN(f, argumentSlots(descriptor));
+            if (bootstrap.equals("java/lang/invoke/LambdaMetafactory")) {
+                // Creating the lambda is pure; its body runs only when called, but we check it now.
+                String[] impl = owner.bootstrapImplementation(indy[0]);
+                if (impl != null) {
+                    int kind = Integer.parseInt(impl[3]);
+                    int opcode = kind == MethodHandleInfo.REF_invokeStatic ? Opcodes.INVOKESTATIC
+                            : kind == MethodHandleInfo.REF_invokeInterface ? Opcodes.INVOKEINTERFACE
+                            : kind == MethodHandleInfo.REF_invokeVirtual ? Opcodes.INVOKEVIRTUAL
+                            : Opcodes.INVOKESPECIAL;
+                    run.call(where, opcode, impl[0], impl[1], impl[2],
+                            kind == MethodHandleInfo.REF_newInvokeSpecial ? FRESH : UNKNOWN, null);
+                }
+                push(f, freshClass(LAMBDA));
+            } else if (bootstrap.equals("java/lang/invoke/StringConcatFactory")
+                    || bootstrap.equals("java/lang/runtime/ObjectMethods")) {
+                pushN(f, slots(descriptor.charAt(descriptor.indexOf(')') + 1)));
+            } else {
+                run.violation(PurityCertificate.Kind.UNRESOLVED, where, "invokedynamic via " + bootstrap);
+                pushN(f, slots(descriptor.charAt(descriptor.indexOf(')') + 1)));
+            }
+        }
+
+        /** The abstract value of each argument on the stack, in parameter order. */
+        private int[] argumentValues(int[] f, String descriptor) {
+            List<String> types = parameterTypes(descriptor);
+            int[] values = new int[types.size()];
+            int depth = 0;
+            for (int i = types.size() - 1; i >= 0; i--) {
+                int size = types.get(i).equals("J") || types.get(i).equals("D") ? 2 : 1;
+                values[i] = peek(f, depth + size - 1);
+                depth += size;
+            }
+            return values;
+        }
+
+        static boolean isLambda(int value) {
+            return value >= FRESH_CLASS && freshClassName(value).equals(LAMBDA);
+        }
+
+        /** The parameter type descriptors of a method descriptor. */
+        static List<String> parameterTypes(String descriptor) {
+            List<String> types = new ArrayList<>();
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                int start = i;
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+                types.add(descriptor.substring(start, i));
+            }
+            return types;
+        }
+
+        private static boolean immutableType(String descriptor) {
+            return descriptor.length() == 1 || IMMUTABLE_TYPES.contains(descriptor);
+        }
+
+        private static int slots(char type) {
+            return type == 'V' ? 0 : type == 'J' || type == 'D' ? 2 : 1;
+        }
+
+        static int argumentSlots(String descriptor) {
+            int slots = 0;
+            for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+                char c = descriptor.charAt(i);
+                slots += slots(c);
+                if (c == '[') {
+                    while (descriptor.charAt(i) == '[') {
+                        i++;
+                    }
+                    if (descriptor.charAt(i) == 'L') {
+                        i = descriptor.indexOf(';', i);
+                    }
+                    slots += 1 - slots(c);
+                } else if (c == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+            }
+            return slots;
+        }
+    }
+
+    // -- Class file parsing --
+
+    private static final class MethodInfo {
+        final int access;
+        final String name;
+        final String descriptor;
+        byte[] code;
+        int maxStack;
+        int maxLocals;
+        // start, end, handler, catch type
+        final List<int[]> handlers = new ArrayList<>();
+
+        MethodInfo(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    /** The parts of a class file the analyzer needs: constant pool, fields, methods, bootstrap methods. */
+    private static final class ClassInfo {
+        private static final int UTF8 = 1;
+        private static final int LONG = 5;
+        private static final int DOUBLE = 6;
+
+        final String name;
+        final String superName;
+        final String[] interfaces;
+        final int access;
+        final Map<String, Integer> fields = new HashMap<>();
+        final Map<String, MethodInfo> methods = new HashMap<>();
+        private final byte[] bytes;
+        private final int[] offsets;
+        private final String[] strings;
+        // Offsets of each BootstrapMethods entry.
+        private int[] bootstraps = new int[0];
+
+        ClassInfo(byte[] bytes) throws IOException {
+            this.bytes = bytes;
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getInt() != 0xCAFEBABE) {
+                throw new IOException("Not a class file");
+            }
+            in.getShort();
+            in.getShort();
+            int count = in.getShort() & 0xFFFF;
+            offsets = new int[count];
+            strings = new String[count];
+            for (int i = 1; i < count; i++) {
+                offsets[i] = in.position();
+                int tag = in.get();
+                switch (tag) {
+                    case UTF8:
+                        int length = in.getShort() & 0xFFFF;
+                        in.position(in.position() + length);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        in.getInt();
+                        break;
+                    case LONG: case DOUBLE:
+                        in.getLong();
+                        i++;
+                        break;
+                    case 7: case 8: case 16: case 19: case 20:
+                        in.getShort();
+                        break;
+                    case 15:
+                        in.get();
+                        in.getShort();
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+            access = in.getShort() & 0xFFFF;
+            name = className(in.getShort() & 0xFFFF);
+            int superIndex = in.getShort() & 0xFFFF;
+            superName = superIndex == 0 ? null : className(superIndex);
+            interfaces = new String[in.getShort() & 0xFFFF];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = className(in.getShort() & 0xFFFF);
+            }
+            int fieldCount = in.getShort() & 0xFFFF;
+            for (int i = 0; i < fieldCount; i++) {
+                int fieldAccess = in.getShort() & 0xFFFF;
+                String fieldName = utf8(in.getShort() & 0xFFFF);
+                String descriptor = utf8(in.getShort() & 0xFFFF);
+                fields.put(fieldName + ":" + descriptor, fieldAccess);
+                skipAttributes(in);
+            }
+            int methodCount = in.getShort() & 0xFFFF;
+            for (int i = 0; i < methodCount; i++) {
+                MethodInfo method = new MethodInfo(in.getShort() & 0xFFFF, utf8(in.getShort() & 0xFFFF),
+                        utf8(in.getShort() & 0xFFFF));
+                int attributes = in.getShort() & 0xFFFF;
+                for (int a = 0; a < attributes; a++) {
+                    String attribute = utf8(in.getShort() & 0xFFFF);
+                    int length = in.getInt();
+                    int end = in.position() + length;
+                    if (attribute.equals("Code")) {
+                        method.maxStack = in.getShort() & 0xFFFF;
+                        method.maxLocals = in.getShort() & 0xFFFF;
+                        method.code = new byte[in.getInt()];
+                        in.get(method.code);
+                        int handlers = in.getShort() & 0xFFFF;
+                        for (int h = 0; h < handlers; h++) {
+                            method.handlers.add(new int[] {in.getShort() & 0xFFFF, in.getShort() & 0xFFFF,
+                                    in.getShort() & 0xFFFF, in.getShort() & 0xFFFF});
+                        }
+                    }
+                    in.position(end);
+                }
+                methods.put(method.name + method.descriptor, method);
+            }
+            int attributes = in.getShort() & 0xFFFF;
+            for (int a = 0; a < attributes; a++) {
+                String attribute = utf8(in.getShort() & 0xFFFF);
+                int length = in.getInt();
+                int end = in.position() + length;
+                if (attribute.equals("BootstrapMethods")) {
+                    bootstraps = new int[in.getShort() & 0xFFFF];
+                    for (int b = 0; b < bootstraps.length; b++) {
+                        bootstraps[b] = in.position();
+                        in.getShort();
+                        int arguments = in.getShort() & 0xFFFF;
+                        in.position(in.position() + 2 * arguments);
+                    }
+                }
+                in.position(end);
+            }
+        }
+
+        private static void skipAttributes(ByteBuffer in) {
+            int attributes = in.getShort() & 0xFFFF;
+            for (int a = 0; a < attributes; a++) {
+                in.getShort();
+                int length = in.getInt();
+                in.position(in.position() + length);
+            }
+        }
+
+        private int u2(int offset) {
+            return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        }
+
+        String utf8(int index) {
+            String s = strings[index];
+            if (s == null) {
+                int offset = offsets[index] + 1;
+                try {
+                    s = new DataInputStream(new ByteArrayInputStream(bytes, offset, u2(offset) + 2)).readUTF();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                strings[index] = s;
+            }
+            return s;
+        }
+
+        String className(int index) {
+            return utf8(u2(offsets[index] + 1));
+        }
+
+        /** {name, descriptor} of a NameAndType entry. */
+        String[] nameAndType(int index) {
+            int offset = offsets[index] + 1;
+            return new String[] {utf8(u2(offset)), utf8(u2(offset + 2))};
+        }
+
+        /** {owner, name, descriptor} of a Fieldref / Methodref / InterfaceMethodref entry. */
+        String[] memberRef(int index) {
+            int offset = offsets[index] + 1;
+            String[] nameAndType = nameAndType(u2(offset + 2));
+            return new String[] {className(u2(offset)), nameAndType[0], nameAndType[1]};
+        }
+
+        /** {bootstrap index, NameAndType index} of an InvokeDynamic entry. */
+        int[] invokeDynamic(int index) {
+            int offset = offsets[index] + 1;
+            return new int[] {u2(offset), u2(offset + 2)};
+        }
+
+        /** {kind, member ref index} of a MethodHandle entry. */
+        private int[] methodHandle(int index) {
+            int offset = offsets[index] + 1;
+            return new int[] {bytes[offset] & 0xFF, u2(offset + 1)};
+        }
+
+        String bootstrapOwner(int bootstrap) {
+            int handle = u2(bootstraps[bootstrap]);
+            return memberRef(methodHandle(handle)[1])[0];
+        }
+
+        /**
+         * The method's instructions with every constant-pool index replaced by the constant it
+         * names, plus its exception table. Two compilations of the same source hash alike even if
+         * their pools are ordered differently, and changing only a literal changes the hash.
+         */
+        byte[] resolvedCode(MethodInfo method) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(method.access);
+                byte[] code = method.code == null ? new byte[0] : method.code;
+                int pc = 0;
+                while (pc < code.length) {
+                    int op = code[pc] & 0xFF;
+                    int length = instructionLength(code, pc);
+                    int operand = pc + 1;
+                    out.writeByte(op);
+                    if (op == Opcodes.LDC) {
+                        writeConstant(code[pc + 1] & 0xFF, out);
+                        operand = pc + 2;
+                    } else if (referencesPool(op)) {
+                        writeConstant(((code[pc + 1] & 0xFF) << 8) | (code[pc + 2] & 0xFF), out);
+                        operand = pc + 3;
+                    }
+                    out.write(code, operand, pc + length - operand);
+                    pc += length;
+                }
+                for (int[] handler : method.handlers) {
+                    out.writeShort(handler[0]);
+                    out.writeShort(handler[1]);
+                    out.writeShort(handler[2]);
+                    writeString(handler[3] == 0 ? "*" : className(handler[3]), out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static boolean referencesPool(int op) {
+            return op == Opcodes.LDC_W || op == Opcodes.LDC2_W || op >= Opcodes.GETSTATIC && op <= Opcodes.NEW
+                    || op == Opcodes.ANEWARRAY || op == Opcodes.CHECKCAST || op == Opcodes.INSTANCEOF
+                    || op == Opcodes.MULTIANEWARRAY;
+        }
+
+        private static int instructionLength(byte[] code, int pc) {
+            int op = code[pc] & 0xFF;
+            if (op == Opcodes.TABLESWITCH || op == Opcodes.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                ByteBuffer table = ByteBuffer.wrap(code);
+                if (op == Opcodes.TABLESWITCH) {
+                    return base + 12 + 4 * (table.getInt(base + 8) - table.getInt(base + 4) + 1) - pc;
+                }
+                return base + 8 + 8 * table.getInt(base + 4) - pc;
+            }
+            if (op == Opcodes.WIDE) {
+                return (code[pc + 1] & 0xFF) == Opcodes.IINC ? 6 : 4;
+            }
+            if (op == Opcodes.BIPUSH || op == Opcodes.LDC || op >= Opcodes.ILOAD && op <= Opcodes.ALOAD
+                    || op >= Opcodes.ISTORE && op <= Opcodes.ASTORE || op == Opcodes.RET || op == Opcodes.NEWARRAY) {
+                return 2;
+            }
+            if (op == Opcodes.MULTIANEWARRAY) {
+                return 4;
+            }
+            if (op == Opcodes.INVOKEINTERFACE || op == Opcodes.INVOKEDYNAMIC || op == Opcodes.GOTO_W
+                    || op == Opcodes.JSR_W) {
+                return 5;
+            }
+            if (op == Opcodes.SIPUSH || op == Opcodes.IINC || op >= Opcodes.IFEQ && op <= Opcodes.JSR
+                    || referencesPool(op) || op == Opcodes.IFNULL || op == Opcodes.IFNONNULL) {
+                return 3;
+            }
+            return 1;
+        }
+
+        /** Writes the constant at {@code index} by value, following references to other entries. */
+        private void writeConstant(int index, DataOutputStream out) throws IOException {
+            int offset = offsets[index];
+            int tag = bytes[offset];
+            out.writeByte(tag);
+            switch (tag) {
+                case UTF8:
+                    writeString(utf8(index), out);
+                    break;
+                case 3: case 4:
+                    out.writeInt(ByteBuffer.wrap(bytes).getInt(offset + 1));
+                    break;
+                case LONG: case DOUBLE:
+                    out.writeLong(ByteBuffer.wrap(bytes).getLong(offset + 1));
+                    break;
+                case 7: case 8: case 16: case 19: case 20:
+                    // Class, String, MethodType, Module, Package: one UTF-8 reference.
+                    writeString(utf8(u2(offset + 1)), out);
+                    break;
+                case 9: case 10: case 11: case 12:
+                    // Field/Method/InterfaceMethod refs and NameAndType: two references.
+                    writeConstant(u2(offset + 1), out);
+                    writeConstant(u2(offset + 3), out);
+                    break;
+                case 15:
+                    out.writeByte(bytes[offset + 1]);
+                    writeConstant(u2(offset + 2), out);
+                    break;
+                case 17: case 18: {
+                    // Dynamic and InvokeDynamic: the bootstrap method with its arguments, then NameAndType.
+                    int bootstrap = bootstraps[u2(offset + 1)];
+                    int arguments = u2(bootstrap + 2);
+                    writeConstant(u2(bootstrap), out);
+                    out.writeShort(arguments);
+                    for (int i = 0; i < arguments; i++) {
+                        writeConstant(u2(bootstrap + 4 + 2 * i), out);
+                    }
+                    writeConstant(u2(offset + 3), out);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        private static void writeString(String s, DataOutputStream out) throws IOException {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+
+        /** {owner, name, descriptor, kind} of a LambdaMetafactory call's implementation method. */
+        String[] bootstrapImplementation(int bootstrap) {
+            int offset = bootstraps[bootstrap];
+            int arguments = u2(offset + 2);
+            if (arguments < 2) {
+                return null;
+            }
+            int[] handle = methodHandle(u2(offset + 4 + 2));
+            String[] ref = memberRef(handle[1]);
+            return new String[] {ref[0], ref[1], ref[2], Integer.toString(handle[0])};
+        }
+    }
+
+    /** The JVM opcodes the dataflow pass distinguishes (JVMS chapter 6). */
+    private static final class Opcodes {
+        static final int NOP = 0;
+        static final int ACONST_NULL = 1;
+        static final int ICONST_M1 = 2;
+        static final int ICONST_5 = 8;
+        static final int LCONST_0 = 9;
+        static final int LCONST_1 = 10;
+        static final int FCONST_0 = 11;
+        static final int FCONST_2 = 13;
+        static final int DCONST_0 = 14;
+        static final int DCONST_1 = 15;
+        static final int BIPUSH = 16;
+        static final int SIPUSH = 17;
+        static final int LDC = 18;
+        static final int LDC_W = 19;
+        static final int LDC2_W = 20;
+        static final int ILOAD = 21;
+        static final int ALOAD = 25;
+        static final int ILOAD_0 = 26;
+        static final int ALOAD_3 = 45;
+        static final int IALOAD = 46;
+        static final int LALOAD = 47;
+        static final int DALOAD = 49;
+        static final int SALOAD = 53;
+        static final int ISTORE = 54;
+        static final int ASTORE = 58;
+        static final int ISTORE_0 = 59;
+        static final int ASTORE_3 = 78;
+        static final int IASTORE = 79;
+        static final int LASTORE = 80;
+        static final int DASTORE = 82;
+        static final int SASTORE = 86;
+        static final int POP = 87;
+        static final int POP2 = 88;
+        static final int DUP = 89;
+        static final int DUP_X1 = 90;
+        static final int DUP_X2 = 91;
+        static final int DUP2 = 92;
+        static final int DUP2_X1 = 93;
+        static final int DUP2_X2 = 94;
+        static final int SWAP = 95;
+        static final int IADD = 96;
+        static final int INEG = 116;
+        static final int DNEG = 119;
+        static final int ISHL = 120;
+        static final int LUSHR = 125;
+        static final int IAND = 126;
+        static final int LXOR = 131;
+        static final int IINC = 132;
+        static final int I2L = 133;
+        static final int I2S = 147;
+        static final int LCMP = 148;
+        static final int FCMPL = 149;
+        static final int FCMPG = 150;
+        static final int DCMPL = 151;
+        static final int DCMPG = 152;
+        static final int IFEQ = 153;
+        static final int IFLE = 158;
+        static final int IF_ICMPEQ = 159;
+        static final int IF_ACMPNE = 166;
+        static final int GOTO = 167;
+        static final int JSR = 168;
+        static final int RET = 169;
+        static final int TABLESWITCH = 170;
+        static final int LOOKUPSWITCH = 171;
+        static final int IRETURN = 172;
+        static final int RETURN = 177;
+        static final int GETSTATIC = 178;
+        static final int PUTSTATIC = 179;
+        static final int GETFIELD = 180;
+        static final int PUTFIELD = 181;
+        static final int INVOKEVIRTUAL = 182;
+        static final int INVOKESPECIAL = 183;
+        static final int INVOKESTATIC = 184;
+        static final int INVOKEINTERFACE = 185;
+        static final int INVOKEDYNAMIC = 186;
+        static final int NEW = 187;
+        static final int NEWARRAY = 188;
+        static final int ANEWARRAY = 189;
+        static final int ARRAYLENGTH = 190;
+        static final int ATHROW = 191;
+        static final int CHECKCAST = 192;
+        static final int INSTANCEOF = 193;
+        static final int MONITORENTER = 194;
+        static final int MONITOREXIT = 195;
+        static final int WIDE = 196;
+        static final int MULTIANEWARRAY = 197;
+        static final int IFNULL = 198;
+        static final int IFNONNULL = 199;
+        static final int GOTO_W = 200;
+        static final int JSR_W = 201;
+
+        private Opcodes() {
+        }
+    }
+}
@@ -0,0 +1,1154 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Marks an interface method whose results {@link DiskCache#cached} may keep on disk. With
+ * {@code verify} (the default) the implementation must also pass {@link PurityAnalyzer}; without
+ * it the annotation is taken on trust.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Pure {
+    boolean verify() default true;
+}
+
+/**
+ * A canonical binary form for cache keys and values: equal values always encode to the same
+ * bytes, whatever the JVM run or the iteration order of a hash-based collection. Sets and maps
+ * are written sorted by the encoding of their elements and keys, and floating-point values by
+ * their canonical bits.
+ *
+ * Supported: null, boxed primitives, {@code String}, {@code BigInteger}, {@code BigDecimal},
+ * primitive arrays of byte/int/long/double, lists, sets, maps, enums and records of these. Any
+ * other {@code Serializable} falls back to Java serialization, which is only canonical if the
+ * class writes its state deterministically. Decoded collections are unmodifiable.
+ */
+final class Canonical {
+    private static final int NULL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int SHORT = 3;
+    private static final int CHAR = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int STRING = 9;
+    private static final int BIG_INTEGER = 10;
+    private static final int BIG_DECIMAL = 11;
+    private static final int BYTES = 12;
+    private static final int INTS = 13;
+    private static final int LONGS = 14;
+    private static final int DOUBLES = 15;
+    private static final int LIST = 16;
+    private static final int SET = 17;
+    private static final int MAP = 18;
+    private static final int ENUM = 19;
+    private static final int RECORD = 20;
+    private static final int SERIALIZED = 21;
+
+    private Canonical() {
+    }
+
+    static byte[] encode(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(value, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Whether every value of static type {@code type} decodes to something of that type. Lists,
+     * sets and maps come back as unmodifiable JDK collections, so concrete collection classes,
+     * and sorted or navigable interfaces, do not; neither do records or type arguments that
+     * contain them.
+     */
+    static boolean decodesAs(Type type) {
+        if (type instanceof ParameterizedType) {
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                if (!decodesAs(argument)) {
+                    return false;
+                }
+            }
+            return decodesAs(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof WildcardType) {
+            return allDecode(((WildcardType) type).getUpperBounds());
+        }
+        if (type instanceof TypeVariable) {
+            return allDecode(((TypeVariable<?>) type).getBounds());
+        }
+        if (type instanceof GenericArrayType) {
+            // Object arrays fall back to serialization, which restores their exact classes.
+            return true;
+        }
+        Class<?> c = (Class<?>) type;
+        if (c == List.class || c == Set.class || c == Map.class || c == Collection.class || c == Iterable.class) {
+            return true;
+        }
+        if (List.class.isAssignableFrom(c) || Set.class.isAssignableFrom(c) || Map.class.isAssignableFrom(c)) {
+            return false;
+        }
+        if (c.isRecord()) {
+            for (RecordComponent component : c.getRecordComponents()) {
+                if (!decodesAs(component.getGenericType())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean allDecode(Type[] types) {
+        for (Type type : types) {
+            if (!decodesAs(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Decodes one value starting at {@code in}'s position, reading the buffer in place. */
+    static Object decode(ByteBuffer in) {
+        return read(in.duplicate());
+    }
+
+    private static void write(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), out);
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(((BigInteger) value).toByteArray(), out);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(((BigDecimal) value).scale());
+            writeBytes(((BigDecimal) value).unscaledValue().toByteArray(), out);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes((byte[]) value, out);
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeByte(INTS);
+            out.writeInt(array.length);
+            for (int x : array) {
+                out.writeInt(x);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            out.writeByte(LONGS);
+            out.writeInt(array.length);
+            for (long x : array) {
+                out.writeLong(x);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.writeByte(DOUBLES);
+            out.writeInt(array.length);
+            for (double x : array) {
+                out.writeLong(Double.doubleToLongBits(x));
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                write(element, out);
+            }
+        } else if (value instanceof Set) {
+            out.writeByte(SET);
+            writeSorted((Set<?>) value, out);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            // Sort entries by their key's encoding; the value follows its key.
+            List<byte[]> entries = new ArrayList<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                byte[] key = encode(entry.getKey());
+                byte[] element = encode(entry.getValue());
+                byte[] both = Arrays.copyOf(key, key.length + element.length);
+                System.arraycopy(element, 0, both, key.length, element.length);
+                entries.add(both);
+            }
+            entries.sort(Arrays::compare);
+            out.writeByte(MAP);
+            out.writeInt(entries.size());
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            out.writeUTF(((Enum<?>) value).getDeclaringClass().getName());
+            out.writeUTF(((Enum<?>) value).name());
+        } else if (value.getClass().isRecord()) {
+            RecordComponent[] components = value.getClass().getRecordComponents();
+            out.writeByte(RECORD);
+            out.writeUTF(value.getClass().getName());
+            for (RecordComponent component : components) {
+                try {
+                    Method accessor = component.getAccessor();
+                    accessor.setAccessible(true);
+                    write(accessor.invoke(value), out);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Cannot read " + component, e);
+                }
+            }
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            writeBytes(bytes.toByteArray(), out);
+        } else {
+            throw new IllegalArgumentException("No canonical encoding for " + value.getClass().getName());
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeSorted(Set<?> set, DataOutputStream out) throws IOException {
+        List<byte[]> elements = new ArrayList<>(set.size());
+        for (Object element : set) {
+            elements.add(encode(element));
+        }
+        elements.sort(Arrays::compare);
+        out.writeInt(elements.size());
+        for (byte[] element : elements) {
+            out.write(element);
+        }
+    }
+
+    private static Object read(ByteBuffer in) {
+        int tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.get() != 0;
+            case BYTE:
+                return in.get();
+            case SHORT:
+                return in.getShort();
+            case CHAR:
+                return in.getChar();
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case FLOAT:
+                return Float.intBitsToFloat(in.getInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case STRING: {
+                int length = in.getInt();
+                String s = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+                in.position(in.position() + length);
+                return s;
+            }
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case BIG_DECIMAL: {
+                int scale = in.getInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            }
+            case BYTES:
+                return readBytes(in);
+            case INTS: {
+                int[] array = new int[in.getInt()];
+                in.asIntBuffer().get(array);
+                in.position(in.position() + 4 * array.length);
+                return array;
+            }
+            case LONGS: {
+                long[] array = new long[in.getInt()];
+                in.asLongBuffer().get(array);
+                in.position(in.position() + 8 * array.length);
+                return array;
+            }
+            case DOUBLES: {
+                double[] array = new double[in.getInt()];
+                in.asDoubleBuffer().get(array);
+                in.position(in.position() + 8 * array.length);
+                return array;
+            }
+            case LIST: {
+                int size = in.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in));
+                }
+                return Collections.unmodifiableList(list);
+            }
+            case SET: {
+                int size = in.getInt();
+                Set<Object> set = new LinkedHashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(read(in));
+                }
+                return Collections.unmodifiableSet(set);
+            }
+            case MAP: {
+                int size = in.getInt();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = read(in);
+                    map.put(key, read(in));
+                }
+                return Collections.unmodifiableMap(map);
+            }
+            case ENUM:
+                return readEnum(readUtf(in), readUtf(in));
+            case RECORD:
+                return readRecord(readUtf(in), in);
+            case SERIALIZED:
+                try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return objects.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Cannot deserialize cached value", e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown tag " + tag);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static String readUtf(ByteBuffer in) {
+        // writeUTF's length prefix, then modified UTF-8, which equals UTF-8 for the names written here.
+        int length = in.getShort() & 0xFFFF;
+        String s = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        in.position(in.position() + length);
+        return s;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(String className, String name) {
+        return Enum.valueOf((Class) load(className), name);
+    }
+
+    private static Object readRecord(String className, ByteBuffer in) {
+        Class<?> type = load(className);
+        RecordComponent[] components = type.getRecordComponents();
+        Class<?>[] types = new Class<?>[components.length];
+        Object[] values = new Object[components.length];
+        for (int i = 0; i < components.length; i++) {
+            types[i] = components[i].getType();
+            values[i] = read(in);
+        }
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+            return constructor.newInstance(values);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot construct " + className, e);
+        }
+    }
+
+    private static Class<?> load(String className) {
+        try {
+            return Class.forName(className, false, Canonical.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Cached value refers to a missing class " + className, e);
+        }
+    }
+}
+
+/**
+ * Results of pure functions kept on disk, so a restarted batch job skips work an earlier run
+ * already did. The notes' argument for memoization, "same input, same output", holds across
+ * processes too, as long as the function's code has not changed.
+ *
+ * ```java
+ * interface Pricing {
+ *     @Pure BigInteger price(int n, String region);
+ * }
+ * Pricing pricing = DiskCache.cached(Pricing.class, new SlowPricing(), Path.of("cache"), 1L << 30);
+ *
+ * SerializableFunction<Integer, Integer> primeCount = n -> BigMath.primesUpTo(n).length;
+ * DiskCache.DiskMemoized<Integer, Integer> counts = DiskCache.memoize(primeCount, Path.of("cache"), 1L << 30);
+ * ```
+ *
+ * Each function gets its own store, two memory-mapped files:
+ *
+ * - **Data**: a header and then an append-only log of records, each holding
+ *   {@code keyLength, valueLength, key, value}. The key is the {@link Canonical} encoding of the
+ *   arguments. A hit returns a read-only slice of the mapping, so no bytes are copied before
+ *   decoding. The header's end offset is written after each record, so a record torn by a
+ *   crash is never read.
+ * - **Index**: an open-addressing hash table with linear probing. Each slot holds the key's
+ *   64-bit hash, the record offset and a last-access stamp. Full keys are compared on a hash
+ *   match, so a hash collision costs a comparison, never a wrong result. If the index is missing
+ *   or does not match the log, it is rebuilt by scanning the log.
+ *
+ * **Versioning.** The data header stores a hash of the function's version, which is the
+ * {@link PurityCertificate#bytecodeHash} of everything the function runs, with the literals and
+ * members each instruction refers to. If any of it changes, even a single string constant, the
+ * old results are dropped on open. With {@code @Pure(verify = false)} the hash covers only the
+ * code the analyzer could follow. State the function depends on is part of the file name:
+ * a lambda's captured values, or the implementation's instance fields. Two instances with
+ * different state therefore never share results.
+ *
+ * **Size bound.** When an append would grow the log past {@code maxBytes}, the log is compacted.
+ * The most recently used records are kept, up to half of {@code maxBytes}. They are written to a
+ * new file, which then atomically replaces the log. Slices returned before compaction stay
+ * valid, because they keep the old mapping alive.
+ *
+ * Lookups take a read lock and appends a write lock. Two threads missing on the same key both
+ * compute it, which is harmless for a pure function; the second append is skipped. Writes are
+ * forced to disk on {@link #close}; before that they are as durable as the OS page cache.
+ *
+ * **One owner per store.** Each instance keeps the log's end and the index's shape in memory, so
+ * two instances writing the same files would corrupt them. {@link #open} takes an exclusive lock
+ * on a {@code .lock} file next to the store and throws {@code IllegalStateException} if another
+ * instance holds it, in this JVM or another process. Memoize a function once and share the
+ * result; close it before opening the store again.
+ *
+ * **Return types.** Decoded lists, sets and maps are unmodifiable JDK collections, so
+ * {@link #cached} and {@link #memoize} reject functions declared to return a concrete collection
+ * class such as {@code ArrayList}, directly or inside a record or type argument. Declare
+ * {@code List}, {@code Set}, {@code Map} or {@code Collection} instead.
+ */
+final class DiskCache implements Closeable {
+
+    // "PURECACH"
+    private static final long MAGIC = 0x5055524543414348L;
+    // 2: versions hash resolved constants, not constant-pool indices.
+    private static final int FORMAT = 2;
+
+    // Data header: magic, format, version hash, end of the log.
+    private static final int DATA_HEADER = 64;
+    private static final int VERSION_AT = 16;
+    private static final int END_AT = 48;
+
+    // Index header: magic, capacity, count, end of the log when last updated, access clock.
+    private static final int INDEX_HEADER = 32;
+    private static final int CAPACITY_AT = 8;
+    private static final int COUNT_AT = 12;
+    private static final int INDEX_END_AT = 16;
+    private static final int CLOCK_AT = 24;
+    // Slot: hash (0 = empty), record offset, last-access stamp.
+    private static final int SLOT = 16;
+
+    private static final int MIN_MAPPING = 1 << 16;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final byte[] version;
+    private final int maxBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger clock = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    private final FileChannel lockChannel;
+    private final FileLock ownership;
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+    private int end;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private boolean closed;
+
+    /** True if the store held results of a different version of the function, which were dropped on open. */
+    final boolean invalidated;
+
+    private DiskCache(Path dataPath, Path indexPath, Path lockPath, byte[] version, int maxBytes) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        this.version = version;
+        this.maxBytes = maxBytes;
+        // The data file is replaced by compaction, so ownership is a lock on a separate file.
+        lockChannel = FileChannel.open(lockPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IllegalStateException("DiskCache store is already open: " + dataPath);
+        }
+        ownership = acquired;
+        try {
+            this.invalidated = openData();
+            openIndex();
+        } catch (IOException | RuntimeException e) {
+            releaseFiles();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens or creates the store for {@code name} in {@code dir}. Existing results are kept only
+     * if they were written under the same {@code version}.
+     */
+    static DiskCache open(Path dir, String name, String version, long maxBytes) throws IOException {
+        if (maxBytes < MIN_MAPPING || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBytes must be between " + MIN_MAPPING + " and 2^31 - 1: " + maxBytes);
+        }
+        Files.createDirectories(dir);
+        // Readable prefix for humans, hash suffix for uniqueness.
+        String readable = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        String base = readable.substring(0, Math.min(readable.length(), 80)) + "-"
+                + hex(sha256(name.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+        return new DiskCache(dir.resolve(base + ".data"), dir.resolve(base + ".index"), dir.resolve(base + ".lock"),
+                sha256(version.getBytes(StandardCharsets.UTF_8)), (int) maxBytes);
+    }
+
+    /**
+     * Disk-memoizes {@code fn}, which must pass {@link PurityAnalyzer}. Its captured values are
+     * part of the store's name, so {@code x -> x + k} keeps separate results for each {@code k}.
+     */
+    static <A, R> DiskMemoized<A, R> memoize(SerializableFunction<A, R> fn, Path dir, long maxBytes) throws IOException {
+        PurityCertificate certificate = PurityAnalyzer.analyze(fn);
+        if (!certificate.isPure()) {
+            throw new IllegalArgumentException(certificate.toString());
+        }
+        SerializedLambda lambda = PurityAnalyzer.serialize(fn);
+        Class<?> returnType;
+        try {
+            returnType = MethodType.fromMethodDescriptorString(lambda.getImplMethodSignature(),
+                    fn.getClass().getClassLoader()).returnType();
+        } catch (TypeNotPresentException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cannot resolve the return type of " + certificate.target, e);
+        }
+        if (!Canonical.decodesAs(returnType)) {
+            throw new IllegalArgumentException(certificate.target + " returns " + returnType.getName()
+                    + ", but cached results decode as unmodifiable List, Set or Map");
+        }
+        List<Object> captured = new ArrayList<>();
+        for (int i = 0; i < lambda.getCapturedArgCount(); i++) {
+            captured.add(lambda.getCapturedArg(i));
+        }
+        String name = certificate.target + "@" + hex(sha256(Canonical.encode(captured))).substring(0, 16);
+        return new DiskMemoized<>(fn, open(dir, name, certificate.bytecodeHash, maxBytes));
+    }
+
+    /**
+     * A proxy for {@code impl} whose {@link Pure} methods read through a disk cache, one store per
+     * method. The proxy also implements {@link Closeable}; closing it closes the stores.
+     */
+    static <T> T cached(Class<T> type, T impl, Path dir, long maxBytes) throws IOException {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException(type.getName() + " is not an interface");
+        }
+        String state = hex(sha256(Canonical.encode(instanceState(impl)))).substring(0, 16);
+        Map<Method, DiskCache> stores = new HashMap<>();
+        try {
+            for (Method method : type.getMethods()) {
+                Pure pure = method.getAnnotation(Pure.class);
+                if (pure == null) {
+                    continue;
+                }
+                if (method.getReturnType() == void.class) {
+                    throw new IllegalArgumentException("@Pure method returns nothing to cache: " + method);
+                }
+                if (!Canonical.decodesAs(method.getGenericReturnType())) {
+                    throw new IllegalArgumentException("@Pure method returns " + method.getGenericReturnType()
+                            + ", but cached results decode as unmodifiable List, Set or Map: " + method);
+                }
+                Method implementation;
+                try {
+                    implementation = impl.getClass().getMethod(method.getName(), method.getParameterTypes());
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalArgumentException("No implementation of " + method, e);
+                }
+                PurityCertificate certificate = PurityAnalyzer.analyze(implementation);
+                if (pure.verify() && !certificate.isPure()) {
+                    throw new IllegalArgumentException(certificate.toString());
+                }
+                String descriptor = MethodType.methodType(method.getReturnType(), method.getParameterTypes())
+                        .toMethodDescriptorString();
+                String name = type.getName() + "." + method.getName() + descriptor + "@" + state;
+                stores.put(method, open(dir, name, certificate.bytecodeHash, maxBytes));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (DiskCache store : stores.values()) {
+                store.close();
+            }
+            throw e;
+        }
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type, Closeable.class},
+                (self, method, args) -> {
+                    if (method.getDeclaringClass() == Closeable.class) {
+                        for (DiskCache store : stores.values()) {
+                            store.close();
+                        }
+                        return null;
+                    }
+                    DiskCache store = stores.get(method);
+                    if (store == null) {
+                        return invoke(method, impl, args);
+                    }
+                    byte[] key = Canonical.encode(args == null ? List.of() : Arrays.asList(args));
+                    ByteBuffer hit = store.get(key);
+                    if (hit != null) {
+                        return Canonical.decode(hit);
+                    }
+                    Object result = invoke(method, impl, args);
+                    store.put(key, Canonical.encode(result));
+                    return result;
+                });
+        return type.cast(proxy);
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            method.setAccessible(true);
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** The implementation's instance fields, in declaration order from the top of the hierarchy. */
+    private static List<Object> instanceState(Object impl) {
+        List<Object> state = new ArrayList<>();
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = impl.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        for (Class<?> c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    state.add(field.get(impl));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalArgumentException("Cannot read " + field, e);
+                }
+            }
+        }
+        return state;
+    }
+
+    /** A {@code Function} that reads through a {@link DiskCache}. */
+    static final class DiskMemoized<A, R> implements Function<A, R>, Closeable {
+        private final Function<A, R> fn;
+        private final DiskCache store;
+
+        DiskMemoized(Function<A, R> fn, DiskCache store) {
+            this.fn = fn;
+            this.store = store;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public R apply(A argument) {
+            byte[] key = Canonical.encode(argument);
+            ByteBuffer hit = store.get(key);
+            if (hit != null) {
+                return (R) Canonical.decode(hit);
+            }
+            R result = fn.apply(argument);
+            try {
+                store.put(key, Canonical.encode(result));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+
+        DiskCache store() {
+            return store;
+        }
+
+        @Override
+        public void close() throws IOException {
+            store.close();
+        }
+    }
+
+    // -- Lookups and appends --
+
+    /** The value stored for {@code key} as a read-only view of the mapped file, or null. */
+    ByteBuffer get(byte[] key) {
+        long hash = hash(key);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int slot = find(hash, key);
+            if (slot < 0) {
+                misses.increment();
+                return null;
+            }
+            int at = INDEX_HEADER + slot * SLOT;
+            index.putInt(at + 12, clock.incrementAndGet());
+            int offset = index.getInt(at + 8);
+            int keyLength = data.getInt(offset);
+            int valueLength = data.getInt(offset + 4);
+            hits.increment();
+            return data.slice(offset + 8 + keyLength, valueLength).asReadOnlyBuffer();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends {@code key -> value} unless the key is already present. Returns false if it was, or
+     * if the record is too large to keep: more than half of {@code maxBytes}.
+     */
+    boolean put(byte[] key, byte[] value) throws IOException {
+        long length = 8L + key.length + value.length;
+        if (DATA_HEADER + length > maxBytes / 2) {
+            return false;
+        }
+        long hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (find(hash, key) >= 0) {
+                return false;
+            }
+            if (end + length > maxBytes) {
+                compact();
+            }
+            int offset = end;
+            ensureMapped(offset + (int) length);
+            data.putInt(offset, key.length).putInt(offset + 4, value.length)
+                    .put(offset + 8, key).put(offset + 8 + key.length, value);
+            end = offset + (int) length;
+            data.putLong(END_AT, end);
+            if ((count + 1) * 2 > capacity) {
+                resizeIndex(capacity * 2);
+            }
+            insert(hash, offset, clock.incrementAndGet());
+            index.putLong(INDEX_END_AT, end);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Bytes used by the log, including its header. */
+    long bytes() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Hits and misses since open; evictions are records dropped by compaction. */
+    Memo.Stats stats() {
+        lock.readLock().lock();
+        try {
+            return new Memo.Stats(hits.sum(), misses.sum(), evictions, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            index.putInt(CLOCK_AT, clock.get());
+            data.force();
+            index.force();
+        } finally {
+            releaseFiles();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Closes the channels and gives up ownership of the store. */
+    private void releaseFiles() throws IOException {
+        try {
+            if (dataChannel != null) {
+                dataChannel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        } finally {
+            ownership.release();
+            lockChannel.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("DiskCache is closed: " + dataPath);
+        }
+    }
+
+    // -- Data file --
+
+    /** Maps the log, starting a new one if it is missing, damaged or of another version. */
+    private boolean openData() throws IOException {
+        dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        long size = dataChannel.size();
+        if (size >= DATA_HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+            dataChannel.read(header, 0);
+            byte[] stored = new byte[version.length];
+            header.get(VERSION_AT, stored);
+            long storedEnd = header.getLong(END_AT);
+            if (header.getLong(0) == MAGIC && header.getInt(8) == FORMAT && storedEnd >= DATA_HEADER
+                    && storedEnd <= size && storedEnd <= Integer.MAX_VALUE) {
+                if (Arrays.equals(stored, version)) {
+                    end = (int) storedEnd;
+                    data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(end, Math.min(size, maxBytes)));
+                    return false;
+                }
+                startData();
+                return true;
+            }
+        }
+        startData();
+        return false;
+    }
+
+    private void startData() throws IOException {
+        dataChannel.truncate(0);
+        end = DATA_HEADER;
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(MIN_MAPPING, maxBytes));
+        data.putLong(0, MAGIC).putInt(8, FORMAT).put(VERSION_AT, version).putLong(END_AT, end);
+    }
+
+    /** Remaps the log so at least {@code needed} bytes are addressable, doubling to amortize. */
+    private void ensureMapped(int needed) throws IOException {
+        if (needed <= data.capacity()) {
+            return;
+        }
+        long mapped = data.capacity();
+        while (mapped < needed) {
+            mapped *= 2;
+        }
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(mapped, maxBytes));
+    }
+
+    /**
+     * Rewrites the log with the most recently used records, up to half of {@code maxBytes}, in
+     * their original order, then swaps it in and rebuilds the index.
+     */
+    private void compact() throws IOException {
+        int[] offsets = new int[count];
+        int[] stamps = new int[count];
+        long[] hashes = new long[count];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int at = INDEX_HEADER + slot * SLOT;
+            long hash = index.getLong(at);
+            if (hash != 0) {
+                hashes[n] = hash;
+                offsets[n] = index.getInt(at + 8);
+                stamps[n] = index.getInt(at + 12);
+                n++;
+            }
+        }
+        Integer[] byRecency = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byRecency[i] = i;
+        }
+        Arrays.sort(byRecency, (a, b) -> Integer.compareUnsigned(stamps[b], stamps[a]));
+        long budget = maxBytes / 2 - DATA_HEADER;
+        List<Integer> kept = new ArrayList<>();
+        for (int i : byRecency) {
+            long length = recordLength(offsets[i]);
+            if (length > budget) {
+                break;
+            }
+            budget -= length;
+            kept.add(i);
+        }
+        // Rank stamps from oldest to newest, so the clock restarts small.
+        int[] rank = new int[n];
+        for (int r = 0; r < kept.size(); r++) {
+            rank[kept.get(r)] = kept.size() - r;
+        }
+        kept.sort((a, b) -> Integer.compare(offsets[a], offsets[b]));
+
+        Path tmp = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+        int[] moved = new int[n];
+        int newEnd = DATA_HEADER;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i : kept) {
+                int length = recordLength(offsets[i]);
+                moved[i] = newEnd;
+                out.write(data.slice(offsets[i], length), newEnd);
+                newEnd += length;
+            }
+            ByteBuffer header = ByteBuffer.allocate(DATA_HEADER);
+            header.putLong(0, MAGIC).putInt(8, FORMAT).put(VERSION_AT, version).putLong(END_AT, newEnd);
+            out.write(header, 0);
+            out.force(true);
+        }
+        Files.move(tmp, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dataChannel.close();
+        dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = newEnd;
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(end, Math.min(MIN_MAPPING, maxBytes)));
+
+        evictions += n - kept.size();
+        clock.set(kept.size());
+        startIndex(tableSize(kept.size()));
+        for (int i : kept) {
+            insert(hashes[i], moved[i], rank[i]);
+        }
+        index.putLong(INDEX_END_AT, end);
+    }
+
+    private int recordLength(int offset) {
+        return 8 + data.getInt(offset) + data.getInt(offset + 4);
+    }
+
+    // -- Index file --
+
+    private void openIndex() throws IOException {
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        long size = indexChannel.size();
+        if (size >= INDEX_HEADER) {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int storedCapacity = index.getInt(CAPACITY_AT);
+            if (index.getLong(0) == MAGIC && storedCapacity > 0 && Integer.bitCount(storedCapacity) == 1
+                    && size == INDEX_HEADER + (long) storedCapacity * SLOT && index.getLong(INDEX_END_AT) == end) {
+                capacity = storedCapacity;
+                count = index.getInt(COUNT_AT);
+                clock.set(index.getInt(CLOCK_AT));
+                return;
+            }
+        }
+        rebuildIndex();
+    }
+
+    /** Rebuilds the index from the log; a trailing record that does not fit is cut off. */
+    private void rebuildIndex() throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        int offset = DATA_HEADER;
+        while (offset + 8 <= end) {
+            long length = 8L + data.getInt(offset) + data.getInt(offset + 4);
+            if (data.getInt(offset) < 0 || data.getInt(offset + 4) < 0 || offset + length > end) {
+                break;
+            }
+            offsets.add(offset);
+            offset += (int) length;
+        }
+        end = offset;
+        data.putLong(END_AT, end);
+        startIndex(tableSize(offsets.size()));
+        for (int recordOffset : offsets) {
+            byte[] key = new byte[data.getInt(recordOffset)];
+            data.get(recordOffset + 8, key);
+            long hash = hash(key);
+            if (find(hash, key) < 0) {
+                insert(hash, recordOffset, 0);
+            }
+        }
+        index.putLong(INDEX_END_AT, end);
+    }
+
+    private void resizeIndex(int newCapacity) throws IOException {
+        long[] hashes = new long[count];
+        int[] offsets = new int[count];
+        int[] stamps = new int[count];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int at = INDEX_HEADER + slot * SLOT;
+            if (index.getLong(at) != 0) {
+                hashes[n] = index.getLong(at);
+                offsets[n] = index.getInt(at + 8);
+                stamps[n] = index.getInt(at + 12);
+                n++;
+            }
+        }
+        startIndex(newCapacity);
+        for (int i = 0; i < n; i++) {
+            insert(hashes[i], offsets[i], stamps[i]);
+        }
+    }
+
+    /** Replaces the index file with an empty table of {@code newCapacity} slots. */
+    private void startIndex(int newCapacity) throws IOException {
+        index = null;
+        indexChannel.truncate(0);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) newCapacity * SLOT);
+        capacity = newCapacity;
+        count = 0;
+        index.putLong(0, MAGIC).putInt(CAPACITY_AT, capacity).putInt(COUNT_AT, 0)
+                .putLong(INDEX_END_AT, end).putInt(CLOCK_AT, clock.get());
+    }
+
+    /** The slot holding {@code key}, or {@code -1 - slot} for the empty slot where probing stopped. */
+    private int find(long hash, byte[] key) {
+        int mask = capacity - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int at = INDEX_HEADER + slot * SLOT;
+            long stored = index.getLong(at);
+            if (stored == 0) {
+                return -1 - slot;
+            }
+            if (stored == hash && keyEquals(index.getInt(at + 8), key)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(long hash, int offset, int stamp) {
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (index.getLong(INDEX_HEADER + slot * SLOT) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        int at = INDEX_HEADER + slot * SLOT;
+        index.putLong(at, hash).putInt(at + 8, offset).putInt(at + 12, stamp);
+        count++;
+        index.putInt(COUNT_AT, count);
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        return data.getInt(offset) == key.length && data.slice(offset + 8, key.length).equals(ByteBuffer.wrap(key));
+    }
+
+    /** A power of two at least twice {@code entries}, so probe sequences stay short. */
+    private static int tableSize(int entries) {
+        int size = 64;
+        while (size < 2 * entries + 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // -- Hashing --
+
+    /** 64-bit FNV-1a with a final avalanche, never 0 (which marks an empty slot). */
+    private static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}